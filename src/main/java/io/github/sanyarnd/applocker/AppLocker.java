@@ -1,12 +1,22 @@
 package io.github.sanyarnd.applocker;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serializable;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import org.jetbrains.annotations.NotNull;
@@ -24,44 +34,76 @@
  * @author Alexander Biryukov
  */
 public final class AppLocker implements AutoCloseable {
+    static final String UNIQUE_GLOBAL_LOCK = "Unique global lock";
+    static final String LOCK_PORT_PATTERN = ".%s_port.lock";
+    static final String LOCK_NAME_PATTERN = ".%s.lock";
+    static final String LOCK_TOKEN_PATTERN = ".%s_token.lock";
     private static final Logger LOG = LoggerFactory.getLogger(AppLocker.class);
 
-    private static final String UNIQUE_GLOBAL_LOCK = "Unique global lock";
-    private static final String LOCK_PORT_PATTERN = ".%s_port.lock";
-    private static final String LOCK_NAME_PATTERN = ".%s.lock";
+    private static final String SPILL_NAME_PATTERN = ".%s_%s.spill";
+    private static final String SHARED_MEMORY_NAME_PATTERN = ".%s_%s.shm";
+    private static final String JOURNAL_NAME_PATTERN = ".%s.journal";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String NO_HANDOVER_SERVER = "Message server is not configured, nothing to hand over to";
+    private static final int SPILL_DISABLED = -1;
+    private static final long NO_TOKEN = 0;
     private static final int LOCK_TIMEOUT_MS = 1000;
     private static final int PORT_TIMEOUT_MS = 1000;
 
     private final @NotNull String lockId;
+    private final @NotNull String encodedId;
+    private final @NotNull Path lockDirectory;
     private final @NotNull Lock gLock;
     private final @NotNull Lock appLock;
     private final @NotNull Path portFile;
+    private final @NotNull Path tokenFile;
     private final @Nullable Server<?, ?> server;
     private final @NotNull Runnable acquiredHandler;
     private final @Nullable BiConsumer<AppLocker, LockingBusyException> busyHandler;
     private final @NotNull Consumer<LockingException> failedHandler;
+    private final int spillThreshold;
+    private final int sharedMemoryCapacity;
+    private final int journalCapacity;
+    private final long replayTimeoutMs;
+    private final int compressionThreshold;
+    private final @Nullable CircuitBreaker circuitBreaker;
+    private final boolean framedTransport;
+    private final @Nullable RemoteLease lease;
+    private @Nullable SharedMemoryClient sharedMemory;
+    private @Nullable FramedClient framed;
+    private @Nullable MessageJournal journal;
+    private volatile long fencingToken = NO_TOKEN;
 
-    private AppLocker(
-        final @NotNull String nameId,
-        final @NotNull Path lockPath,
-        final @NotNull LockIdEncoder idEncoder,
-        final @Nullable Server<?, ?> messageServer,
-        final @NotNull Runnable onAcquire,
-        final @Nullable BiConsumer<AppLocker, LockingBusyException> onBusy,
-        final @NotNull Consumer<LockingException> onFail
-    ) {
-        final Path path = lockPath.toAbsolutePath();
-        final String encodedId = idEncoder.encode(nameId);
+    private AppLocker(final @NotNull Builder builder) {
+        final Path path = builder.path.toAbsolutePath();
+        final LockIdEncoder idEncoder = builder.encoder;
 
-        lockId = nameId;
-        server = messageServer;
-        acquiredHandler = onAcquire;
-        busyHandler = onBusy;
-        failedHandler = onFail;
+        lockId = builder.id;
+        encodedId = idEncoder.encode(lockId);
+        lockDirectory = path;
+        server = builder.createServer(path);
+        acquiredHandler = builder.acquiredHandler;
+        busyHandler = builder.busyHandler;
+        failedHandler = builder.failedHandler;
+        spillThreshold = builder.spillThreshold;
+        sharedMemoryCapacity = builder.sharedMemoryCapacity;
+        journalCapacity = builder.journalCapacity;
+        replayTimeoutMs = builder.replayTimeoutMs;
+        compressionThreshold = builder.compressionThreshold;
+        framedTransport = builder.framedTransport;
+        // every instance counts the failures of its own messages
+        circuitBreaker = builder.circuitThreshold == 0
+            ? null
+            : new CircuitBreaker(builder.circuitThreshold, builder.circuitCallTimeoutMs, builder.circuitOpenMs);
+        if (circuitBreaker != null && framedTransport) {
+            LOG.warn("Framed transport is used only for the messages with no deadline, the circuit breaker sets one");
+        }
+        lease = builder.lockService == null ? null : new RemoteLease(builder.lockService, lockId, builder.leaseTtlMs);
 
         gLock = new Lock(newLockFile(path, LOCK_NAME_PATTERN, idEncoder.encode(UNIQUE_GLOBAL_LOCK)));
         appLock = new Lock(newLockFile(path, LOCK_NAME_PATTERN, encodedId));
         portFile = newLockFile(path, LOCK_PORT_PATTERN, encodedId);
+        tokenFile = newLockFile(path, LOCK_TOKEN_PATTERN, encodedId);
     }
 
     /**
@@ -84,6 +126,23 @@ private AppLocker(
 
     @Override public void close() throws Exception {
         unlock();
+        synchronized (this) {
+            if (sharedMemory != null) {
+                sharedMemory.close();
+                sharedMemory = null;
+            }
+            if (framed != null) {
+                framed.close();
+                framed = null;
+            }
+            if (journal != null) {
+                journal.close();
+                journal = null;
+            }
+            if (lease != null) {
+                lease.close();
+            }
+        }
     }
 
     /**
@@ -96,6 +155,10 @@ public synchronized void lock() throws InterruptedException {
         if (isLocked()) {
             return;
         }
+        if (appLock.isLocked()) {
+            // the lease is lost, start over
+            unlock();
+        }
 
         try {
             lock0();
@@ -111,20 +174,350 @@ private void lock0() throws InterruptedException {
             gLock.lock(LOCK_TIMEOUT_MS);
 
             appLock.tryLock();
-            if (server != null) {
+            prepareAcquired();
+        } finally {
+            gLock.close();
+        }
+        completeAcquired();
+        // the port is already published, other instances don't have to wait for the callback
+        acquiredHandler.run();
+    }
+
+    /**
+     * Acquire the locks of all the given lockers in one pass under the single global lock.<br> The locks are taken in
+     * the order of their encoded ids, so concurrent calls with the overlapping sets never deadlock. If any lock is
+     * busy or fails, the locks taken so far are released and the exception is thrown, busy handlers and fail
+     * handlers are not called. {@link Builder#onSuccess(Runnable)} callbacks are called once all locks are
+     * taken.<br> Lockers which already hold their locks are left as is.
+     *
+     * @param lockers lockers with the distinct ids, sharing the lock directory and the id encoder
+     * @throws LockingBusyException     if any lock has already been taken by someone,
+     *                                  {@link LockingBusyException#getLockId()} tells which one
+     * @throws LockingException         if any error has occurred during the locking process (I/O exception)
+     * @throws IllegalArgumentException if the ids are not distinct or the lockers don't share the global lock
+     */
+    public static void lockAll(final @NotNull Collection<AppLocker> lockers) throws InterruptedException {
+        final List<AppLocker> sorted = new ArrayList<>(lockers);
+        sorted.sort(Comparator.comparing(locker -> locker.encodedId));
+        for (int i = 1; i < sorted.size(); i++) {
+            final AppLocker locker = sorted.get(i);
+            if (locker.encodedId.equals(sorted.get(i - 1).encodedId)) {
+                throw new IllegalArgumentException(format("Duplicate lock id '%s'", locker.lockId));
+            }
+            if (!locker.gLock.getFile().equals(sorted.get(0).gLock.getFile())) {
+                throw new IllegalArgumentException("Lockers must share the lock directory and the id encoder");
+            }
+        }
+        if (!sorted.isEmpty()) {
+            lockAll(sorted, 0);
+        }
+    }
+
+    private static void lockAll(final @NotNull List<AppLocker> sorted, final int index) throws InterruptedException {
+        if (index == sorted.size()) {
+            acquireAll(sorted);
+        } else {
+            // monitors are taken in the same order as the locks
+            synchronized (sorted.get(index)) {
+                lockAll(sorted, index + 1);
+            }
+        }
+    }
+
+    private static void acquireAll(final @NotNull List<AppLocker> sorted) throws InterruptedException {
+        final Lock globalLock = sorted.get(0).gLock;
+        final List<AppLocker> acquired = new ArrayList<>();
+        try {
+            globalLock.lock(LOCK_TIMEOUT_MS);
+            for (AppLocker locker : sorted) {
+                if (locker.isLocked()) {
+                    continue;
+                }
+                if (locker.appLock.isLocked()) {
+                    // the lease is lost, start over
+                    locker.releaseQuietly();
+                }
                 try {
-                    server.start();
-                    final int port = server.getPort(PORT_TIMEOUT_MS);
-                    writeAppLockPortToFile(portFile, port);
-                } catch (IOException ex) {
-                    appLock.close();
-                    throw new LockingException("Unable to communicate with server", ex);
+                    locker.appLock.tryLock();
+                    acquired.add(locker);
+                    locker.prepareAcquired();
+                } catch (LockingBusyException ex) {
+                    throw new LockingBusyException(format("Lock '%s' is busy", locker.lockId), ex, locker.lockId);
                 }
             }
+        } catch (LockingException | InterruptedException ex) {
+            for (int i = acquired.size() - 1; i >= 0; i--) {
+                acquired.get(i).releaseQuietly();
+            }
+            throw ex;
+        } finally {
+            globalLock.close();
+        }
+        try {
+            for (AppLocker locker : acquired) {
+                locker.completeAcquired();
+            }
+        } catch (LockingException | InterruptedException ex) {
+            for (AppLocker locker : acquired) {
+                locker.releaseIncomplete();
+            }
+            throw ex;
+        }
+        for (AppLocker locker : acquired) {
+            locker.acquiredHandler.run();
+        }
+    }
 
-            acquiredHandler.run();
+    /**
+     * Issue the fencing token and publish the port, the global lock must be held: the instances which find the lock
+     * busy can message the holder right away.<br> With the lock service, everything is left to
+     * {@link #completeAcquired()}, since the port must not be published before the lease is taken.
+     */
+    private void prepareAcquired() {
+        if (lease != null) {
+            return;
+        }
+        try {
+            fencingToken = FencingCounter.increment(tokenFile);
+        } catch (IOException ex) {
+            appLock.close();
+            throw new LockingException("Unable to issue fencing token", ex);
+        }
+        try {
+            startServer();
+        } catch (IOException ex) {
+            releaseQuietly();
+            throw new LockingException("Unable to communicate with server", ex);
+        } catch (LockingException ex) {
+            releaseQuietly();
+            throw ex;
+        }
+    }
+
+    /**
+     * Take the lease, replay the message journal and publish the port, the global lock must not be held: the lock
+     * service and the message handler may take a while, while the lock file is held already and the senders are
+     * serialized by the journal lock anyway.<br> Releases the lock if anything fails.
+     */
+    private void completeAcquired() throws InterruptedException {
+        try {
+            if (lease != null) {
+                // the lease token grows across all hosts, unlike the local counter
+                fencingToken = lease.acquire();
+                startServer();
+            }
+            if (replaysJournal()) {
+                final Server<?, ?> messageServer = server;
+                final int port = messageServer.tryGetPort();
+                // the port is published under the journal lock, so no message is journaled after the replay
+                getJournal().replay(message -> messageServer.replay(message, replayTimeoutMs),
+                    () -> writeAppLockPortToFile(portFile, port));
+            }
+        } catch (IOException ex) {
+            releaseIncomplete();
+            throw new LockingException("Unable to communicate with server", ex);
+        } catch (LockingException | InterruptedException ex) {
+            releaseIncomplete();
+            throw ex;
+        }
+    }
+
+    private void startServer() throws IOException {
+        if (server == null) {
+            return;
+        }
+        // successor's server is started in advance
+        if (!server.isRunning()) {
+            server.start();
+        }
+        if (!replaysJournal()) {
+            // the socket is bound by start(), the accept loop catches up in background
+            writeAppLockPortToFile(portFile, server.tryGetPort());
+        }
+    }
+
+    private boolean replaysJournal() {
+        // the holder which rejects the messages leaves them to the next one
+        return server != null && journalCapacity > 0 && server.hasMessageHandler();
+    }
+
+    private void releaseIncomplete() {
+        // the interrupted thread must still take the global lock
+        final boolean interrupted = Thread.interrupted();
+        try {
+            unlock();
+        } catch (InterruptedException | LockingException ex) {
+            LOG.error("Unable to release {}", appLock, ex);
         } finally {
-            gLock.close();
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private synchronized @NotNull MessageJournal getJournal() throws IOException {
+        if (journal == null) {
+            Files.createDirectories(lockDirectory);
+            journal = MessageJournal.open(lockDirectory.resolve(format(JOURNAL_NAME_PATTERN, encodedId)),
+                journalCapacity);
+        }
+        return journal;
+    }
+
+    /**
+     * Start waiting for the lock in the background.<br> The standby thread is blocked in the OS until the current
+     * holder releases the lock or dies, then this instance takes the lock over right away: starts its message server,
+     * publishes the port and calls {@link Builder#onSuccess(Runnable)} callback.<br> Errors during the takeover are
+     * passed to {@link Builder#onFail(Consumer)} callback.
+     *
+     * @return standby, can be closed to stop waiting
+     * @throws LockingException if the lock is already acquired by this instance
+     */
+    public synchronized @NotNull Standby standby() {
+        checkNotLocked();
+        final Standby standby = new Standby(this::takeOver);
+        standby.start();
+        return standby;
+    }
+
+    /**
+     * Start waiting for the lock in the background as the named successor of the current holder.<br> Unlike
+     * {@link #standby()}, the message server is started right away and registered at the holder, so the holder can
+     * hand the lock over with {@link #handover(String, long)} without any downtime.
+     *
+     * @param successorName successor name known to the holder
+     * @return standby, can be closed to stop waiting
+     * @throws LockingException if the lock is already acquired by this instance or message server is not configured
+     */
+    public synchronized @NotNull Standby standby(final @NotNull String successorName) throws InterruptedException {
+        if (server == null) {
+            throw new LockingException(NO_HANDOVER_SERVER);
+        }
+        checkNotLocked();
+        if (!server.isRunning()) {
+            server.start();
+        }
+        final int port = server.tryGetPort();
+        try {
+            new Client<>(getPort()).registerSuccessor(successorName, port);
+        } catch (LockingException ex) {
+            LOG.debug("There's no lock holder to register at, waiting for the lock", ex);
+        }
+        return standby();
+    }
+
+    /**
+     * Hand the lock over to the successor waiting in {@link #standby(String)}.<br> The port file is switched to the
+     * successor first, so new messages go to its already running message server, subscribers are redirected to it,
+     * then the messages in flight are drained and the lock is released without deleting the lock and port files.<br>
+     * Messages sent to the old holder after it has stopped accepting are re-sent to the successor, so are the messages
+     * which find the shared memory channel to the old holder closed.<br> Limitations:
+     * <ul>
+     * <li>the successor competes for the released lock with the other instances waiting in {@link #standby()} and
+     * {@link #standby(String)}, if one of them wins, the successor keeps waiting and messages go to its message
+     * server until the winner publishes its own port;</li>
+     * <li>a message written to the framed connection (see {@link Builder#setFramedTransport(boolean)}) of the old
+     * holder while it's being stopped fails, since it might have been received.</li>
+     * </ul>
+     *
+     * @param successorName successor name
+     * @param timeoutMs     time to wait for the successor to register and for the messages in flight to be answered
+     * @throws LockingException if the lock is not acquired or the successor hasn't registered in time
+     */
+    public void handover(final @NotNull String successorName, final long timeoutMs) throws InterruptedException {
+        if (server == null) {
+            throw new LockingException(NO_HANDOVER_SERVER);
+        }
+        if (!isLocked()) {
+            throw new LockingException("Only the lock holder can hand the lock over");
+        }
+        final long start = System.currentTimeMillis();
+        final int successorPort = server.awaitSuccessor(successorName, timeoutMs);
+        LOG.debug("Handing over {} to '{}' at localhost:{}", appLock, successorName, successorPort);
+        try {
+            writeAppLockPortToFile(portFile, successorPort);
+        } catch (IOException ex) {
+            throw new LockingException("Unable to publish successor port", ex);
+        }
+        server.redirectSubscribers(successorPort);
+        server.stopAccepting(PORT_TIMEOUT_MS);
+        if (!server.awaitIdle(Math.max(0, timeoutMs - (System.currentTimeMillis() - start)))) {
+            LOG.warn("Handover timeout exceeded, dropping messages in flight");
+        }
+
+        synchronized (this) {
+            fencingToken = NO_TOKEN;
+            // the successor acquires the lease right after taking the file, the service isn't called under the
+            // global lock
+            releaseLease();
+            gLock.lock(LOCK_TIMEOUT_MS);
+            try {
+                server.stop();
+            } finally {
+                // the successor waits on this very file
+                appLock.release();
+                gLock.close();
+            }
+        }
+    }
+
+    private void checkNotLocked() {
+        if (isLocked()) {
+            throw new LockingException("The lock is already acquired");
+        }
+    }
+
+    private void takeOver() {
+        try {
+            while (!takeOver0()) {
+                LOG.debug("{} is deleted by the previous holder, waiting again", appLock);
+            }
+            acquiredHandler.run();
+        } catch (InterruptedException ex) {
+            LOG.debug("Standby is cancelled");
+            synchronized (this) {
+                // successor's server is started in advance
+                if (server != null && !isLocked()) {
+                    server.stop();
+                }
+            }
+        } catch (LockingException ex) {
+            try {
+                failedHandler.accept(ex);
+            } catch (RuntimeException exx) {
+                LOG.error("Unable to take over the lock", exx);
+            }
+        }
+    }
+
+    /**
+     * Wait for the lock and take it over.
+     *
+     * @return false if the lock has been taken on the file which the previous holder has deleted in the meantime
+     */
+    private boolean takeOver0() throws InterruptedException {
+        appLock.awaitLock();
+        LOG.debug("Taking over {}", appLock);
+        synchronized (this) {
+            try {
+                gLock.lock(LOCK_TIMEOUT_MS);
+            } catch (InterruptedException | LockingException ex) {
+                appLock.close();
+                throw ex;
+            }
+            try {
+                // the file is deleted under the global lock, so the check can't race with the deletion
+                if (!appLock.isOnCurrentFile()) {
+                    // somebody else might have locked the new file already, it must not be deleted
+                    appLock.release();
+                    return false;
+                }
+                prepareAcquired();
+            } finally {
+                gLock.close();
+            }
+            completeAcquired();
+            return true;
         }
     }
 
@@ -147,31 +540,92 @@ private void handleLockBusyException(final @NotNull LockingBusyException ex) {
      * Does nothing if a lock is not locked.
      */
     public synchronized void unlock() throws InterruptedException {
+        // the local lock is released even if the lease is lost
+        if (!appLock.isLocked()) {
+            // the files belong to the other holder, e.g. after the handover
+            if (server != null) {
+                server.stop();
+            }
+            return;
+        }
+        // the lock file is still held, so nobody on this host takes the lease before it's released
+        releaseLease();
         try {
             gLock.lock(LOCK_TIMEOUT_MS);
+            releaseQuietly();
+        } finally {
+            gLock.close();
+        }
+    }
 
-            try {
-                if (server != null) {
-                    server.stop();
-                    Files.delete(portFile);
-                }
-            } finally {
-                appLock.close();
+    /**
+     * Release the lock, the global lock must be held by the caller.
+     */
+    private void releaseQuietly() {
+        try {
+            if (server != null) {
+                server.stop();
+                Files.delete(portFile);
             }
         } catch (IOException ignored) {
             LOG.debug("Unable to delete {}", portFile);
         } finally {
-            gLock.close();
+            fencingToken = NO_TOKEN;
+            releaseLease();
+            appLock.close();
+        }
+    }
+
+    private void releaseLease() {
+        if (lease != null) {
+            lease.release();
         }
     }
 
     /**
-     * Check if locker is busy.
+     * Check if locker is busy.<br> With {@link Builder#setLockService(InetSocketAddress, long)} the lease must also
+     * be held, once it's lost the lock is no longer considered acquired.
      *
      * @return true if locked, false otherwise
      */
     public boolean isLocked() {
-        return appLock.isLocked();
+        return appLock.isLocked() && (lease == null || lease.isHeld());
+    }
+
+    /**
+     * Get the state of the circuit breaker guarding the messages sent to the lock holder.
+     *
+     * @return circuit state, {@link CircuitState#CLOSED} if the circuit breaker is not configured
+     * @see Builder#setCircuitBreaker(int, long, long)
+     */
+    public @NotNull CircuitState getCircuitState() {
+        return circuitBreaker == null ? CircuitState.CLOSED : circuitBreaker.getState();
+    }
+
+    /**
+     * Get the fencing token of the current lock acquisition.<br> Tokens are issued from the counter persisted in the
+     * lock directory, every acquisition gets a token greater than all the previous ones.
+     *
+     * @return fencing token, 0 if the lock is not acquired
+     */
+    public long getFencingToken() {
+        return isLocked() ? fencingToken : NO_TOKEN;
+    }
+
+    /**
+     * Stamp the payload with the fencing token of the current lock acquisition.
+     *
+     * @param payload payload
+     * @param <T>     payload type
+     * @return fenced message
+     * @throws LockingException if the lock is not acquired
+     */
+    public @NotNull <T extends Serializable> FencedMessage<T> fence(final @NotNull T payload) {
+        final long token = getFencingToken();
+        if (token == NO_TOKEN) {
+            throw new LockingException("Only the lock holder can issue fenced messages");
+        }
+        return new FencedMessage<>(token, payload);
     }
 
     /**
@@ -184,19 +638,307 @@ public boolean isLocked() {
      * @throws LockingException if there's a trouble communicating to other AppLocker instance
      */
     public @NotNull <I extends Serializable, O extends Serializable> O sendMessage(final @NotNull I message) {
+        return deliver(message, DeadlineMessage.NO_DEADLINE, MessagePriority.NORMAL);
+    }
+
+    /**
+     * Send a message to AppLocker instance that's holding the lock (including self) in the given lane.<br>
+     * {@link MessagePriority#HIGH High priority} messages are handled by the separate pool of threads and bypass the
+     * backlog of the normal messages, so the message handler must be thread-safe. They are always sent through the
+     * socket, the shared memory channel is busy with the normal message.
+     *
+     * @param message  message
+     * @param priority message priority
+     * @param <I>      message type
+     * @param <O>      return type
+     * @return the answer from AppLocker's message messageHandler
+     * @throws LockingException if there's a trouble communicating to other AppLocker instance
+     * @see Builder#setPriorityLaneThreads(int)
+     */
+    public @NotNull <I extends Serializable, O extends Serializable> O sendMessage(
+        final @NotNull I message,
+        final @NotNull MessagePriority priority
+    ) {
+        return deliver(message, DeadlineMessage.NO_DEADLINE, priority);
+    }
+
+    /**
+     * Send a message to AppLocker instance that's holding the lock (including self) and give up waiting for the
+     * answer once the timeout has passed.<br> The deadline travels along with the message, so the lock holder drops
+     * the message without handling it if the deadline has passed before the message is dispatched.
+     *
+     * @param message   message
+     * @param timeoutMs time to wait for the answer, including the connection
+     * @param <I>       message type
+     * @param <O>       return type
+     * @return the answer from AppLocker's message messageHandler
+     * @throws LockingException if there's a trouble communicating to other AppLocker instance or the deadline is
+     *                          exceeded
+     */
+    public @NotNull <I extends Serializable, O extends Serializable> O sendMessage(
+        final @NotNull I message,
+        final long timeoutMs
+    ) {
+        if (timeoutMs <= 0) {
+            throw new IllegalArgumentException("Message timeout must be positive");
+        }
+        final long deadline = System.currentTimeMillis() + timeoutMs;
+        return deliver(new DeadlineMessage(deadline, message), deadline, MessagePriority.NORMAL);
+    }
+
+    private @NotNull <O extends Serializable> O deliver(
+        final @NotNull Serializable message,
+        final long deadline,
+        final @NotNull MessagePriority priority
+    ) {
+        // missing holder isn't a failure of the holder
+        final int port = getPort();
+        if (circuitBreaker == null) {
+            return deliver(port, message, deadline, priority);
+        }
+        circuitBreaker.acquire();
+        boolean succeeded = false;
         try {
-            final int port = getPortFromFile();
-            final Client<I, O> client = new Client<>(port);
-            return client.send(message);
-        } catch (NoSuchFileException ex) {
-            throw new LockingException("Unable to open port file, please check that message server is running");
+            final O answer;
+            if (deadline == DeadlineMessage.NO_DEADLINE) {
+                // wedged holder must not block the sender forever
+                final long callDeadline = System.currentTimeMillis() + circuitBreaker.getCallTimeoutMs();
+                answer = deliver(port, new DeadlineMessage(callDeadline, message), callDeadline, priority);
+            } else {
+                answer = deliver(port, message, deadline, priority);
+            }
+            succeeded = true;
+            return answer;
+        } finally {
+            circuitBreaker.complete(succeeded);
+        }
+    }
+
+    private @NotNull <O extends Serializable> O deliver(
+        final int port,
+        final @NotNull Serializable message,
+        final long deadline,
+        final @NotNull MessagePriority priority
+    ) {
+        try {
+            return sendMessage0(port, message, deadline, priority);
+        } catch (LockingException ex) {
+            // the lock might have been handed over while the message was on its way
+            if (!(ex.getCause() instanceof ConnectException) || getPort() == port) {
+                throw ex;
+            }
+            return sendMessage0(getPort(), message, deadline, priority);
+        }
+    }
+
+    /**
+     * Send a message to AppLocker instance that's holding the lock, or append it to the message journal if there's no
+     * reachable lock holder.<br> Journaled messages are handled at least once by the next lock holder before it
+     * starts answering other messages, their answers are dropped.
+     *
+     * @param message message
+     * @param <I>     message type
+     * @param <O>     return type
+     * @return the answer from AppLocker's message handler, empty if the message is journaled
+     * @throws LockingException if the journal is not configured or full, or there's a trouble communicating to the
+     *                          reachable AppLocker instance
+     * @see Builder#setJournalCapacity(int)
+     */
+    public @NotNull <I extends Serializable, O extends Serializable> Optional<O> sendOrJournal(
+        final @NotNull I message
+    ) {
+        if (journalCapacity == 0) {
+            throw new LockingException("Message journal is not configured");
+        }
+        try {
+            return Optional.of(sendMessage(message));
+        } catch (LockingException ex) {
+            if (!(ex.getCause() instanceof NoSuchFileException || ex.getCause() instanceof ConnectException)) {
+                throw ex;
+            }
+            LOG.debug("Lock holder is not reachable, journaling the message", ex);
+        }
+        final boolean journaled;
+        try {
+            journaled = getJournal().appendIfUnreachable(MessageBuffer.serialize(message), this::isReachable);
         } catch (IOException ex) {
-            throw new LockingException("Unable to read port file", ex);
+            throw new LockingException("Unable to write message journal", ex);
+        }
+        // the lock holder has published its port in the meantime
+        return journaled ? Optional.empty() : Optional.of(sendMessage(message));
+    }
+
+    private boolean isReachable() {
+        try {
+            return new Client<>(getPortFromFile()).ping();
+        } catch (IOException ex) {
+            // the port file is missing, the holder is gone
+            return false;
         }
     }
 
+    private @NotNull <O extends Serializable> O sendMessage0(
+        final int port,
+        final @NotNull Serializable message,
+        final long deadline,
+        final @NotNull MessagePriority priority
+    ) {
+        if (spillThreshold == SPILL_DISABLED && sharedMemoryCapacity == 0
+            && compressionThreshold == Server.COMPRESSION_DISABLED && !framedTransport) {
+            return new Client<Serializable, O>(port, deadline, priority, false).send(message);
+        }
+
+        final MessageBuffer buffer = MessageBuffer.serialize(message);
+        if (spillThreshold == SPILL_DISABLED || buffer.size() < spillThreshold) {
+            return send(port, buffer, deadline, priority);
+        }
+        final Path spillFile = lockDirectory.resolve(format(SPILL_NAME_PATTERN, encodedId, UUID.randomUUID()));
+        try {
+            final SpillHandle handle = SpillHandle.write(spillFile, buffer);
+            return send(port, MessageBuffer.serialize(handle), deadline, priority);
+        } catch (IOException ex) {
+            throw new LockingException("Unable to write spill file", ex);
+        } finally {
+            SpillHandle.delete(spillFile);
+        }
+    }
+
+    private @NotNull <O extends Serializable> O send(
+        final int port,
+        final @NotNull MessageBuffer message,
+        final long deadline,
+        final @NotNull MessagePriority priority
+    ) {
+        if (sharedMemoryCapacity > 0 && priority == MessagePriority.NORMAL) {
+            final SharedMemoryClient client = getSharedMemory(port);
+            if (client.fits(message.size())) {
+                return client.send(message, deadline);
+            }
+        }
+        final boolean compression = compressionThreshold != Server.COMPRESSION_DISABLED;
+        // the other transports don't copy the message, so it's compressed only on the way through the socket
+        final MessageBuffer buffer = !compression || message.size() < compressionThreshold
+            ? message
+            : MessageBuffer.serialize(CompressedMessage.compress(message));
+        // blocking channel can't enforce the deadline
+        if (framedTransport && priority == MessagePriority.NORMAL && deadline == DeadlineMessage.NO_DEADLINE) {
+            return getFramed(port).send(buffer);
+        }
+        return new Client<Serializable, O>(port, deadline, priority, compression).send(buffer);
+    }
+
+    private synchronized @NotNull FramedClient getFramed(final int port) {
+        if (framed != null && (framed.isClosed() || framed.getPort() != port)) {
+            // the lock holder has changed
+            framed.close();
+            framed = null;
+        }
+        if (framed == null) {
+            framed = FramedClient.connect(port);
+        }
+        return framed;
+    }
+
+    private synchronized @NotNull SharedMemoryClient getSharedMemory(final int port) {
+        if (sharedMemory != null && (sharedMemory.isClosed() || sharedMemory.getPort() != port)) {
+            // the lock holder has changed
+            sharedMemory.close();
+            sharedMemory = null;
+        }
+        if (sharedMemory == null) {
+            final Path file = lockDirectory.resolve(format(SHARED_MEMORY_NAME_PATTERN, encodedId, UUID.randomUUID()));
+            sharedMemory = SharedMemoryClient.connect(port, file, sharedMemoryCapacity);
+        }
+        return sharedMemory;
+    }
+
+    /**
+     * Send a message in the form of stream to AppLocker instance that's holding the lock (including self).<br>
+     * Message and answer are transferred in chunks of bounded size, so the memory consumption doesn't depend on the
+     * payload size.
+     *
+     * @param message message
+     * @return the answer from AppLocker's stream handler, must be closed after use
+     * @throws LockingException if there's a trouble communicating to other AppLocker instance
+     * @see Builder#setStreamHandler(StreamMessageHandler)
+     */
+    public @NotNull InputStream sendStream(final @NotNull InputStream message) {
+        final Client<?, ?> client = new Client<>(getPort());
+        return client.sendStream(message);
+    }
+
+    /**
+     * Send a tagged message to AppLocker instance that's holding the lock (including self).<br> The message is
+     * handled by the route registered with {@link MessageRoute#forTag(String, MessageCodec, MessageCodec,
+     * AsyncMessageHandler)}.
+     *
+     * @param tag           route tag
+     * @param message       message
+     * @param requestCodec  message codec
+     * @param responseCodec answer codec
+     * @param <I>           message type
+     * @param <O>           return type
+     * @return the answer from the route's message handler
+     * @throws LockingException if there's a trouble communicating to other AppLocker instance
+     */
+    public @NotNull <I extends Serializable, O extends Serializable> O sendMessage(
+        final @NotNull String tag,
+        final @NotNull I message,
+        final @NotNull MessageCodec<I> requestCodec,
+        final @NotNull MessageCodec<O> responseCodec
+    ) {
+        final TaggedMessage answer = sendMessage(new TaggedMessage(tag, requestCodec.encode(message)));
+        return responseCodec.decode(answer.getPayload());
+    }
+
     private void writeAppLockPortToFile(final @NotNull Path portFilePath, final int portNumber) throws IOException {
-        Files.write(portFilePath, ByteBuffer.allocate(Integer.BYTES).putInt(portNumber).array());
+        // readers must never see a half-written file, the port is switched on the running system during handover
+        final Path tempFile = portFilePath.resolveSibling(portFilePath.getFileName() + TEMP_SUFFIX);
+        Files.write(tempFile, ByteBuffer.allocate(Integer.BYTES).putInt(portNumber).array());
+        Files.move(tempFile, portFilePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Send the event to every AppLocker instance subscribed with {@link #subscribe(Consumer)}.<br> The method
+     * doesn't wait for the delivery, events are buffered per subscriber.
+     *
+     * @param event event
+     * @return number of subscribers the event was queued for
+     * @throws LockingException if the lock is not acquired or message server is not configured
+     * @see Builder#setSubscriberBuffer(int, SlowSubscriberPolicy)
+     */
+    public int publish(final @NotNull Serializable event) {
+        if (server == null) {
+            throw new LockingException("Message server is not configured, nothing to publish to");
+        }
+        if (!isLocked()) {
+            throw new LockingException("Only the lock holder can publish events");
+        }
+        return server.publish(event);
+    }
+
+    /**
+     * Subscribe to the events published by AppLocker instance that's holding the lock (including self).<br>
+     * Subscription ends when either side closes it or the holder releases the lock.
+     *
+     * @param listener event listener, called from the background thread
+     * @param <T>      event type
+     * @return subscription
+     * @throws LockingException if there's a trouble communicating to other AppLocker instance
+     */
+    public @NotNull <T extends Serializable> Subscription subscribe(final @NotNull Consumer<T> listener) {
+        final Client<?, T> client = new Client<>(getPort());
+        return client.subscribe(listener);
+    }
+
+    private int getPort() {
+        try {
+            return getPortFromFile();
+        } catch (NoSuchFileException ex) {
+            throw new LockingException("Unable to open port file, please check that message server is running", ex);
+        } catch (IOException ex) {
+            throw new LockingException("Unable to read port file", ex);
+        }
     }
 
     private int getPortFromFile() throws IOException {
@@ -211,15 +953,32 @@ private int getPortFromFile() throws IOException {
      */
     public static final class Builder {
         private final @NotNull String id;
+        private final @NotNull List<MessageRoute<?, ?>> routes = new ArrayList<>();
         private @NotNull Path path = Paths.get("");
-        private @NotNull LockIdEncoder encoder = new Sha1Encoder();
-        private @Nullable MessageHandler<?, ?> messageHandler;
+        private @NotNull LockIdEncoder encoder = Sha1Encoder.MEMOIZED;
+        private @Nullable AsyncMessageHandler<?, ?> messageHandler;
+        private @Nullable StreamMessageHandler streamHandler;
         private @NotNull Runnable acquiredHandler = () -> {
         };
         private @NotNull Consumer<LockingException> failedHandler = ex -> {
             throw ex;
         };
         private @Nullable BiConsumer<AppLocker, LockingBusyException> busyHandler;
+        private int spillThreshold = SPILL_DISABLED;
+        private int sharedMemoryCapacity;
+        private int journalCapacity;
+        private long replayTimeoutMs = Server.DEFAULT_REPLAY_TIMEOUT_MS;
+        private int priorityLaneThreads = 1;
+        private int compressionThreshold = Server.COMPRESSION_DISABLED;
+        private int circuitThreshold;
+        private long circuitCallTimeoutMs;
+        private long circuitOpenMs;
+        private boolean framedTransport;
+        private @Nullable InetSocketAddress lockService;
+        private long leaseTtlMs;
+        private boolean publishing;
+        private int subscriberBuffer = Publisher.DEFAULT_BUFFER_SIZE;
+        private @NotNull SlowSubscriberPolicy slowSubscriber = SlowSubscriberPolicy.DROP_OLDEST;
 
         /**
          * Create Application Locker builder.
@@ -242,8 +1001,22 @@ public Builder(final @NotNull String lockId) {
         }
 
         /**
-         * Sets the message handler.<br> If not set, AppLocker won't support communication features.<br> Default value
-         * is null.
+         * Sets the path to the per-user RAM-backed runtime directory {@code /dev/shm/applocker-<uid>} (Linux
+         * only).<br> The path depends on the user id only, so it's the same for all instances of the user whatever
+         * their environment is.<br> All instances of the application must use the same path, so don't mix it with
+         * {@link #setPath(Path)}.
+         *
+         * @return builder
+         * @throws LockingException if the directory can't be created or file locking doesn't work there
+         */
+        public @NotNull Builder setRuntimePath() {
+            path = RuntimeDirectory.get();
+            return this;
+        }
+
+        /**
+         * Sets the message handler.<br> If not set, AppLocker won't support communication features, the messages sent
+         * to it are rejected with {@link LockingException}.<br> Default value is null.
          *
          * @param handler message handler
          * @return builder
@@ -253,6 +1026,255 @@ public Builder(final @NotNull String lockId) {
             return this;
         }
 
+        /**
+         * Sets the asynchronous message handler.<br> The answer is sent back once the returned stage completes, the
+         * message server doesn't wait for it.<br> Replaces the handler set by
+         * {@link #setMessageHandler(MessageHandler)}.<br> Default value is null.
+         *
+         * @param handler asynchronous message handler
+         * @return builder
+         */
+        public @NotNull Builder setAsyncMessageHandler(final @NotNull AsyncMessageHandler<?, ?> handler) {
+            messageHandler = handler;
+            return this;
+        }
+
+        /**
+         * Sets the stream handler.<br> If not set, AppLocker won't accept messages sent with
+         * {@link AppLocker#sendStream(InputStream)}.<br> Default value is null.
+         *
+         * @param handler stream handler
+         * @return builder
+         */
+        public @NotNull Builder setStreamHandler(final @NotNull StreamMessageHandler handler) {
+            streamHandler = handler;
+            return this;
+        }
+
+        /**
+         * Adds the message route.<br> Messages are dispatched to the route with the most specific message type,
+         * unmatched messages go to the handler set by {@link #setMessageHandler(MessageHandler)}.
+         *
+         * @param type    message class
+         * @param handler message handler
+         * @param <I>     message type
+         * @param <O>     answer type
+         * @return builder
+         */
+        public @NotNull <I extends Serializable, O extends Serializable> Builder route(
+            final @NotNull Class<I> type,
+            final @NotNull MessageHandler<I, O> handler
+        ) {
+            return route(MessageRoute.forType(type, handler));
+        }
+
+        /**
+         * Adds the message route.<br> Messages are dispatched to the route with the most specific message type (or
+         * the same tag), unmatched messages go to the handler set by {@link #setMessageHandler(MessageHandler)}.
+         *
+         * @param messageRoute message route
+         * @return builder
+         */
+        public @NotNull Builder route(final @NotNull MessageRoute<?, ?> messageRoute) {
+            routes.add(messageRoute);
+            return this;
+        }
+
+        /**
+         * Sets the size of the serialized message, starting from which {@link AppLocker#sendMessage(Serializable)}
+         * hands the message over through a memory-mapped file in the lock directory instead of copying it through the
+         * socket.<br> The file is deleted once the answer is received.<br> Default value is -1 (disabled).
+         *
+         * @param bytes message size threshold in bytes, -1 to disable
+         * @return builder
+         */
+        public @NotNull Builder setSpillThreshold(final int bytes) {
+            if (bytes < 0 && bytes != SPILL_DISABLED) {
+                throw new IllegalArgumentException("Spill threshold must not be negative");
+            }
+            spillThreshold = bytes;
+            return this;
+        }
+
+        /**
+         * Sets the capacity of the shared memory channel, which {@link AppLocker#sendMessage(Serializable)} uses
+         * instead of the socket when both instances are on the same host.<br> The channel is a pair of ring buffers in
+         * the memory-mapped file in the lock directory, it's opened on the first message and kept until the lock
+         * holder changes or {@link AppLocker#close()} is called. Messages from the concurrent threads are sent one by
+         * one, messages larger than the capacity are sent through the socket.<br> The lock holder polls every open
+         * channel with its own thread, which parks while idle, so the channel suits a few chatty instances rather
+         * than many rare senders.<br> Default value is 0 (disabled).
+         *
+         * @param bytes capacity of the channel in bytes, 0 to disable
+         * @return builder
+         */
+        public @NotNull Builder setSharedMemoryCapacity(final int bytes) {
+            if (bytes < 0) {
+                throw new IllegalArgumentException("Shared memory capacity must not be negative");
+            }
+            sharedMemoryCapacity = bytes;
+            return this;
+        }
+
+        /**
+         * Sets the capacity of the message journal, which {@link AppLocker#sendOrJournal(Serializable)} appends the
+         * messages to while there's no reachable lock holder.<br> The journal is a memory-mapped file in the lock
+         * directory, the next lock holder replays it in order before publishing its port, the replay position is
+         * persisted after every handled message, so the delivery is at-least-once: the message in progress is replayed
+         * again if the holder dies. The global lock isn't held meanwhile. The capacity is fixed by the instance which
+         * creates the file, must be enabled on both senders and the lock holder.<br> Default value is 0 (disabled).
+         *
+         * @param bytes capacity of the journal in bytes, 0 to disable
+         * @return builder
+         * @see #setJournalReplayTimeout(long)
+         */
+        public @NotNull Builder setJournalCapacity(final int bytes) {
+            if (bytes < 0) {
+                throw new IllegalArgumentException("Journal capacity must not be negative");
+            }
+            journalCapacity = bytes;
+            return this;
+        }
+
+        /**
+         * Sets the time the message handler is given for each journaled message.<br> If the handler fails or runs out
+         * of time, the replay stops there and the lock attempt fails with {@link LockingException}: the message stays
+         * in the journal and is replayed again by the next attempt, the messages after it wait for it. The timed-out
+         * handler isn't interrupted, so it must tolerate the message being handled twice.<br> Default value is 10
+         * seconds.
+         *
+         * @param timeoutMs timeout in milliseconds
+         * @return builder
+         * @see #setJournalCapacity(int)
+         */
+        public @NotNull Builder setJournalReplayTimeout(final long timeoutMs) {
+            if (timeoutMs <= 0) {
+                throw new IllegalArgumentException("Journal replay timeout must be positive");
+            }
+            replayTimeoutMs = timeoutMs;
+            return this;
+        }
+
+        /**
+         * Sets the number of threads handling {@link MessagePriority#HIGH high priority} messages.<br> Normal messages
+         * are handled one by one by their own thread, so the high priority messages are never queued behind
+         * them.<br> Default value is 1.
+         *
+         * @param threads number of threads
+         * @return builder
+         * @see AppLocker#sendMessage(Serializable, MessagePriority)
+         */
+        public @NotNull Builder setPriorityLaneThreads(final int threads) {
+            if (threads <= 0) {
+                throw new IllegalArgumentException("Priority lane threads must be positive");
+            }
+            priorityLaneThreads = threads;
+            return this;
+        }
+
+        /**
+         * Enables the circuit breaker guarding the messages sent to the lock holder.<br> Once the holder has failed or
+         * hasn't answered in time the given number of times in a row, the circuit opens and the messages fail right
+         * away without being sent. After the open period a single probe message is let through, the circuit closes if
+         * it's answered and opens again otherwise. Every built instance has its own circuit.<br> Messages sent without
+         * explicit timeout get the call timeout, so they are sent over their own connection: the framed transport
+         * ({@link #setFramedTransport(boolean)}) is not used while the circuit breaker is enabled.<br> Default value
+         * is null (disabled).
+         *
+         * @param failureThreshold number of failures in a row which opens the circuit
+         * @param callTimeoutMs    time the holder is given to answer a message sent without explicit timeout
+         * @param openMs           time the circuit stays open before the probe message
+         * @return builder
+         * @see AppLocker#getCircuitState()
+         */
+        public @NotNull Builder setCircuitBreaker(
+            final int failureThreshold,
+            final long callTimeoutMs,
+            final long openMs
+        ) {
+            if (failureThreshold <= 0 || callTimeoutMs <= 0 || openMs < 0) {
+                throw new IllegalArgumentException("Circuit breaker threshold and timeout must be positive");
+            }
+            circuitThreshold = failureThreshold;
+            circuitCallTimeoutMs = callTimeoutMs;
+            circuitOpenMs = openMs;
+            return this;
+        }
+
+        /**
+         * Sets the size of the serialized message, starting from which messages and answers are deflated on the way
+         * through the socket.<br> Sender compresses its messages and tells the lock holder it accepts compressed
+         * answers, the holder compresses the answers using its own threshold. Both sides must use the version which
+         * supports compression.<br> Default value is -1 (disabled).
+         *
+         * @param bytes message size threshold in bytes, -1 to disable
+         * @return builder
+         */
+        public @NotNull Builder setCompressionThreshold(final int bytes) {
+            if (bytes < 0 && bytes != Server.COMPRESSION_DISABLED) {
+                throw new IllegalArgumentException("Compression threshold must not be negative");
+            }
+            compressionThreshold = bytes;
+            return this;
+        }
+
+        /**
+         * Enables the persistent connection to the lock holder for {@link AppLocker#sendMessage(Serializable)}.<br>
+         * Messages and answers are exchanged as length-prefixed frames through the pooled direct buffers instead of
+         * opening the connection and the object streams for every message. The connection is opened on the first
+         * message and kept until the lock holder changes or {@link AppLocker#close()} is called, messages from the
+         * concurrent threads are sent one by one. Messages with timeout and high priority messages still open their
+         * own connection, as well as all messages once {@link #setCircuitBreaker(int, long, long)} is
+         * enabled.<br> Default value is false.
+         *
+         * @param enabled true to enable
+         * @return builder
+         */
+        public @NotNull Builder setFramedTransport(final boolean enabled) {
+            framedTransport = enabled;
+            return this;
+        }
+
+        /**
+         * Enables the lock service mode: the lock is also taken as a lease from the {@link LockService}, so only one
+         * instance across all hosts using the service holds it.<br> The local lock is taken first, then the lease
+         * (the global lock isn't held while waiting for the service, the port is published once the lease is taken);
+         * the lease is renewed in background and {@link AppLocker#isLocked()} turns false if it's lost. Lease tokens
+         * are used as the fencing tokens. Messages are still delivered only to the lock holder on the same
+         * host.<br> Default value is null (disabled).
+         *
+         * @param address lock service address
+         * @param ttlMs   lease time-to-live, the lease is renewed three times per period
+         * @return builder
+         */
+        public @NotNull Builder setLockService(final @NotNull InetSocketAddress address, final long ttlMs) {
+            if (ttlMs <= 0) {
+                throw new IllegalArgumentException("Lease time-to-live must be positive");
+            }
+            lockService = address;
+            leaseTtlMs = ttlMs;
+            return this;
+        }
+
+        /**
+         * Sets the size of the per-subscriber event buffer and the action for when a subscriber doesn't keep up with
+         * the published events.<br> Enables {@link AppLocker#publish(Serializable)} even if no message handlers are
+         * set.<br> Default values are 1024 and {@link SlowSubscriberPolicy#DROP_OLDEST}.
+         *
+         * @param size   maximum number of events buffered for a single subscriber
+         * @param policy slow subscriber policy
+         * @return builder
+         */
+        public @NotNull Builder setSubscriberBuffer(final int size, final @NotNull SlowSubscriberPolicy policy) {
+            if (size <= 0) {
+                throw new IllegalArgumentException("Subscriber buffer size must be positive");
+            }
+            publishing = true;
+            subscriberBuffer = size;
+            slowSubscriber = policy;
+            return this;
+        }
+
         /**
          * Sets the name encoder.<br> Encodes lock lockId to filesystem-friendly entry.<br> Default value is "SHA-1"
          * encoder.
@@ -266,7 +1288,9 @@ public Builder(final @NotNull String lockId) {
         }
 
         /**
-         * Defines a callback if locking was successful.<br> Default value is empty function.
+         * Defines a callback if locking was successful.<br> Called after the message server port is published and the
+         * global lock is released, so other instances aren't blocked by a slow callback.<br> Default value is empty
+         * function.
          *
          * @param callback function to call after successful locking
          * @return builder
@@ -340,9 +1364,19 @@ public Builder(final @NotNull String lockId) {
          * @return AppLocker instance
          */
         public @NotNull AppLocker build() {
-            final Server<?, ?> server = messageHandler != null ? new Server<>(messageHandler) : null;
+            return new AppLocker(this);
+        }
 
-            return new AppLocker(id, path, encoder, server, acquiredHandler, busyHandler, failedHandler);
+        private @Nullable Server<?, ?> createServer(final @NotNull Path lockDirectory) {
+            AsyncMessageHandler<?, ?> handler = messageHandler;
+            if (!routes.isEmpty()) {
+                handler = new MessageRouter(routes, messageHandler);
+            }
+            if (handler == null && streamHandler == null && !publishing) {
+                return null;
+            }
+            return new Server<>(handler, streamHandler, lockDirectory, new Publisher(subscriberBuffer, slowSubscriber),
+                priorityLaneThreads, compressionThreshold);
         }
     }
 }
@@ -0,0 +1,27 @@
+package io.github.sanyarnd.applocker;
+
+import java.io.Serializable;
+import java.util.concurrent.CompletionStage;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Interface for the function that runs on the server side and handles all incoming messages asynchronously.
+ *
+ * <p>The server doesn't wait for the returned stage: the answer is written back to the sender on the thread which
+ * completes the stage, so a slow handler doesn't occupy the server thread.
+ *
+ * @param <I> message type
+ * @param <O> answer type
+ * @author Alexander Biryukov
+ */
+@FunctionalInterface
+public interface AsyncMessageHandler<I extends Serializable, O extends Serializable> {
+    /**
+     * Handle the received message.
+     *
+     * @param message input message
+     * @return stage which completes with the result of the message processing
+     */
+    @NotNull
+    CompletionStage<O> handleMessageAsync(@NotNull I message);
+}
@@ -0,0 +1,54 @@
+package io.github.sanyarnd.applocker;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Pool of direct buffers of the same size.<br> Direct buffers are written to and read from the socket without the
+ * extra copy, but are expensive to allocate and are freed only by GC, so they are reused across the messages.
+ *
+ * @author Alexander Biryukov
+ */
+final class BufferPool {
+    static final int BUFFER_SIZE = 64 * 1024;
+    // up to 16 idle buffers, 1 MiB of direct memory
+    static final BufferPool SHARED = new BufferPool(16);
+
+    private final @NotNull Queue<ByteBuffer> buffers;
+
+    BufferPool(final int size) {
+        buffers = new ArrayBlockingQueue<>(size);
+    }
+
+    /**
+     * Get the cleared buffer with the limit set to the given size.<br> Sizes larger than {@link #BUFFER_SIZE} get the
+     * one-off heap buffer.
+     *
+     * @param size required size
+     * @return buffer
+     */
+    @NotNull ByteBuffer acquire(final int size) {
+        if (size > BUFFER_SIZE) {
+            return ByteBuffer.allocate(size);
+        }
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+        buffer.clear().limit(size);
+        return buffer;
+    }
+
+    /**
+     * Return the buffer to the pool, one-off buffers and the buffers above the pool size are left to GC.
+     *
+     * @param buffer buffer got from {@link #acquire(int)}
+     */
+    void release(final @NotNull ByteBuffer buffer) {
+        if (buffer.isDirect() && buffer.capacity() == BUFFER_SIZE) {
+            buffers.offer(buffer);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package io.github.sanyarnd.applocker;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Input stream over the remaining content of the buffer.
+ *
+ * @author Alexander Biryukov
+ */
+final class ByteBufferInputStream extends InputStream {
+    private static final int BYTE_MASK = 0xFF;
+
+    private final @NotNull ByteBuffer buffer;
+
+    ByteBufferInputStream(final @NotNull ByteBuffer source) {
+        buffer = source;
+    }
+
+    @Override
+    public int read() {
+        return buffer.hasRemaining() ? buffer.get() & BYTE_MASK : -1;
+    }
+
+    @Override
+    public int read(final byte @NotNull [] b, final int off, final int len) {
+        if (len == 0) {
+            return 0;
+        }
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        final int size = Math.min(len, buffer.remaining());
+        buffer.get(b, off, size);
+        return size;
+    }
+
+    @Override
+    public long skip(final long n) {
+        final int size = (int) Math.max(0, Math.min(n, buffer.remaining()));
+        buffer.position(buffer.position() + size);
+        return size;
+    }
+
+    @Override
+    public int available() {
+        return buffer.remaining();
+    }
+}
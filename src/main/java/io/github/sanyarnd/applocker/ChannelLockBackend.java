@@ -0,0 +1,84 @@
+package io.github.sanyarnd.applocker;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Portable backend based on {@link FileChannel} locks.
+ * <br>
+ * The locks are held by the whole process, so the JVM rejects the overlapping locks taken within the same process
+ * with {@link OverlappingFileLockException} instead of blocking, such waits fall back to polling.
+ *
+ * @author Alexander Biryukov
+ */
+final class ChannelLockBackend implements LockBackend {
+    static final @NotNull ChannelLockBackend INSTANCE = new ChannelLockBackend();
+    private static final int LOCK_SLEEP_MS = 10;
+
+    private ChannelLockBackend() {
+    }
+
+    @Override
+    public @NotNull Handle open(final @NotNull Path file) throws IOException {
+        return new ChannelHandle(FileChannel.open(file, CREATE, READ, WRITE));
+    }
+
+    private static final class ChannelHandle implements Handle {
+        private final @NotNull FileChannel channel;
+        private volatile @Nullable FileLock fileLock;
+
+        private ChannelHandle(final @NotNull FileChannel fileChannel) {
+            channel = fileChannel;
+        }
+
+        @Override
+        public boolean tryLock() throws IOException {
+            try {
+                // can throw or return null
+                fileLock = channel.tryLock();
+            } catch (OverlappingFileLockException ex) {
+                return false;
+            }
+            return fileLock != null;
+        }
+
+        @Override
+        public boolean lock() throws IOException, InterruptedException {
+            try {
+                fileLock = channel.lock();
+            } catch (OverlappingFileLockException ex) {
+                // held within this JVM, OS won't wake us up
+                Thread.sleep(LOCK_SLEEP_MS);
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isValid() {
+            final FileLock current = fileLock;
+            return current != null && current.isValid();
+        }
+
+        @Override
+        public void close() throws IOException {
+            final FileLock current = fileLock;
+            fileLock = null;
+            try {
+                if (current != null) {
+                    current.close();
+                }
+            } finally {
+                channel.close();
+            }
+        }
+    }
+}
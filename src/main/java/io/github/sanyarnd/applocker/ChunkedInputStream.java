@@ -0,0 +1,106 @@
+package io.github.sanyarnd.applocker;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Reads data written by {@link ChunkedOutputStream}.
+ *
+ * <p>Underlying stream ending before the end mark is reported as {@link EOFException}, so a sender failure is never
+ * mistaken for the end of the data.
+ *
+ * @author Alexander Biryukov
+ */
+final class ChunkedInputStream extends InputStream {
+    private static final String UNEXPECTED_END = "Stream ended unexpectedly";
+
+    private final @NotNull DataInputStream in;
+    private final @Nullable Closeable resource;
+    private int remaining;
+    private boolean finished;
+
+    /**
+     * Create chunked stream.
+     *
+     * @param input   underlying stream
+     * @param onClose resource to close along with this stream, nullable
+     */
+    ChunkedInputStream(final @NotNull InputStream input, final @Nullable Closeable onClose) {
+        in = new DataInputStream(new BufferedInputStream(input, ChunkedOutputStream.CHUNK_SIZE));
+        resource = onClose;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!nextChunk()) {
+            return -1;
+        }
+        final int b = in.read();
+        if (b == -1) {
+            throw new EOFException(UNEXPECTED_END);
+        }
+        remaining--;
+        return b;
+    }
+
+    @Override
+    public int read(final byte @NotNull [] b, final int off, final int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!nextChunk()) {
+            return -1;
+        }
+        final int read = in.read(b, off, Math.min(len, remaining));
+        if (read == -1) {
+            throw new EOFException(UNEXPECTED_END);
+        }
+        remaining -= read;
+        return read;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return finished ? 0 : Math.min(remaining, in.available());
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (resource != null) {
+            resource.close();
+        }
+    }
+
+    /**
+     * Skip everything till the end mark.
+     *
+     * @throws IOException if any I/O error occurs
+     */
+    void skipRemaining() throws IOException {
+        while (nextChunk()) {
+            final int skipped = in.skipBytes(remaining);
+            if (skipped == 0 && in.read() == -1) {
+                throw new EOFException(UNEXPECTED_END);
+            }
+            remaining -= skipped == 0 ? 1 : skipped;
+        }
+    }
+
+    private boolean nextChunk() throws IOException {
+        while (!finished && remaining == 0) {
+            final int size = in.readInt();
+            if (size < 0 || size > ChunkedOutputStream.CHUNK_SIZE) {
+                throw new IOException(String.format("Invalid chunk size %d", size));
+            }
+            remaining = size;
+            finished = size == 0;
+        }
+        return !finished;
+    }
+}
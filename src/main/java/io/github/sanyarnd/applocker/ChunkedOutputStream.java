@@ -0,0 +1,88 @@
+package io.github.sanyarnd.applocker;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Writes data as a sequence of length-prefixed chunks, empty chunk marks the end of the stream.
+ *
+ * <p>{@link #close()} writes the end mark and leaves the underlying stream open.
+ *
+ * @author Alexander Biryukov
+ * @see ChunkedInputStream
+ */
+final class ChunkedOutputStream extends OutputStream {
+    static final int CHUNK_SIZE = 8192;
+    private static final int HEADER_SIZE = Integer.BYTES;
+
+    private final @NotNull OutputStream out;
+    private final byte @NotNull [] buffer = new byte[HEADER_SIZE + CHUNK_SIZE];
+    private final @NotNull ByteBuffer header = ByteBuffer.wrap(buffer);
+    private int count;
+    private boolean closed;
+
+    ChunkedOutputStream(final @NotNull OutputStream output) {
+        out = output;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        ensureOpen();
+        if (count == CHUNK_SIZE) {
+            writeChunk();
+        }
+        buffer[HEADER_SIZE + count++] = (byte) b;
+    }
+
+    @Override
+    public void write(final byte @NotNull [] b, final int off, final int len) throws IOException {
+        ensureOpen();
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        int written = 0;
+        while (written < len) {
+            if (count == CHUNK_SIZE) {
+                writeChunk();
+            }
+            final int size = Math.min(len - written, CHUNK_SIZE - count);
+            System.arraycopy(b, off + written, buffer, HEADER_SIZE + count, size);
+            count += size;
+            written += size;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        if (count > 0) {
+            writeChunk();
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        flush();
+        writeChunk();
+        out.flush();
+        closed = true;
+    }
+
+    private void writeChunk() throws IOException {
+        header.putInt(0, count);
+        out.write(buffer, 0, HEADER_SIZE + count);
+        count = 0;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream is closed");
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package io.github.sanyarnd.applocker;
+
+import java.util.function.LongSupplier;
+import org.jetbrains.annotations.NotNull;
+import static java.lang.String.format;
+
+/**
+ * Fails the messages right away once the lock holder has failed or hasn't answered in time the given number of times
+ * in a row, so the senders don't pile up waiting for the wedged holder.
+ *
+ * @author Alexander Biryukov
+ */
+final class CircuitBreaker {
+    private final int failureThreshold;
+    private final long callTimeoutMs;
+    private final long openMs;
+    private final @NotNull LongSupplier clock;
+    private @NotNull CircuitState state = CircuitState.CLOSED;
+    private int failures;
+    private long openedAt;
+    private boolean probing;
+
+    CircuitBreaker(final int threshold, final long timeoutMs, final long openPeriodMs) {
+        this(threshold, timeoutMs, openPeriodMs, System::currentTimeMillis);
+    }
+
+    CircuitBreaker(
+        final int threshold,
+        final long timeoutMs,
+        final long openPeriodMs,
+        final @NotNull LongSupplier currentTimeMillis
+    ) {
+        failureThreshold = threshold;
+        callTimeoutMs = timeoutMs;
+        openMs = openPeriodMs;
+        clock = currentTimeMillis;
+    }
+
+    /**
+     * Get the time the holder is given to answer a message sent without explicit timeout.
+     *
+     * @return timeout in milliseconds
+     */
+    long getCallTimeoutMs() {
+        return callTimeoutMs;
+    }
+
+    /**
+     * Allow the call or fail it right away, every allowed call must be followed by {@link #complete(boolean)}.
+     *
+     * @throws LockingException if the circuit is open or the probe call is in flight
+     */
+    synchronized void acquire() {
+        if (state == CircuitState.OPEN && clock.getAsLong() - openedAt >= openMs) {
+            state = CircuitState.HALF_OPEN;
+        }
+        if (state == CircuitState.OPEN || state == CircuitState.HALF_OPEN && probing) {
+            throw new LockingException(format("Circuit breaker is %s, lock holder has failed %d times in a row",
+                state, failures));
+        }
+        probing = state == CircuitState.HALF_OPEN;
+    }
+
+    /**
+     * Record the result of the allowed call.
+     *
+     * @param succeeded true if the holder has answered in time
+     */
+    synchronized void complete(final boolean succeeded) {
+        probing = false;
+        if (succeeded) {
+            failures = 0;
+            state = CircuitState.CLOSED;
+        } else {
+            failures++;
+            if (state == CircuitState.HALF_OPEN || failures >= failureThreshold) {
+                state = CircuitState.OPEN;
+                openedAt = clock.getAsLong();
+            }
+        }
+    }
+
+    synchronized @NotNull CircuitState getState() {
+        if (state == CircuitState.OPEN && clock.getAsLong() - openedAt >= openMs) {
+            return CircuitState.HALF_OPEN;
+        }
+        return state;
+    }
+}
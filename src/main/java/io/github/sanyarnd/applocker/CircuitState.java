@@ -0,0 +1,24 @@
+package io.github.sanyarnd.applocker;
+
+/**
+ * State of the circuit breaker guarding the messages sent to the lock holder.
+ *
+ * @author Alexander Biryukov
+ * @see AppLocker#getCircuitState()
+ * @see AppLocker.Builder#setCircuitBreaker(int, long, long)
+ */
+public enum CircuitState {
+    /**
+     * Messages are sent as usual.
+     */
+    CLOSED,
+    /**
+     * The lock holder has failed too many times in a row, messages fail right away without being sent.
+     */
+    OPEN,
+    /**
+     * The open period is over, a single probe message is sent to check if the lock holder has recovered, the others
+     * fail right away until it's answered.
+     */
+    HALF_OPEN
+}
@@ -1,13 +1,24 @@
 package io.github.sanyarnd.applocker;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.net.ConnectException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -20,32 +31,337 @@
  */
 final class Client<I extends Serializable, O extends Serializable> {
     private static final Logger LOG = LoggerFactory.getLogger(Client.class);
+    private static final Executor STREAM_SENDER = Executors.newCachedThreadPool(r -> {
+        final Thread t = new Thread(r, "AppLocker StreamSender");
+        t.setDaemon(true);
+        return t;
+    });
 
     private final int port;
+    private final long deadline;
+    private final int messageCode;
 
     Client(final int portNumber) {
+        this(portNumber, DeadlineMessage.NO_DEADLINE);
+    }
+
+    /**
+     * Create client which gives up waiting once the deadline has passed.
+     *
+     * @param portNumber     server port
+     * @param deadlineMillis deadline in milliseconds since the epoch, {@link DeadlineMessage#NO_DEADLINE} to wait
+     *                       forever
+     */
+    Client(final int portNumber, final long deadlineMillis) {
+        this(portNumber, deadlineMillis, MessagePriority.NORMAL, false);
+    }
+
+    /**
+     * Create client which gives up waiting once the deadline has passed.
+     *
+     * @param portNumber     server port
+     * @param deadlineMillis deadline in milliseconds since the epoch, {@link DeadlineMessage#NO_DEADLINE} to wait
+     *                       forever
+     * @param priority       lane of the server the messages are handled in
+     * @param compression    true if the server may compress the large answers
+     */
+    Client(
+        final int portNumber,
+        final long deadlineMillis,
+        final @NotNull MessagePriority priority,
+        final boolean compression
+    ) {
         port = portNumber;
+        deadline = deadlineMillis;
+        final ConnectionType type = priority == MessagePriority.HIGH
+            ? ConnectionType.PRIORITY_MESSAGE
+            : ConnectionType.MESSAGE;
+        messageCode = compression ? type.getCode() | ConnectionType.ACCEPTS_COMPRESSION : type.getCode();
     }
 
-    @SuppressWarnings("unchecked")
     @NotNull O send(final @NotNull I message) {
+        return exchange(output -> {
+            final ObjectOutputStream oos = new ObjectOutputStream(output);
+            oos.writeObject(message);
+            oos.flush();
+        });
+    }
+
+    /**
+     * Send already serialized message.
+     *
+     * @param message serialized message
+     * @return answer
+     * @throws LockingException if there's a trouble communicating to the server
+     */
+    @NotNull O send(final @NotNull MessageBuffer message) {
+        return exchange(message::writeTo);
+    }
+
+    @SuppressWarnings("unchecked")
+    private @NotNull O exchange(final @NotNull MessageWriter writer) {
         LOG.debug("Sending message to localhost:{}", port);
-        try (Socket socket = new Socket(InetAddress.getLocalHost(), port);
-             ObjectInputStream input = new ObjectInputStream(socket.getInputStream());
-             ObjectOutputStream output = new ObjectOutputStream(socket.getOutputStream())) {
-            socket.setReuseAddress(true);
-            output.writeObject(message);
+        try (Socket socket = connect(messageCode);
+             ObjectInputStream input = readHeader(socket)) {
+            writer.write(socket.getOutputStream());
 
-            return (O) input.readObject();
+            final Object answer = input.readObject();
+            RejectedMessage.check(answer);
+            return (O) (answer instanceof CompressedMessage ? ((CompressedMessage) answer).decompress() : answer);
         } catch (ClassNotFoundException ex) {
             LOG.debug("Cannot deserialize answer, no such class");
             throw new LockingException("Unable to deserialize the message", ex);
-        } catch (ConnectException ex) {
+        } catch (IOException ex) {
+            throw communicationError(ex);
+        }
+    }
+
+    /**
+     * Wait for the stream header, which the server writes once the connection is accepted.
+     *
+     * @param socket connection
+     * @return answer stream
+     * @throws IOException if any I/O error occurs, {@link ConnectException} if the server has dropped the connection
+     *                     without accepting it, i.e. the message certainly hasn't been received
+     */
+    private static @NotNull ObjectInputStream readHeader(final @NotNull Socket socket) throws IOException {
+        try {
+            return new ObjectInputStream(socket.getInputStream());
+        } catch (SocketTimeoutException ex) {
+            // the server might have got the message
+            throw ex;
+        } catch (IOException ex) {
+            final ConnectException dropped = new ConnectException("Connection is dropped before being accepted");
+            dropped.initCause(ex);
+            throw dropped;
+        }
+    }
+
+    /**
+     * Send the message in chunks and return the answer stream, which must be closed by the caller.
+     * <br>
+     * The message is sent from the background thread, so the answer can be read while the message is being sent.
+     *
+     * @param message message
+     * @return answer
+     * @throws LockingException if there's a trouble communicating to the server
+     */
+    @NotNull InputStream sendStream(final @NotNull InputStream message) {
+        LOG.debug("Sending stream to localhost:{}", port);
+        final Socket socket;
+        try {
+            socket = connect(ConnectionType.STREAM);
+        } catch (IOException ex) {
+            throw communicationError(ex);
+        }
+        try {
+            final ChunkedInputStream answer = new ChunkedInputStream(socket.getInputStream(), socket);
+            final ChunkedOutputStream output = new ChunkedOutputStream(socket.getOutputStream());
+            STREAM_SENDER.execute(() -> copy(message, output, socket));
+            return answer;
+        } catch (IOException ex) {
+            closeQuietly(socket);
+            throw communicationError(ex);
+        }
+    }
+
+    /**
+     * Subscribe to the events published by the server.
+     *
+     * @param listener event listener, called from the background thread
+     * @return subscription
+     * @throws LockingException if there's a trouble communicating to the server
+     */
+    @NotNull Subscription subscribe(final @NotNull Consumer<O> listener) {
+        LOG.debug("Subscribing to localhost:{}", port);
+        try {
+            final Socket socket = connect(ConnectionType.SUBSCRIBE);
+            try {
+                final EventReader<O> reader = new EventReader<>(socket, listener);
+                final Thread thread = new Thread(reader, "AppLocker Subscription");
+                thread.setDaemon(true);
+                thread.start();
+                return reader;
+            } catch (IOException ex) {
+                closeQuietly(socket);
+                throw ex;
+            }
+        } catch (IOException ex) {
+            throw communicationError(ex);
+        }
+    }
+
+    /**
+     * Tell the server that the successor with the given name is waiting for the lock.
+     *
+     * @param name          successor name
+     * @param successorPort port of the successor's message server
+     * @throws LockingException if there's a trouble communicating to the server
+     */
+    void registerSuccessor(final @NotNull String name, final int successorPort) {
+        LOG.debug("Registering successor '{}' at localhost:{}", name, port);
+        try (Socket socket = connect(ConnectionType.HANDOVER)) {
+            final DataOutputStream output = new DataOutputStream(socket.getOutputStream());
+            output.writeUTF(name);
+            output.writeInt(successorPort);
+            output.flush();
+            if (new DataInputStream(socket.getInputStream()).read() != ConnectionType.ACKNOWLEDGED) {
+                throw new EOFException("Successor is not registered");
+            }
+        } catch (IOException ex) {
+            throw communicationError(ex);
+        }
+    }
+
+    /**
+     * Check that the server accepts connections.
+     *
+     * @return true if the server is alive
+     */
+    boolean ping() {
+        try {
+            connect(ConnectionType.PING).close();
+            return true;
+        } catch (IOException ex) {
+            LOG.debug("Message server localhost:{} is not reachable", port, ex);
+            return false;
+        }
+    }
+
+    private static void copy(
+        final @NotNull InputStream message,
+        final @NotNull ChunkedOutputStream output,
+        final @NotNull Socket socket
+    ) {
+        try {
+            final byte[] buffer = new byte[ChunkedOutputStream.CHUNK_SIZE];
+            int read = message.read(buffer);
+            while (read != -1) {
+                output.write(buffer, 0, read);
+                read = message.read(buffer);
+            }
+            output.close();
+        } catch (IOException ex) {
+            // the receiving side will notice the missing end mark
+            LOG.debug("Unable to send the stream", ex);
+            closeQuietly(socket);
+        }
+    }
+
+    private @NotNull LockingException communicationError(final @NotNull IOException ex) {
+        if (ex instanceof SocketTimeoutException) {
+            LOG.debug("Deadline exceeded waiting for localhost:{}", port);
+            return new LockingException("Message deadline exceeded", ex);
+        }
+        if (ex instanceof ConnectException) {
             LOG.debug("Unable to connect to localhost:{}", port);
-            throw new LockingException("Unable to connect to the message server", ex);
+            return new LockingException("Unable to connect to the message server", ex);
+        }
+        LOG.debug("Some I/O error");
+        return new LockingException("I/O commutation error", ex);
+    }
+
+    private @NotNull Socket connect(final @NotNull ConnectionType type) throws IOException {
+        return connect(type.getCode());
+    }
+
+    private @NotNull Socket connect(final int code) throws IOException {
+        final Socket socket = new Socket();
+        try {
+            if (deadline == DeadlineMessage.NO_DEADLINE) {
+                socket.connect(new InetSocketAddress(InetAddress.getLocalHost(), port));
+            } else {
+                final long remaining = DeadlineMessage.remaining(deadline);
+                if (remaining <= 0) {
+                    throw new SocketTimeoutException("Deadline has passed before connecting");
+                }
+                // every blocking read is bounded by the time left at the moment of connection
+                final int timeout = (int) Math.min(Integer.MAX_VALUE, remaining);
+                socket.connect(new InetSocketAddress(InetAddress.getLocalHost(), port), timeout);
+                socket.setSoTimeout(timeout);
+            }
+            socket.setReuseAddress(true);
+            socket.getOutputStream().write(code);
+            return socket;
         } catch (IOException ex) {
-            LOG.debug("Some I/O error");
-            throw new LockingException("I/O commutation error", ex);
+            closeQuietly(socket);
+            throw ex;
+        }
+    }
+
+    private static void closeQuietly(final @Nullable Socket socket) {
+        if (socket == null) {
+            return;
+        }
+        try {
+            socket.close();
+        } catch (IOException ex) {
+            LOG.debug("Unable to close connection", ex);
+        }
+    }
+
+    @FunctionalInterface
+    private interface MessageWriter {
+        void write(@NotNull OutputStream output) throws IOException;
+    }
+
+    private static final class EventReader<O> implements Subscription, Runnable {
+        private final @NotNull Consumer<O> listener;
+        private volatile @NotNull Socket socket;
+        private @NotNull ObjectInputStream input;
+        private volatile boolean active = true;
+
+        private EventReader(final @NotNull Socket connection, final @NotNull Consumer<O> eventListener)
+            throws IOException {
+            socket = connection;
+            // blocks until the server has registered the subscription
+            input = new ObjectInputStream(connection.getInputStream());
+            listener = eventListener;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void run() {
+            try {
+                while (active) {
+                    final Object event = input.readObject();
+                    if (event instanceof SubscriberRedirect) {
+                        resubscribe(((SubscriberRedirect) event).getPort());
+                        continue;
+                    }
+                    try {
+                        listener.accept((O) event);
+                    } catch (RuntimeException ex) {
+                        LOG.error("Error during processing event {}", event, ex);
+                    }
+                }
+            } catch (IOException | ClassNotFoundException ex) {
+                LOG.debug("Subscription is closed", ex);
+            } finally {
+                close();
+            }
+        }
+
+        private void resubscribe(final int port) throws IOException {
+            LOG.debug("Lock is handed over, re-subscribing to localhost:{}", port);
+            closeQuietly(socket);
+            socket = new Client<>(port).connect(ConnectionType.SUBSCRIBE);
+            if (!active) {
+                closeQuietly(socket);
+                return;
+            }
+            input = new ObjectInputStream(socket.getInputStream());
+        }
+
+        @Override
+        public boolean isActive() {
+            return active;
+        }
+
+        @Override
+        public void close() {
+            active = false;
+            closeQuietly(socket);
         }
     }
 }
@@ -0,0 +1,156 @@
+package io.github.sanyarnd.applocker;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Message handler decorator which collapses identical idempotent messages into a single handler invocation.
+ *
+ * <p>Messages accepted by the predicate are compared with {@link Object#equals(Object)}: while the answer for a
+ * message is being calculated, identical messages wait for the same answer instead of invoking the handler again.
+ * Once calculated, the answer is kept in a bounded LRU cache for the given time-to-live.
+ *
+ * <p>All the other messages are passed to the handler as is.
+ *
+ * @param <I> message type
+ * @param <O> answer type
+ * @author Alexander Biryukov
+ */
+public final class CoalescingMessageHandler<I extends Serializable, O extends Serializable>
+    implements AsyncMessageHandler<I, O> {
+    private static final int INITIAL_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private final @NotNull AsyncMessageHandler<I, O> delegate;
+    private final @NotNull Predicate<? super I> idempotent;
+    private final long ttlNanos;
+    private final @NotNull Map<I, CompletableFuture<O>> inFlight = new ConcurrentHashMap<>();
+    private final @NotNull Map<I, CachedAnswer<O>> answers;
+
+    /**
+     * Create coalescing message handler.
+     *
+     * @param handler   message handler to decorate
+     * @param predicate selects the messages which are safe to coalesce and cache
+     * @param cacheSize maximum number of cached answers, 0 disables caching
+     * @param ttlMs     time-to-live of the cached answer in milliseconds, 0 disables caching
+     */
+    public CoalescingMessageHandler(
+        final @NotNull AsyncMessageHandler<I, O> handler,
+        final @NotNull Predicate<? super I> predicate,
+        final int cacheSize,
+        final long ttlMs
+    ) {
+        if (cacheSize < 0 || ttlMs < 0) {
+            throw new IllegalArgumentException("Cache size and time-to-live must not be negative");
+        }
+        delegate = handler;
+        idempotent = predicate;
+        ttlNanos = cacheSize == 0 ? 0 : TimeUnit.MILLISECONDS.toNanos(ttlMs);
+        answers = new LinkedHashMap<I, CachedAnswer<O>>(INITIAL_CAPACITY, LOAD_FACTOR, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<I, CachedAnswer<O>> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    @Override
+    public @NotNull CompletionStage<O> handleMessageAsync(final @NotNull I message) {
+        if (!idempotent.test(message)) {
+            return delegate.handleMessageAsync(message);
+        }
+
+        final O cached = getCached(message);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        final CompletableFuture<O> answer = new CompletableFuture<>();
+        final CompletableFuture<O> running = inFlight.putIfAbsent(message, answer);
+        if (running != null) {
+            return running;
+        }
+
+        try {
+            delegate.handleMessageAsync(message).whenComplete((result, ex) -> {
+                if (ex == null) {
+                    putCached(message, result);
+                }
+                inFlight.remove(message, answer);
+                complete(answer, result, ex);
+            });
+        } catch (RuntimeException ex) {
+            inFlight.remove(message, answer);
+            answer.completeExceptionally(ex);
+        }
+        return answer;
+    }
+
+    /**
+     * Drop all cached answers, the next message will invoke the handler.
+     */
+    public void invalidateAll() {
+        synchronized (answers) {
+            answers.clear();
+        }
+    }
+
+    private @Nullable O getCached(final @NotNull I message) {
+        if (ttlNanos == 0) {
+            return null;
+        }
+        synchronized (answers) {
+            final CachedAnswer<O> cached = answers.get(message);
+            if (cached == null) {
+                return null;
+            }
+            if (System.nanoTime() - cached.createdNanos > ttlNanos) {
+                answers.remove(message);
+                return null;
+            }
+            return cached.answer;
+        }
+    }
+
+    private void putCached(final @NotNull I message, final @NotNull O answer) {
+        if (ttlNanos == 0) {
+            return;
+        }
+        synchronized (answers) {
+            answers.put(message, new CachedAnswer<>(answer, System.nanoTime()));
+        }
+    }
+
+    private static <O> void complete(
+        final @NotNull CompletableFuture<O> future,
+        final @Nullable O result,
+        final @Nullable Throwable ex
+    ) {
+        if (ex != null) {
+            future.completeExceptionally(ex);
+        } else {
+            future.complete(result);
+        }
+    }
+
+    private static final class CachedAnswer<O> {
+        private final @NotNull O answer;
+        private final long createdNanos;
+
+        private CachedAnswer(final @NotNull O value, final long created) {
+            answer = value;
+            createdNanos = created;
+        }
+    }
+}
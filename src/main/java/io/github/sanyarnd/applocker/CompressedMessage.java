@@ -0,0 +1,92 @@
+package io.github.sanyarnd.applocker;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import org.jetbrains.annotations.NotNull;
+import static java.lang.String.format;
+
+/**
+ * Sent instead of the large message or answer, the message itself is deflated.<br> Deflaters and inflaters hold
+ * native memory and are expensive to create, so they are pooled and reused across the messages.
+ *
+ * @author Alexander Biryukov
+ */
+final class CompressedMessage implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final int POOL_SIZE = 8;
+    private static final Queue<Deflater> DEFLATERS = new ArrayBlockingQueue<>(POOL_SIZE);
+    private static final Queue<Inflater> INFLATERS = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    private final byte @NotNull [] data;
+    private final int length;
+
+    private CompressedMessage(final byte @NotNull [] deflated, final int size) {
+        data = deflated;
+        length = size;
+    }
+
+    /**
+     * Deflate the serialized message.
+     *
+     * @param message serialized message
+     * @return compressed message to send
+     */
+    static @NotNull CompressedMessage compress(final @NotNull MessageBuffer message) {
+        Deflater deflater = DEFLATERS.poll();
+        if (deflater == null) {
+            // speed matters more than the ratio, the messages are sent to the same host
+            deflater = new Deflater(Deflater.BEST_SPEED);
+        }
+        try {
+            final ByteArrayOutputStream output = new ByteArrayOutputStream(message.size() / 2);
+            try (DeflaterOutputStream deflating = new DeflaterOutputStream(output, deflater)) {
+                message.writeTo(deflating);
+            }
+            return new CompressedMessage(output.toByteArray(), message.size());
+        } catch (IOException ex) {
+            throw new LockingException("Unable to compress the message", ex);
+        } finally {
+            deflater.reset();
+            if (!DEFLATERS.offer(deflater)) {
+                deflater.end();
+            }
+        }
+    }
+
+    /**
+     * Inflate and de-serialize the message.
+     *
+     * @return message
+     * @throws IOException            if message is corrupted
+     * @throws ClassNotFoundException if message class is not found
+     */
+    @NotNull Serializable decompress() throws IOException, ClassNotFoundException {
+        Inflater inflater = INFLATERS.poll();
+        if (inflater == null) {
+            inflater = new Inflater();
+        }
+        try (ObjectInputStream input = new ObjectInputStream(
+            new InflaterInputStream(new ByteArrayInputStream(data), inflater))) {
+            return (Serializable) input.readObject();
+        } finally {
+            inflater.reset();
+            if (!INFLATERS.offer(inflater)) {
+                inflater.end();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return format("CompressedMessage{length=%d, compressed=%d}", length, data.length);
+    }
+}
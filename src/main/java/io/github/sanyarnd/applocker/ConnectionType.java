@@ -0,0 +1,75 @@
+package io.github.sanyarnd.applocker;
+
+import java.io.IOException;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The first byte sent by the {@link Client}, tells {@link Server} how to handle the connection.
+ *
+ * @author Alexander Biryukov
+ */
+enum ConnectionType {
+    /**
+     * Single serialized message and a single serialized answer.
+     */
+    MESSAGE(1),
+    /**
+     * Chunked binary message and a chunked binary answer.
+     */
+    STREAM(2),
+    /**
+     * Persistent connection, server sends published events until either side closes it.
+     */
+    SUBSCRIBE(3),
+    /**
+     * Client sends the name of the {@link SharedMemoryChannel} file, messages are exchanged through the shared memory
+     * while the connection is open.
+     */
+    SHARED_MEMORY(4),
+    /**
+     * Client sends the name and the port of the successor which waits for the lock to be handed over.
+     */
+    HANDOVER(5),
+    /**
+     * Client checks that the server is alive, connection is closed right away.
+     */
+    PING(6),
+    /**
+     * Same as {@link #MESSAGE}, but handled in the {@link MessagePriority#HIGH high priority} lane.
+     */
+    PRIORITY_MESSAGE(7),
+    /**
+     * Persistent connection, messages and answers are exchanged as length-prefixed frames, see {@link FrameChannel}.
+     */
+    FRAMED(8);
+
+    /**
+     * Set along with {@link #MESSAGE} and {@link #PRIORITY_MESSAGE} codes if the client accepts
+     * {@link CompressedMessage compressed} answers.
+     */
+    static final int ACCEPTS_COMPRESSION = 0x80;
+    /**
+     * Sent by the server once the {@link #SHARED_MEMORY} or {@link #HANDOVER} connection is set up, anything else means
+     * the connection is rejected.
+     */
+    static final int ACKNOWLEDGED = 1;
+
+    private final int code;
+
+    ConnectionType(final int typeCode) {
+        code = typeCode;
+    }
+
+    static @NotNull ConnectionType of(final int typeCode) throws IOException {
+        for (ConnectionType type : values()) {
+            if (type.code == typeCode) {
+                return type;
+            }
+        }
+        throw new IOException(String.format("Unknown connection type %d", typeCode));
+    }
+
+    int getCode() {
+        return code;
+    }
+}
@@ -0,0 +1,47 @@
+package io.github.sanyarnd.applocker;
+
+import java.io.Serializable;
+import org.jetbrains.annotations.NotNull;
+import static java.lang.String.format;
+
+/**
+ * Message with the time the sender stops waiting for the answer, the server drops it instead of handling once the
+ * deadline has passed.<br> Both sides are on the same host, so the deadline is the wall clock time.
+ *
+ * @author Alexander Biryukov
+ */
+final class DeadlineMessage implements Serializable {
+    static final long NO_DEADLINE = 0;
+    private static final long serialVersionUID = 1L;
+
+    private final long deadline;
+    private final @NotNull Serializable payload;
+
+    DeadlineMessage(final long deadlineMillis, final @NotNull Serializable message) {
+        deadline = deadlineMillis;
+        payload = message;
+    }
+
+    /**
+     * Get the time left until the deadline.
+     *
+     * @param deadline deadline in milliseconds since the epoch
+     * @return remaining milliseconds, 0 or less if the deadline has passed
+     */
+    static long remaining(final long deadline) {
+        return deadline - System.currentTimeMillis();
+    }
+
+    boolean isExpired() {
+        return remaining(deadline) <= 0;
+    }
+
+    @NotNull Serializable getPayload() {
+        return payload;
+    }
+
+    @Override
+    public String toString() {
+        return format("DeadlineMessage{deadline=%d, payload=%s}", deadline, payload);
+    }
+}
@@ -0,0 +1,66 @@
+package io.github.sanyarnd.applocker;
+
+import java.io.Serializable;
+import org.jetbrains.annotations.NotNull;
+import static java.lang.String.format;
+
+/**
+ * Payload stamped with the fencing token of the lock holder.
+ *
+ * <p>Tokens grow with every lock acquisition, so a resource which remembers the highest token it has seen can
+ * reject the messages from the stale holders by a single comparison.
+ *
+ * @param <T> payload type
+ * @author Alexander Biryukov
+ * @see AppLocker#fence(Serializable)
+ */
+public final class FencedMessage<T extends Serializable> implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final long token;
+    private final @NotNull T payload;
+
+    /**
+     * Create fenced message.
+     *
+     * @param fencingToken fencing token
+     * @param message      payload
+     */
+    public FencedMessage(final long fencingToken, final @NotNull T message) {
+        token = fencingToken;
+        payload = message;
+    }
+
+    /**
+     * Get the fencing token of the holder which has created the message.
+     *
+     * @return fencing token
+     */
+    public long getToken() {
+        return token;
+    }
+
+    /**
+     * Get the payload.
+     *
+     * @return payload
+     */
+    public @NotNull T getPayload() {
+        return payload;
+    }
+
+    /**
+     * Check if the message comes from the holder older than the one with the given token.
+     *
+     * @param latestToken the highest token seen by the resource
+     * @return true if the message must be rejected
+     */
+    public boolean isStale(final long latestToken) {
+        return token < latestToken;
+    }
+
+    @Override
+    public String toString() {
+        return format("FencedMessage{token=%d, payload=%s}", token, payload);
+    }
+}
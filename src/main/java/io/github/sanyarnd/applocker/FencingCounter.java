@@ -0,0 +1,40 @@
+package io.github.sanyarnd.applocker;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import org.jetbrains.annotations.NotNull;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Counter of the lock acquisitions, persisted in the memory-mapped sidecar file next to the lock file.
+ *
+ * <p>The file is never deleted, so the tokens keep growing across the lock holders and restarts.
+ *
+ * @author Alexander Biryukov
+ */
+final class FencingCounter {
+    private FencingCounter() {
+    }
+
+    /**
+     * Increment the counter, must be called under the lock which serializes acquisitions.
+     *
+     * @param file counter file, created if it doesn't exist
+     * @return new token
+     * @throws IOException if any I/O error occurs
+     */
+    static long increment(final @NotNull Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, CREATE, READ, WRITE)) {
+            final MappedByteBuffer counter = channel.map(FileChannel.MapMode.READ_WRITE, 0, Long.BYTES);
+            final long token = counter.getLong(0) + 1;
+            counter.putLong(0, token);
+            // the token must survive the crash, otherwise it may be issued twice
+            counter.force();
+            return token;
+        }
+    }
+}
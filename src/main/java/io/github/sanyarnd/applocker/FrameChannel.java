@@ -0,0 +1,139 @@
+package io.github.sanyarnd.applocker;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import static java.lang.String.format;
+
+/**
+ * Length-prefixed frames over the persistent connection, used by the {@link FramedClient} and the {@link Server}.
+ *
+ * <p>Frames are read and written with scatter/gather I/O through the pooled direct buffers, so the steady state
+ * exchange allocates nothing but the object streams of the serialization and the decoded message. Both sides wait
+ * for the answer before sending the next frame, so a frame is never read together with the next one. Empty frame is
+ * the failure answer. Frames above {@link #MAX_FRAME_SIZE} are refused, larger payloads go through the streams.
+ *
+ * @author Alexander Biryukov
+ */
+final class FrameChannel {
+    // the length comes from the peer, so it's bounded before anything is allocated for it
+    static final int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+
+    private final @NotNull SocketChannel channel;
+    // reading and writing are done by different threads on the server side
+    private final @NotNull ByteBuffer readHeader = ByteBuffer.allocateDirect(Integer.BYTES);
+    private final @NotNull ByteBuffer writeHeader = ByteBuffer.allocateDirect(Integer.BYTES);
+    private final @NotNull ByteBuffer[] readVector = new ByteBuffer[2];
+    private final @NotNull ByteBuffer[] writeVector = new ByteBuffer[2];
+
+    FrameChannel(final @NotNull SocketChannel connection) {
+        channel = connection;
+    }
+
+    /**
+     * Write the frame.
+     *
+     * @param message serialized message, empty for the failure answer
+     * @throws IOException if any I/O error occurs or the message is larger than {@link #MAX_FRAME_SIZE}
+     */
+    synchronized void write(final @NotNull ByteBuffer message) throws IOException {
+        checkLength(message.remaining());
+        final ByteBuffer body = BufferPool.SHARED.acquire(message.remaining());
+        try {
+            body.put(message).flip();
+            writeHeader.clear();
+            writeHeader.putInt(body.remaining()).flip();
+            writeVector[0] = writeHeader;
+            writeVector[1] = body;
+            while (body.hasRemaining() || writeHeader.hasRemaining()) {
+                channel.write(writeVector);
+            }
+        } finally {
+            writeVector[1] = null;
+            BufferPool.SHARED.release(body);
+        }
+    }
+
+    /**
+     * Read the frame and de-serialize the message.
+     *
+     * @param decoder frame content decoder
+     * @param <T>     decoded type
+     * @return decoded message
+     * @throws IOException            if any I/O error occurs or the frame length is invalid, {@link EOFException} if
+     *                                the other side has closed the connection
+     * @throws ClassNotFoundException if message class is not found
+     */
+    @Nullable <T> T read(final @NotNull Decoder<T> decoder) throws IOException, ClassNotFoundException {
+        ByteBuffer body = BufferPool.SHARED.acquire(BufferPool.BUFFER_SIZE);
+        readHeader.clear();
+        readVector[0] = readHeader;
+        readVector[1] = body;
+        try {
+            while (readHeader.hasRemaining()) {
+                fill(readVector);
+            }
+            readHeader.flip();
+            final int length = readHeader.getInt();
+            checkLength(length);
+            if (length > body.capacity()) {
+                // doesn't fit the pooled buffer, the part which is already read is moved to the larger one
+                final ByteBuffer large = BufferPool.SHARED.acquire(length);
+                body.flip();
+                large.put(body);
+                BufferPool.SHARED.release(body);
+                body = large;
+            }
+            body.limit(length);
+            while (body.hasRemaining()) {
+                readVector[1] = body;
+                fill(readVector);
+            }
+            body.flip();
+            return decoder.decode(body);
+        } finally {
+            readVector[1] = null;
+            BufferPool.SHARED.release(body);
+        }
+    }
+
+    private static void checkLength(final int length) throws IOException {
+        if (length < 0 || length > MAX_FRAME_SIZE) {
+            throw new IOException(format("Frame length %d is out of range [0, %d]", length, MAX_FRAME_SIZE));
+        }
+    }
+
+    private void fill(final @NotNull ByteBuffer[] vector) throws IOException {
+        if (channel.read(vector) == -1) {
+            throw new EOFException("Connection is closed");
+        }
+    }
+
+    /**
+     * De-serialize the message from the frame.
+     *
+     * @param frame frame content
+     * @return message
+     * @throws IOException            if any I/O error occurs
+     * @throws ClassNotFoundException if message class is not found
+     */
+    static @Nullable Object deserialize(final @NotNull ByteBuffer frame) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream input = new ObjectInputStream(new ByteBufferInputStream(frame))) {
+            return input.readObject();
+        }
+    }
+
+    /**
+     * Frame content decoder, the frame buffer is reused once it returns.
+     *
+     * @param <T> decoded type
+     */
+    @FunctionalInterface
+    interface Decoder<T> {
+        @Nullable T decode(@NotNull ByteBuffer frame) throws IOException, ClassNotFoundException;
+    }
+}
@@ -0,0 +1,117 @@
+package io.github.sanyarnd.applocker;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Client which exchanges messages with {@link Server} through the persistent connection, see {@link FrameChannel}.
+ *
+ * @author Alexander Biryukov
+ */
+final class FramedClient implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(FramedClient.class);
+    private static final ByteBuffer CONNECTION_TYPE = ByteBuffer.allocateDirect(1)
+        .put(0, (byte) ConnectionType.FRAMED.getCode());
+
+    private final int port;
+    private final @NotNull SocketChannel socket;
+    private final @NotNull FrameChannel frames;
+    private volatile boolean closed;
+
+    private FramedClient(final int portNumber, final @NotNull SocketChannel connection) {
+        port = portNumber;
+        socket = connection;
+        frames = new FrameChannel(connection);
+    }
+
+    /**
+     * Open the persistent connection.
+     *
+     * @param port server port
+     * @return client
+     * @throws LockingException if there's a trouble communicating to the server
+     */
+    static @NotNull FramedClient connect(final int port) {
+        LOG.debug("Opening framed connection to localhost:{}", port);
+        try {
+            final SocketChannel socket = SocketChannel.open(new InetSocketAddress(InetAddress.getLocalHost(), port));
+            try {
+                final ByteBuffer type = CONNECTION_TYPE.duplicate();
+                while (type.hasRemaining()) {
+                    socket.write(type);
+                }
+                return new FramedClient(port, socket);
+            } catch (IOException ex) {
+                socket.close();
+                throw ex;
+            }
+        } catch (IOException ex) {
+            throw new LockingException("Unable to open framed connection", ex);
+        }
+    }
+
+    /**
+     * Get the port of the server on the other side.
+     *
+     * @return port
+     */
+    int getPort() {
+        return port;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Send serialized message and wait for the answer.<br> Concurrent senders are served one by one.
+     *
+     * @param message serialized message
+     * @param <O>     answer type
+     * @return answer
+     * @throws LockingException if there's a trouble communicating to the server
+     */
+    @SuppressWarnings("unchecked")
+    synchronized @NotNull <O extends Serializable> O send(final @NotNull MessageBuffer message) {
+        try {
+            if (closed) {
+                throw new EOFException("Framed connection is closed");
+            }
+            frames.write(message.asByteBuffer());
+            final Object answer = frames.read(frame -> {
+                if (!frame.hasRemaining()) {
+                    // server failed to handle the message, same as the closed connection on the socket path
+                    throw new EOFException("Message server hasn't answered");
+                }
+                return FrameChannel.deserialize(frame);
+            });
+            RejectedMessage.check(answer);
+            return (O) answer;
+        } catch (ClassNotFoundException ex) {
+            LOG.debug("Cannot deserialize answer, no such class");
+            throw new LockingException("Unable to deserialize the message", ex);
+        } catch (IOException ex) {
+            close();
+            LOG.debug("Some I/O error");
+            throw new LockingException("I/O commutation error", ex);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            socket.close();
+        } catch (IOException ex) {
+            LOG.debug("Unable to close connection", ex);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package io.github.sanyarnd.applocker;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Lowercase hex encoding, safe for any file system.
+ *
+ * @author Alexander Biryukov
+ */
+final class Hex {
+    private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+    private static final int NIBBLE_BITS = 4;
+    private static final int NIBBLE_MASK = 0xf;
+
+    private Hex() {
+    }
+
+    static @NotNull String encode(final byte @NotNull [] bytes) {
+        final char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = DIGITS[bytes[i] >> NIBBLE_BITS & NIBBLE_MASK];
+            chars[2 * i + 1] = DIGITS[bytes[i] & NIBBLE_MASK];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,21 @@
+package io.github.sanyarnd.applocker;
+
+/**
+ * Request to the {@link LockService}, the wire format relies on the order of the constants.
+ *
+ * @author Alexander Biryukov
+ */
+enum LeaseOperation {
+    /**
+     * Take the lease if it's free, expired or already owned by the requester.
+     */
+    ACQUIRE,
+    /**
+     * Extend the lease owned by the requester.
+     */
+    RENEW,
+    /**
+     * Give the lease up.
+     */
+    RELEASE
+}
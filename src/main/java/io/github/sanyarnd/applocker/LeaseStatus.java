@@ -0,0 +1,21 @@
+package io.github.sanyarnd.applocker;
+
+/**
+ * Answer of the {@link LockService}, the wire format relies on the order of the constants.
+ *
+ * @author Alexander Biryukov
+ */
+enum LeaseStatus {
+    /**
+     * Request is fulfilled.
+     */
+    GRANTED,
+    /**
+     * The lease is owned by someone else.
+     */
+    BUSY,
+    /**
+     * The lease is expired or owned by someone else, so it can't be renewed or released.
+     */
+    LOST
+}
@@ -1,34 +1,41 @@
 package io.github.sanyarnd.applocker;
 
 import java.io.IOException;
-import java.nio.channels.FileChannel;
-import java.nio.channels.FileLock;
-import java.nio.channels.OverlappingFileLockException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileLockInterruptionException;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.atomic.AtomicReference;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import static java.lang.String.format;
-import static java.nio.file.StandardOpenOption.CREATE;
-import static java.nio.file.StandardOpenOption.READ;
-import static java.nio.file.StandardOpenOption.WRITE;
 
 /**
- * File-channel based lock.
+ * File based lock.
+ *
+ * <p>The lifecycle is the atomic state machine described by {@link LockState}: only the thread which has moved the lock
+ * out of {@link LockState#UNLOCKED} or {@link LockState#LOCKED} may touch the lock file, so there's no monitor to
+ * wait for and status queries never block, even while the other thread is waiting for the lock.
  *
  * @author Alexander Biryukov
  */
 public final class Lock implements AutoCloseable {
     private static final Logger LOG = LoggerFactory.getLogger(Lock.class);
     private static final int LOCK_SLEEP_MS = 10;
+    private static final String CHANNEL_ERROR = "Unable to open lock file channel";
 
     private final @NotNull Path file;
-    private @Nullable FileChannel channel;
-    private @Nullable FileLock fileLock;
+    private final @NotNull LockBackend backend;
+    private final @NotNull AtomicReference<LockState> state = new AtomicReference<>(LockState.UNLOCKED);
+    // written only by the thread owning the transition, published by the following state change
+    private volatile @Nullable LockBackend.Handle handle;
+    // key of the file locked by awaitLock()
+    private volatile @Nullable Object heldKey;
 
     /**
      * Create a lock.
@@ -36,11 +43,16 @@ public final class Lock implements AutoCloseable {
      * @param f lock file
      */
     public Lock(final @NotNull Path f) {
+        this(f, LockBackends.select());
+    }
+
+    Lock(final @NotNull Path f, final @NotNull LockBackend lockBackend) {
         file = f.toAbsolutePath();
+        backend = lockBackend;
     }
 
     @Override
-    public synchronized void close() {
+    public void close() {
         unlock();
     }
 
@@ -50,37 +62,44 @@ public synchronized void close() {
      * Be aware that it's easy to get a spin lock if the other Lock won't call {@link #close()}.
      *
      * @param timeoutMs timeout in milliseconds
-     * @throws LockingException lock exceeded timeout
+     * @throws LockingException     lock exceeded timeout
+     * @throws LockingBusyException if the lock is held or being acquired by this very object
      */
-    public synchronized void lock(final long timeoutMs) throws InterruptedException {
-        final long start = System.currentTimeMillis();
-        while (System.currentTimeMillis() - timeoutMs <= start) {
-            try {
-                tryLock();
-                return;
-            } catch (LockingBusyException ignored) {
-                Thread.sleep(LOCK_SLEEP_MS);
+    public void lock(final long timeoutMs) throws InterruptedException {
+        startAcquiring();
+        boolean acquired = false;
+        try {
+            final long start = System.currentTimeMillis();
+            while (!acquired && System.currentTimeMillis() - timeoutMs <= start) {
+                try {
+                    createParentDirs();
+                    createChannelLock();
+                    acquired = true;
+                } catch (LockingBusyException ignored) {
+                    Thread.sleep(LOCK_SLEEP_MS);
+                } catch (IOException ex) {
+                    throw new LockingException(CHANNEL_ERROR, ex);
+                }
             }
+        } finally {
+            state.set(acquired ? LockState.LOCKED : LockState.UNLOCKED);
+        }
+        if (!acquired) {
+            throw new LockingException(format("Lock attempt timeout=%dms exceeded", timeoutMs));
         }
-        throw new LockingException(format("Lock attempt timeout=%dms exceeded", timeoutMs));
     }
 
     /**
-     * Unlock the lock.
+     * Unlock the lock and delete the lock file.<br> The lock stays {@link LockState#RELEASING} until the file is
+     * deleted, so the other thread of this object can't lock the file which is about to be deleted.
      */
     public void unlock() {
         LOG.debug("Unlocking {}", file);
+        if (!closeHandle() && !state.compareAndSet(LockState.UNLOCKED, LockState.RELEASING)) {
+            // the other thread is acquiring or releasing, the file is its now
+            return;
+        }
         try {
-            if (fileLock != null) {
-                fileLock.close();
-            }
-            fileLock = null;
-
-            if (channel != null) {
-                channel.close();
-            }
-            channel = null;
-
             Files.delete(file);
         } catch (NoSuchFileException ignored) {
             // ignore if file is not here
@@ -88,6 +107,44 @@ public void unlock() {
             // something very wrong goes here
             LOG.error("An error during unlocking {}", file, ex);
             throw new AssertionError("Should never happen", ex);
+        } finally {
+            state.set(LockState.UNLOCKED);
+        }
+    }
+
+    /**
+     * Release the lock, but keep the lock file.<br> The processes waiting in {@link #awaitLock()} compete for the lock
+     * on the same file, nobody can lock the new file in the meantime. Which waiter wins is up to the OS.
+     */
+    public void release() {
+        if (closeHandle()) {
+            state.set(LockState.UNLOCKED);
+        }
+    }
+
+    /**
+     * Move the held lock to {@link LockState#RELEASING} and close its handle, the caller publishes
+     * {@link LockState#UNLOCKED} once it's done with the file.
+     *
+     * @return true if the lock was held by this object and is released now
+     * @throws LockingException if the handle can't be closed, the lock is {@link LockState#UNLOCKED} then
+     */
+    private boolean closeHandle() {
+        if (!state.compareAndSet(LockState.LOCKED, LockState.RELEASING)) {
+            return false;
+        }
+        LOG.debug("Releasing {}", file);
+        final LockBackend.Handle current = handle;
+        handle = null;
+        heldKey = null;
+        try {
+            if (current != null) {
+                current.close();
+            }
+            return true;
+        } catch (IOException ex) {
+            state.set(LockState.UNLOCKED);
+            throw new LockingException("Unable to release the lock", ex);
         }
     }
 
@@ -97,13 +154,106 @@ public void unlock() {
      * @throws LockingException     if any error occurred during the locking process (I/O exception)
      * @throws LockingBusyException if a lock is already taken by someone
      */
-    public synchronized void tryLock() {
-        LOG.debug("Locking {}", file);
-        createParentDirs();
+    public void tryLock() {
+        startAcquiring();
+        boolean acquired = false;
         try {
+            LOG.debug("Locking {}", file);
+            createParentDirs();
             createChannelLock();
+            acquired = true;
+        } catch (IOException ex) {
+            throw new LockingException(CHANNEL_ERROR, ex);
+        } finally {
+            state.set(acquired ? LockState.LOCKED : LockState.UNLOCKED);
+        }
+    }
+
+    private void startAcquiring() {
+        if (state.get() == LockState.LOCKED && !isLocked()) {
+            // the channel is closed underneath, nothing is held anymore
+            release();
+        }
+        if (!state.compareAndSet(LockState.UNLOCKED, LockState.ACQUIRING)) {
+            throw new LockingBusyException(format("Lock %s is %s", file, state.get()), null);
+        }
+    }
+
+    /**
+     * Wait until the lock is released by the other process and acquire it.<br> The thread is blocked in the OS, so
+     * the lock is acquired the moment it's released, without polling.
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting
+     * @throws LockingException     if any error occurred during the locking process (I/O exception)
+     * @throws LockingBusyException if the lock is held or being acquired by this very object
+     */
+    public void awaitLock() throws InterruptedException {
+        startAcquiring();
+        boolean acquired = false;
+        try {
+            LOG.debug("Waiting for {}", file);
+            createParentDirs();
+            while (!acquired) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                try {
+                    acquired = awaitChannelLock();
+                } catch (FileLockInterruptionException | ClosedByInterruptException ex) {
+                    throw new InterruptedException();
+                } catch (IOException ex) {
+                    throw new LockingException(CHANNEL_ERROR, ex);
+                }
+            }
+        } finally {
+            state.set(acquired ? LockState.LOCKED : LockState.UNLOCKED);
+        }
+    }
+
+    private boolean awaitChannelLock() throws IOException, InterruptedException {
+        final LockBackend.Handle candidate = backend.open(file);
+        boolean acquired = false;
+        try {
+            final Object key = fileKey();
+            // the previous holder deletes the file on unlock, the lock on the deleted file is worthless
+            acquired = candidate.lock() && key != null && key.equals(fileKey());
+            if (acquired) {
+                handle = candidate;
+                heldKey = key;
+            }
+            return acquired;
+        } finally {
+            if (!acquired) {
+                candidate.close();
+            }
+        }
+    }
+
+    /**
+     * Check that the lock taken by {@link #awaitLock()} is still held on the file at the lock path.<br> The previous
+     * holder deletes the file right after releasing it, so the waiter can wake up on the file which is about to be
+     * deleted, and the other process can lock the new file then. The check is reliable only if the deletion is
+     * guarded by another lock held by the caller.
+     *
+     * @return true if the held file is the current one
+     * @throws LockingException if the file can't be checked
+     */
+    boolean isOnCurrentFile() {
+        final Object key = heldKey;
+        try {
+            return isLocked() && key != null && key.equals(fileKey());
         } catch (IOException ex) {
-            throw new LockingException("Unable to open lock file channel", ex);
+            throw new LockingException(CHANNEL_ERROR, ex);
+        }
+    }
+
+    private @Nullable Object fileKey() throws IOException {
+        try {
+            final Object key = Files.readAttributes(file, BasicFileAttributes.class).fileKey();
+            // file keys aren't supported everywhere, e.g. on Windows, but there open files can't be deleted anyway
+            return key == null ? file : key;
+        } catch (NoSuchFileException ex) {
+            return null;
         }
     }
 
@@ -118,26 +268,50 @@ private void createParentDirs() {
     }
 
     private void createChannelLock() throws IOException {
-        channel = FileChannel.open(file, CREATE, READ, WRITE);
+        final LockBackend.Handle candidate = backend.open(file);
+        boolean acquired = false;
         try {
-            fileLock = channel.tryLock(); // can throw or return null
-            if (fileLock == null) {
-                throw new OverlappingFileLockException();
+            acquired = candidate.tryLock();
+        } finally {
+            if (!acquired) {
+                candidate.close();
             }
-        } catch (OverlappingFileLockException ex) {
-            channel.close();
-            channel = null;
-            throw new LockingBusyException("Unable to acquire file lock", ex);
         }
+        if (!acquired) {
+            throw new LockingBusyException("Unable to acquire file lock", null);
+        }
+        handle = candidate;
     }
 
     /**
      * Check whether lock is currently in use.
+     * <br>
+     * Wait-free: never blocks, even while the other thread is acquiring or releasing the lock.
      *
      * @return true if locked, false otherwise
      */
     public boolean isLocked() {
-        return channel != null && fileLock != null && channel.isOpen() && fileLock.isValid();
+        if (state.get() != LockState.LOCKED) {
+            return false;
+        }
+        // the channel might have been closed underneath, e.g. by the interrupt
+        final LockBackend.Handle current = handle;
+        return current != null && current.isValid();
+    }
+
+    @NotNull Path getFile() {
+        return file;
+    }
+
+    /**
+     * Get the lifecycle state of the lock.
+     * <br>
+     * Wait-free: never blocks, even while the other thread is acquiring or releasing the lock.
+     *
+     * @return state
+     */
+    public @NotNull LockState getState() {
+        return state.get();
     }
 
     @Override
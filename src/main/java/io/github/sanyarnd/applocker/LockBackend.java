@@ -0,0 +1,60 @@
+package io.github.sanyarnd.applocker;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * OS-level file locking used by {@link Lock}.
+ *
+ * @author Alexander Biryukov
+ * @see LockBackends#select()
+ */
+interface LockBackend {
+    /**
+     * Open the lock file, create it if it doesn't exist.
+     *
+     * @param file lock file
+     * @return handle, not locked yet
+     * @throws IOException if any I/O error occurs
+     */
+    @NotNull Handle open(@NotNull Path file) throws IOException;
+
+    /**
+     * Opened lock file.
+     */
+    interface Handle extends AutoCloseable {
+        /**
+         * Try to take the exclusive lock on the whole file.
+         *
+         * @return true if locked, false if the lock is held by someone else
+         * @throws IOException if any I/O error occurs
+         */
+        boolean tryLock() throws IOException;
+
+        /**
+         * Wait until the exclusive lock on the whole file is taken.
+         *
+         * @return true if locked, false if the wait has ended without the lock and must be retried
+         * @throws IOException          if any I/O error occurs, {@link java.nio.channels.FileLockInterruptionException}
+         *                              or {@link java.nio.channels.ClosedByInterruptException} if interrupted
+         * @throws InterruptedException if the thread is interrupted while waiting
+         */
+        boolean lock() throws IOException, InterruptedException;
+
+        /**
+         * Check that the lock is held, never blocks.
+         *
+         * @return true if locked
+         */
+        boolean isValid();
+
+        /**
+         * Release the lock, if any, and close the file.
+         *
+         * @throws IOException if any I/O error occurs
+         */
+        @Override
+        void close() throws IOException;
+    }
+}
@@ -0,0 +1,25 @@
+package io.github.sanyarnd.applocker;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Selects the {@link LockBackend}.
+ * <br>
+ * The multi-release jar overrides this class for JDK 22+, where the native Linux backend can be enabled with
+ * {@code -Dio.github.sanyarnd.applocker.ofd=true}.
+ *
+ * @author Alexander Biryukov
+ */
+final class LockBackends {
+    private LockBackends() {
+    }
+
+    /**
+     * Get the backend for the new locks.
+     *
+     * @return backend
+     */
+    static @NotNull LockBackend select() {
+        return ChannelLockBackend.INSTANCE;
+    }
+}
@@ -0,0 +1,288 @@
+package io.github.sanyarnd.applocker;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import static java.lang.String.format;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Read-only view of the locks in the lock directory.
+ *
+ * <p>The locks are never touched: lock and port files are indexed once, then the index is updated incrementally from
+ * the {@link WatchService} events in the background thread, so every query costs the same whatever the number of
+ * locks is. On Linux the holders are looked up in the kernel lock table ({@code /proc/locks}), which is read once per
+ * query.
+ *
+ * <p>File names contain the encoded lock ids, so the locks can be looked up by the original id, but not listed by it.
+ *
+ * @author Alexander Biryukov
+ */
+public final class LockDirectory implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(LockDirectory.class);
+    private static final int NO_PORT = -1;
+    private static final long NO_OWNER = -1;
+    private static final Entry EMPTY = new Entry(null, null, NO_PORT, null);
+
+    private final @NotNull Path directory;
+    private final @NotNull LockIdEncoder encoder;
+    private final @NotNull String globalLockId;
+    private final @NotNull WatchService watcher;
+    // replaced as a whole by the re-scan, so queries never see it half-built
+    private volatile @NotNull Map<String, Entry> index = new ConcurrentHashMap<>();
+
+    private LockDirectory(
+        final @NotNull Path lockDirectory,
+        final @NotNull LockIdEncoder idEncoder,
+        final @NotNull WatchService watchService
+    ) {
+        directory = lockDirectory;
+        encoder = idEncoder;
+        globalLockId = idEncoder.encode(AppLocker.UNIQUE_GLOBAL_LOCK);
+        watcher = watchService;
+    }
+
+    /**
+     * Start watching the lock directory of the AppLockers with the default id encoder.
+     *
+     * @param directory lock directory
+     * @return lock directory view
+     * @throws LockingException if the directory can't be watched
+     */
+    public static @NotNull LockDirectory watch(final @NotNull Path directory) {
+        return watch(directory, Sha1Encoder.MEMOIZED);
+    }
+
+    /**
+     * Start watching the lock directory.
+     *
+     * @param directory lock directory
+     * @param idEncoder id encoder of the AppLockers
+     * @return lock directory view
+     * @throws LockingException if the directory can't be watched
+     * @see AppLocker.Builder#setIdEncoder(LockIdEncoder)
+     */
+    public static @NotNull LockDirectory watch(final @NotNull Path directory, final @NotNull LockIdEncoder idEncoder) {
+        final Path path = directory.toAbsolutePath();
+        try {
+            Files.createDirectories(path);
+            final WatchService watcher = path.getFileSystem().newWatchService();
+            final LockDirectory lockDirectory = new LockDirectory(path, idEncoder, watcher);
+            try {
+                // registered before the scan, so nothing is missed in between
+                path.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+                lockDirectory.rescan();
+            } catch (IOException ex) {
+                watcher.close();
+                throw ex;
+            }
+            final Thread thread = new Thread(lockDirectory::run, "AppLocker LockDirectory");
+            thread.setDaemon(true);
+            thread.start();
+            return lockDirectory;
+        } catch (IOException ex) {
+            throw new LockingException(format("Unable to watch lock directory %s", path), ex);
+        }
+    }
+
+    /**
+     * List the locks which have the lock files.
+     *
+     * @return locks ordered by encoded id
+     */
+    public @NotNull List<LockInfo> getLocks() {
+        final Map<String, Long> holders = ProcLocks.read();
+        final List<LockInfo> locks = new ArrayList<>();
+        index.forEach((encodedId, entry) -> {
+            final LockInfo info = entry.toInfo(encodedId, holders);
+            if (info != null) {
+                locks.add(info);
+            }
+        });
+        locks.sort(Comparator.comparing(LockInfo::getEncodedId));
+        return locks;
+    }
+
+    /**
+     * Find the lock.
+     *
+     * @param id lock id
+     * @return lock, empty if there's no lock file
+     */
+    public @NotNull Optional<LockInfo> getLock(final @NotNull String id) {
+        final String encodedId = encoder.encode(id);
+        final Entry entry = index.get(encodedId);
+        return entry == null ? Optional.empty() : Optional.ofNullable(entry.toInfo(encodedId, ProcLocks.read()));
+    }
+
+    /**
+     * Stop watching.
+     */
+    @Override
+    public void close() {
+        try {
+            watcher.close();
+        } catch (IOException ex) {
+            LOG.debug("Unable to close watch service of {}", directory, ex);
+        }
+    }
+
+    private void run() {
+        try {
+            boolean valid = true;
+            while (valid) {
+                final WatchKey key = watcher.take();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == OVERFLOW) {
+                        LOG.debug("Events of {} are lost, re-scanning", directory);
+                        rescan();
+                    } else {
+                        update(directory.resolve((Path) event.context()));
+                    }
+                }
+                valid = key.reset();
+            }
+            LOG.warn("Lock directory {} is no longer accessible", directory);
+        } catch (InterruptedException | ClosedWatchServiceException ex) {
+            LOG.debug("Stopped watching {}", directory);
+        } catch (IOException ex) {
+            LOG.error("Unable to scan lock directory {}", directory, ex);
+        }
+    }
+
+    private void rescan() throws IOException {
+        final Map<String, Entry> rebuilt = new ConcurrentHashMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                update(rebuilt, file);
+            }
+        }
+        index = rebuilt;
+    }
+
+    private void update(final @NotNull Path file) {
+        update(index, file);
+    }
+
+    /**
+     * Bring the entry of the file up to date with the file system, events only tell which file to look at.
+     *
+     * @param target index to update
+     * @param file   changed file
+     */
+    private void update(final @NotNull Map<String, Entry> target, final @NotNull Path file) {
+        final String name = file.getFileName().toString();
+        // port and token file names end with the lock file suffix as well
+        final String portOwner = parseId(name, AppLocker.LOCK_PORT_PATTERN);
+        if (portOwner != null) {
+            target.compute(portOwner, (ignored, entry) -> (entry == null ? EMPTY : entry).withPort(file));
+        } else if (parseId(name, AppLocker.LOCK_TOKEN_PATTERN) == null) {
+            final String encodedId = parseId(name, AppLocker.LOCK_NAME_PATTERN);
+            if (encodedId != null && !encodedId.equals(globalLockId)) {
+                target.compute(encodedId, (ignored, entry) -> (entry == null ? EMPTY : entry).withLockFile(file));
+            }
+        }
+    }
+
+    private static @Nullable String parseId(final @NotNull String name, final @NotNull String pattern) {
+        final int placeholder = pattern.indexOf("%s");
+        final String prefix = pattern.substring(0, placeholder);
+        final String suffix = pattern.substring(placeholder + 2);
+        if (name.length() > prefix.length() + suffix.length() && name.startsWith(prefix) && name.endsWith(suffix)) {
+            return name.substring(prefix.length(), name.length() - suffix.length());
+        }
+        return null;
+    }
+
+    /**
+     * Indexed files of the single lock, entries are replaced rather than modified, so queries never see them
+     * half-updated.
+     */
+    private static final class Entry {
+        private final @Nullable Path lockFile;
+        private final @Nullable String fileKey;
+        private final int port;
+        private final @Nullable FileTime portPublished;
+
+        private Entry(
+            final @Nullable Path file,
+            final @Nullable String key,
+            final int portNumber,
+            final @Nullable FileTime published
+        ) {
+            lockFile = file;
+            fileKey = key;
+            port = portNumber;
+            portPublished = published;
+        }
+
+        /**
+         * Re-read the lock file.
+         *
+         * @param file lock file
+         * @return updated entry, null if nothing is left
+         */
+        private @Nullable Entry withLockFile(final @NotNull Path file) {
+            final boolean exists = Files.exists(file);
+            return orNull(new Entry(exists ? file : null, exists ? ProcLocks.key(file) : null, port, portPublished));
+        }
+
+        /**
+         * Re-read the port file.
+         *
+         * @param file port file
+         * @return updated entry, null if nothing is left
+         */
+        private @Nullable Entry withPort(final @NotNull Path file) {
+            Entry updated = this;
+            try {
+                final byte[] content = Files.readAllBytes(file);
+                // the port file is replaced atomically, but may be caught while being created by the older versions
+                if (content.length == Integer.BYTES) {
+                    updated = new Entry(lockFile, fileKey, ByteBuffer.wrap(content).getInt(),
+                        Files.getLastModifiedTime(file));
+                }
+            } catch (NoSuchFileException ex) {
+                updated = new Entry(lockFile, fileKey, NO_PORT, null);
+            } catch (IOException ex) {
+                LOG.debug("Unable to read port file {}", file, ex);
+            }
+            return orNull(updated);
+        }
+
+        private static @Nullable Entry orNull(final @NotNull Entry entry) {
+            return entry.lockFile == null && entry.port == NO_PORT ? null : entry;
+        }
+
+        private @Nullable LockInfo toInfo(final @NotNull String encodedId, final @Nullable Map<String, Long> holders) {
+            final Path file = lockFile;
+            if (file == null) {
+                return null;
+            }
+            final Long pid = holders == null || fileKey == null ? null : holders.get(fileKey);
+            final boolean held = holders == null || fileKey == null ? Files.exists(file) : pid != null;
+            return new LockInfo(encodedId, file, held, pid == null ? NO_OWNER : pid, port, portPublished);
+        }
+    }
+}
@@ -18,4 +18,38 @@ public interface LockIdEncoder {
      */
     @NotNull
     String encode(@NotNull String inputString);
+
+    /**
+     * Get the SHA-1 encoder, the default one.<br> Produces 40 hex characters.
+     *
+     * @return encoder
+     */
+    static @NotNull LockIdEncoder sha1() {
+        return Sha1Encoder.INSTANCE;
+    }
+
+    /**
+     * Get the MurmurHash3 128-bit encoder.<br> Faster than SHA-1 and produces 32 hex characters, accidental
+     * collisions are negligible, but the hash is not cryptographic. All instances sharing the lock directory must use
+     * the same encoder.
+     *
+     * @return encoder
+     */
+    static @NotNull LockIdEncoder murmur3() {
+        return Murmur3Encoder.INSTANCE;
+    }
+
+    /**
+     * Wrap the encoder into the one which remembers the recently encoded ids.
+     *
+     * @param encoder encoder
+     * @param maxSize maximum number of the remembered ids, the least recently used are forgotten first
+     * @return encoder
+     */
+    static @NotNull LockIdEncoder memoizing(final @NotNull LockIdEncoder encoder, final int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive");
+        }
+        return new MemoizingEncoder(encoder, maxSize);
+    }
 }
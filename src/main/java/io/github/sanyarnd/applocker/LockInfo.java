@@ -0,0 +1,101 @@
+package io.github.sanyarnd.applocker;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.OptionalInt;
+import java.util.OptionalLong;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import static java.lang.String.format;
+
+/**
+ * Snapshot of the lock found in the lock directory.
+ *
+ * @author Alexander Biryukov
+ * @see LockDirectory
+ */
+public final class LockInfo {
+    private final @NotNull String encodedId;
+    private final @NotNull Path lockFile;
+    private final boolean held;
+    private final long ownerPid;
+    private final int port;
+    private final @Nullable FileTime portPublished;
+
+    LockInfo(
+        final @NotNull String lockEncodedId,
+        final @NotNull Path file,
+        final boolean isHeld,
+        final long pid,
+        final int portNumber,
+        final @Nullable FileTime published
+    ) {
+        encodedId = lockEncodedId;
+        lockFile = file;
+        held = isHeld;
+        ownerPid = pid;
+        port = portNumber;
+        portPublished = published;
+    }
+
+    /**
+     * Get the lock id encoded by {@link LockIdEncoder}, the original id can't be restored from the file name.
+     *
+     * @return encoded id
+     */
+    public @NotNull String getEncodedId() {
+        return encodedId;
+    }
+
+    /**
+     * Get the lock file.
+     *
+     * @return absolute path of the lock file
+     */
+    public @NotNull Path getLockFile() {
+        return lockFile;
+    }
+
+    /**
+     * Check if the lock is held.<br> On Linux the lock table of the kernel is checked, elsewhere the lock is
+     * considered held while its file exists: holders delete the file on unlock, but the file of a crashed holder
+     * stays.
+     *
+     * @return true if held
+     */
+    public boolean isHeld() {
+        return held;
+    }
+
+    /**
+     * Get the process id of the lock holder.
+     *
+     * @return process id, empty if the lock is not held or the holder is unknown
+     */
+    public @NotNull OptionalLong getOwnerPid() {
+        return ownerPid > 0 ? OptionalLong.of(ownerPid) : OptionalLong.empty();
+    }
+
+    /**
+     * Get the port of the holder's message server from the port file.
+     *
+     * @return port, empty if there's no port file
+     */
+    public @NotNull OptionalInt getPort() {
+        return port > 0 ? OptionalInt.of(port) : OptionalInt.empty();
+    }
+
+    /**
+     * Get the time the port file was written.
+     *
+     * @return modification time of the port file, null if there's no port file
+     */
+    public @Nullable FileTime getPortPublished() {
+        return portPublished;
+    }
+
+    @Override
+    public String toString() {
+        return format("LockInfo{encodedId='%s', held=%s, ownerPid=%d, port=%d}", encodedId, held, ownerPid, port);
+    }
+}
@@ -0,0 +1,222 @@
+package io.github.sanyarnd.applocker;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import static java.lang.String.format;
+
+/**
+ * Lock service for the AppLocker instances on the different hosts.
+ *
+ * <p>The service hands out leases: named locks with time-to-live, which the owner must renew before they expire. Each
+ * lease gets a token greater than all the previous ones, so the token can be used as a fencing token. Requests are
+ * pipelined: clients send them over the persistent connection without waiting for the answers, the answers are sent
+ * in the same order.
+ *
+ * <p>Leases are kept in memory, so they are lost when the service is restarted.
+ *
+ * @author Alexander Biryukov
+ * @see AppLocker.Builder#setLockService(InetSocketAddress, long)
+ */
+public final class LockService implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(LockService.class);
+
+    private final @NotNull ServerSocket socket;
+    private final @NotNull Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private final @NotNull Map<String, Lease> leases = new HashMap<>();
+    private final @NotNull ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        final Thread t = new Thread(r, "AppLocker LockService");
+        t.setDaemon(true);
+        return t;
+    });
+    private long lastToken;
+
+    private LockService(final @NotNull ServerSocket serverSocket) {
+        socket = serverSocket;
+    }
+
+    /**
+     * Start the service.
+     *
+     * @param address address to listen on, port 0 picks any free port
+     * @return running service
+     * @throws LockingException if the address can't be bound
+     */
+    public static @NotNull LockService start(final @NotNull InetSocketAddress address) {
+        final ServerSocket socket;
+        try {
+            socket = new ServerSocket();
+            socket.setReuseAddress(true);
+            socket.bind(address);
+        } catch (IOException ex) {
+            throw new LockingException(format("Unable to bind lock service to %s", address), ex);
+        }
+        final LockService service = new LockService(socket);
+        service.executor.execute(service::accept);
+        LOG.info("Lock service is listening on {}", service.getAddress());
+        return service;
+    }
+
+    /**
+     * Get the address the service is listening on.
+     *
+     * @return address
+     */
+    public @NotNull InetSocketAddress getAddress() {
+        return new InetSocketAddress(socket.getInetAddress(), socket.getLocalPort());
+    }
+
+    /**
+     * Stop the service, all leases are dropped.
+     */
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException ex) {
+            LOG.debug("Unable to close lock service socket", ex);
+        }
+        for (Socket connection : connections) {
+            closeQuietly(connection);
+        }
+        executor.shutdown();
+    }
+
+    private void accept() {
+        while (!socket.isClosed()) {
+            try {
+                final Socket connection = socket.accept();
+                connection.setTcpNoDelay(true);
+                connections.add(connection);
+                executor.execute(() -> serve(connection));
+            } catch (IOException ex) {
+                LOG.debug("Lock service has stopped accepting connections", ex);
+            }
+        }
+    }
+
+    private void serve(final @NotNull Socket connection) {
+        LOG.debug("New lock service client {}", connection.getRemoteSocketAddress());
+        try {
+            final DataInputStream input = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+            final DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(connection.getOutputStream()));
+            while (!connection.isClosed()) {
+                final int id = input.readInt();
+                final LeaseOperation operation = LeaseOperation.values()[input.readUnsignedByte()];
+                final String name = input.readUTF();
+                final String owner = input.readUTF();
+                final long token = input.readLong();
+                final long ttlMs = input.readLong();
+
+                final Lease lease = process(operation, name, owner, token, ttlMs);
+                output.writeInt(id);
+                output.writeByte(lease.status.ordinal());
+                output.writeLong(lease.token);
+                // pipelined requests are answered in batches
+                if (input.available() == 0) {
+                    output.flush();
+                }
+            }
+        } catch (EOFException ex) {
+            LOG.debug("Lock service client {} is gone", connection.getRemoteSocketAddress());
+        } catch (IOException | RuntimeException ex) {
+            LOG.debug("Lock service connection error", ex);
+        } finally {
+            connections.remove(connection);
+            closeQuietly(connection);
+        }
+    }
+
+    private synchronized @NotNull Lease process(
+        final @NotNull LeaseOperation operation,
+        final @NotNull String name,
+        final @NotNull String owner,
+        final long token,
+        final long ttlMs
+    ) {
+        final long now = System.nanoTime();
+        final long expiresAt = now + TimeUnit.MILLISECONDS.toNanos(ttlMs);
+        Lease lease = leases.get(name);
+        if (lease != null && lease.expiresAt - now <= 0) {
+            LOG.debug("Lease '{}' of {} has expired", name, lease.owner);
+            leases.remove(name);
+            lease = null;
+        }
+        final boolean owned = lease != null && lease.owner.equals(owner) && lease.token == token;
+        final Lease answer;
+        switch (operation) {
+            case ACQUIRE:
+                if (lease == null || lease.owner.equals(owner)) {
+                    lastToken++;
+                    lease = new Lease(LeaseStatus.GRANTED, owner, lastToken, expiresAt);
+                    leases.put(name, lease);
+                    answer = lease;
+                } else {
+                    answer = new Lease(LeaseStatus.BUSY, lease.owner, lease.token, lease.expiresAt);
+                }
+                break;
+            case RENEW:
+                if (owned) {
+                    lease.expiresAt = expiresAt;
+                    answer = lease;
+                } else {
+                    answer = new Lease(LeaseStatus.LOST, owner, token, now);
+                }
+                break;
+            default:
+                if (owned) {
+                    leases.remove(name);
+                    answer = lease;
+                } else {
+                    answer = new Lease(LeaseStatus.LOST, owner, token, now);
+                }
+                break;
+        }
+        LOG.debug("{} '{}' by {}: {}", operation, name, owner, answer.status);
+        return answer;
+    }
+
+    private static void closeQuietly(final @NotNull Socket connection) {
+        try {
+            connection.close();
+        } catch (IOException ex) {
+            LOG.debug("Unable to close connection", ex);
+        }
+    }
+
+    private static final class Lease {
+        private final @NotNull LeaseStatus status;
+        private final @NotNull String owner;
+        private final long token;
+        private long expiresAt;
+
+        private Lease(
+            final @NotNull LeaseStatus leaseStatus,
+            final @NotNull String leaseOwner,
+            final long leaseToken,
+            final long expiresAtNanos
+        ) {
+            status = leaseStatus;
+            owner = leaseOwner;
+            token = leaseToken;
+            expiresAt = expiresAtNanos;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package io.github.sanyarnd.applocker;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import static java.lang.String.format;
+
+/**
+ * Client of the {@link LockService}.
+ *
+ * <p>All requests are written to the single persistent connection without waiting for the previous answers, the
+ * answers are matched to the requests by id in the background thread.
+ *
+ * @author Alexander Biryukov
+ */
+final class LockServiceClient implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(LockServiceClient.class);
+
+    private final @NotNull InetSocketAddress address;
+    private final @NotNull Socket socket;
+    private final @NotNull DataOutputStream output;
+    private final @NotNull Map<Integer, CompletableFuture<Answer>> pending = new ConcurrentHashMap<>();
+    private int nextId;
+
+    private LockServiceClient(final @NotNull InetSocketAddress serviceAddress, final @NotNull Socket connection)
+        throws IOException {
+        address = serviceAddress;
+        socket = connection;
+        output = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+    }
+
+    /**
+     * Connect to the service.
+     *
+     * @param address   service address
+     * @param timeoutMs maximum time to wait for the connection
+     * @return client
+     * @throws LockingException if the service is not reachable
+     */
+    static @NotNull LockServiceClient connect(final @NotNull InetSocketAddress address, final long timeoutMs) {
+        final Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            // unreachable host must not stall the caller for the OS connect timeout
+            socket.connect(address, (int) Math.min(Integer.MAX_VALUE, Math.max(1, timeoutMs)));
+            final LockServiceClient client = new LockServiceClient(address, socket);
+            final Thread reader = new Thread(client::readAnswers, "AppLocker LockServiceClient");
+            reader.setDaemon(true);
+            reader.start();
+            return client;
+        } catch (IOException ex) {
+            closeQuietly(socket);
+            throw new LockingException(format("Unable to connect to the lock service %s", address), ex);
+        }
+    }
+
+    /**
+     * Send the request, doesn't wait for the answer.
+     *
+     * @param operation operation
+     * @param name      lease name
+     * @param owner     requester id
+     * @param token     token of the owned lease, ignored by {@link LeaseOperation#ACQUIRE}
+     * @param ttlMs     lease time-to-live in milliseconds
+     * @return answer
+     */
+    @NotNull CompletableFuture<Answer> request(
+        final @NotNull LeaseOperation operation,
+        final @NotNull String name,
+        final @NotNull String owner,
+        final long token,
+        final long ttlMs
+    ) {
+        final CompletableFuture<Answer> answer = new CompletableFuture<>();
+        synchronized (output) {
+            final int id = nextId++;
+            pending.put(id, answer);
+            try {
+                output.writeInt(id);
+                output.writeByte(operation.ordinal());
+                output.writeUTF(name);
+                output.writeUTF(owner);
+                output.writeLong(token);
+                output.writeLong(ttlMs);
+                output.flush();
+            } catch (IOException ex) {
+                pending.remove(id);
+                answer.completeExceptionally(
+                    new LockingException(format("Unable to send request to the lock service %s", address), ex));
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * Send the request and wait for the answer.
+     *
+     * @param operation operation
+     * @param name      lease name
+     * @param owner     requester id
+     * @param token     token of the owned lease, ignored by {@link LeaseOperation#ACQUIRE}
+     * @param ttlMs     lease time-to-live in milliseconds, also the maximum time to wait for the answer
+     * @return answer
+     * @throws LockingException if the service doesn't answer in time
+     */
+    @NotNull Answer call(
+        final @NotNull LeaseOperation operation,
+        final @NotNull String name,
+        final @NotNull String owner,
+        final long token,
+        final long ttlMs
+    ) {
+        final CompletableFuture<Answer> answer = request(operation, name, owner, token, ttlMs);
+        try {
+            return answer.get(ttlMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            pending.values().remove(answer);
+            Thread.currentThread().interrupt();
+            throw new LockingException("Interrupted while waiting for the lock service", ex);
+        } catch (ExecutionException ex) {
+            throw ex.getCause() instanceof LockingException
+                ? (LockingException) ex.getCause()
+                : new LockingException("Lock service request has failed", ex.getCause());
+        } catch (TimeoutException ex) {
+            // the late answer is dropped by the reader
+            pending.values().remove(answer);
+            throw new LockingException(format("Lock service %s doesn't answer", address), ex);
+        }
+    }
+
+    boolean isClosed() {
+        return socket.isClosed();
+    }
+
+    @Override
+    public void close() {
+        closeQuietly(socket);
+    }
+
+    private void readAnswers() {
+        try {
+            final DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            while (!socket.isClosed()) {
+                final int id = input.readInt();
+                final LeaseStatus status = LeaseStatus.values()[input.readUnsignedByte()];
+                final long token = input.readLong();
+                final CompletableFuture<Answer> answer = pending.remove(id);
+                if (answer != null) {
+                    answer.complete(new Answer(status, token));
+                }
+            }
+        } catch (IOException ex) {
+            LOG.debug("Connection to the lock service {} is closed", address, ex);
+        } finally {
+            close();
+            final LockingException error = new LockingException(
+                format("Connection to the lock service %s is closed", address));
+            pending.values().forEach(answer -> answer.completeExceptionally(error));
+            pending.clear();
+        }
+    }
+
+    private static void closeQuietly(final @NotNull Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ex) {
+            LOG.debug("Unable to close connection", ex);
+        }
+    }
+
+    /**
+     * Answer of the service.
+     */
+    static final class Answer {
+        private final @NotNull LeaseStatus status;
+        private final long token;
+
+        Answer(final @NotNull LeaseStatus leaseStatus, final long leaseToken) {
+            status = leaseStatus;
+            token = leaseToken;
+        }
+
+        @NotNull LeaseStatus getStatus() {
+            return status;
+        }
+
+        long getToken() {
+            return token;
+        }
+    }
+}
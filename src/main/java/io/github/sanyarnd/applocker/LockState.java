@@ -0,0 +1,29 @@
+package io.github.sanyarnd.applocker;
+
+/**
+ * Lifecycle state of the {@link Lock}.
+ * <br>
+ * The only allowed transitions are: unlocked to acquiring, acquiring to locked or back to unlocked, locked to
+ * releasing, releasing to unlocked. {@link Lock#unlock()} of the lock which is not held goes from unlocked to
+ * releasing too, while it deletes the lock file.
+ *
+ * @author Alexander Biryukov
+ */
+public enum LockState {
+    /**
+     * The lock is not held.
+     */
+    UNLOCKED,
+    /**
+     * Some thread is taking the lock, possibly waiting for the other holder.
+     */
+    ACQUIRING,
+    /**
+     * The lock is held.
+     */
+    LOCKED,
+    /**
+     * Some thread is releasing the lock or deleting the lock file.
+     */
+    RELEASING
+}
@@ -8,6 +8,8 @@
  * @author Alexander Biryukov
  */
 public class LockingBusyException extends LockingException {
+    private final @Nullable String lockId;
+
     /**
      * Create lock busy exception
      *
@@ -15,6 +17,25 @@ public class LockingBusyException extends LockingException {
      * @param cause   exception cause
      */
     public LockingBusyException(@Nullable final String message, @Nullable final Throwable cause) {
+        this(message, cause, null);
+    }
+
+    LockingBusyException(
+        final @Nullable String message,
+        final @Nullable Throwable cause,
+        final @Nullable String busyLockId
+    ) {
         super(message, cause);
+        lockId = busyLockId;
+    }
+
+    /**
+     * Get the id of the busy lock.
+     *
+     * @return lock id, null if unknown
+     * @see AppLocker#lockAll(java.util.Collection)
+     */
+    public @Nullable String getLockId() {
+        return lockId;
     }
 }
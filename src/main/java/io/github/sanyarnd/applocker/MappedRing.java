@@ -0,0 +1,137 @@
+package io.github.sanyarnd.applocker;
+
+import java.nio.ByteBuffer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Single-producer single-consumer ring of length-prefixed records, placed in the shared (memory-mapped) buffer.
+ *
+ * <p>Producer and consumer may live in different processes. The producer owns the write position and the consumer
+ * owns the read position, each index is written by a single side only, so no locks or CAS are needed. Positions grow
+ * monotonically and are reduced modulo capacity, records wrap around the end of the data area.
+ *
+ * <p>The ordering between the processes is best-effort: the JMM says nothing about the memory shared with another
+ * process, and Java 8 has neither fences nor atomic accesses on {@link ByteBuffer}. The indices are plain
+ * {@link ByteBuffer#getLong(int)} and {@link ByteBuffer#putLong(int, long)} accesses ordered by {@link #fence()},
+ * which acts as the full barrier on HotSpot, and aligned 8-byte accesses are atomic there.
+ *
+ * @author Alexander Biryukov
+ */
+final class MappedRing {
+    /**
+     * Size of the ring header, indices are kept on separate cache lines.
+     */
+    static final int HEADER_SIZE = 128;
+    private static final int WRITE_POSITION = 0;
+    private static final int READ_POSITION = 64;
+
+    private final @NotNull ByteBuffer buffer;
+    private final int capacity;
+    private volatile int fence;
+
+    /**
+     * Create the ring view over the buffer.
+     *
+     * @param region buffer region of {@link #HEADER_SIZE} + capacity bytes, zeroed for the new ring
+     */
+    MappedRing(final @NotNull ByteBuffer region) {
+        buffer = region;
+        capacity = region.capacity() - HEADER_SIZE;
+        if (capacity <= Integer.BYTES) {
+            throw new IllegalArgumentException("Ring region is too small");
+        }
+    }
+
+    /**
+     * Get the size of the largest record which fits into the empty ring.
+     *
+     * @return size in bytes
+     */
+    int maxRecordSize() {
+        return capacity - Integer.BYTES;
+    }
+
+    /**
+     * Append the record, producer side only.
+     *
+     * @param content record content
+     * @return false if there's not enough free space in the ring
+     */
+    boolean offer(final @NotNull ByteBuffer content) {
+        final int size = content.remaining();
+        final long write = buffer.getLong(WRITE_POSITION);
+        final long read = buffer.getLong(READ_POSITION);
+        if (capacity - (write - read) < Integer.BYTES + (long) size) {
+            return false;
+        }
+        put(write, ByteBuffer.allocate(Integer.BYTES).putInt(0, size));
+        put(write + Integer.BYTES, content);
+        // publish the content before the position
+        fence();
+        buffer.putLong(WRITE_POSITION, write + Integer.BYTES + size);
+        return true;
+    }
+
+    /**
+     * Take the next record, consumer side only.
+     *
+     * @return record content or null if the ring is empty
+     */
+    byte @Nullable [] poll() {
+        final long read = buffer.getLong(READ_POSITION);
+        final long write = buffer.getLong(WRITE_POSITION);
+        if (write == read) {
+            return null;
+        }
+        // don't read the content before the position
+        fence();
+        final byte[] header = new byte[Integer.BYTES];
+        get(read, header);
+        final byte[] content = new byte[ByteBuffer.wrap(header).getInt()];
+        get(read + Integer.BYTES, content);
+        // release the space only after the content is copied
+        fence();
+        buffer.putLong(READ_POSITION, read + Integer.BYTES + content.length);
+        return content;
+    }
+
+    private void put(final long position, final @NotNull ByteBuffer source) {
+        final int offset = (int) (position % capacity);
+        final int first = Math.min(source.remaining(), capacity - offset);
+        final ByteBuffer head = source.duplicate();
+        head.limit(head.position() + first);
+        target(offset).put(head);
+        source.position(source.position() + first);
+        if (source.hasRemaining()) {
+            target(0).put(source);
+        }
+    }
+
+    private void get(final long position, final byte @NotNull [] target) {
+        final int offset = (int) (position % capacity);
+        final int first = Math.min(target.length, capacity - offset);
+        target(offset).get(target, 0, first);
+        if (first < target.length) {
+            target(0).get(target, first, target.length - first);
+        }
+    }
+
+    private @NotNull ByteBuffer target(final int offset) {
+        final ByteBuffer view = buffer.duplicate();
+        view.position(HEADER_SIZE + offset);
+        return view;
+    }
+
+    /**
+     * Java 8 has no explicit fences. On HotSpot the volatile store and the volatile load of the same field keep the
+     * buffer accesses before them from being reordered with the buffer accesses after them, both by the JIT and by
+     * the CPU. Other JVMs aren't required to do so.
+     */
+    private void fence() {
+        fence = 1;
+        if (fence != 1) {
+            throw new IllegalStateException("Unreachable");
+        }
+    }
+}
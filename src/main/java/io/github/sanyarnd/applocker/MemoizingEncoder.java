@@ -0,0 +1,47 @@
+package io.github.sanyarnd.applocker;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Encoder which remembers the recently encoded ids.
+ *
+ * @author Alexander Biryukov
+ */
+final class MemoizingEncoder implements LockIdEncoder {
+    static final int DEFAULT_SIZE = 1024;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private final @NotNull LockIdEncoder encoder;
+    // guarded by itself, access order makes it LRU
+    private final @NotNull Map<String, String> cache;
+
+    MemoizingEncoder(final @NotNull LockIdEncoder idEncoder, final int maxSize) {
+        encoder = idEncoder;
+        cache = new LinkedHashMap<String, String>(maxSize, LOAD_FACTOR, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, String> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    @Override
+    public @NotNull String encode(final @NotNull String inputString) {
+        synchronized (cache) {
+            final String cached = cache.get(inputString);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        // encoded outside of the lock, concurrent misses just encode twice
+        final String encoded = encoder.encode(inputString);
+        synchronized (cache) {
+            cache.put(inputString, encoded);
+        }
+        return encoded;
+    }
+}
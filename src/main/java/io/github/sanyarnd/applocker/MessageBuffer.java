@@ -0,0 +1,59 @@
+package io.github.sanyarnd.applocker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Message serialized in exactly the same form as {@link Client} writes it to the socket.
+ *
+ * @author Alexander Biryukov
+ */
+final class MessageBuffer extends ByteArrayOutputStream {
+    // magic number and version
+    private static final int STREAM_HEADER_SIZE = 4;
+
+    private MessageBuffer() {
+    }
+
+    /**
+     * Serialize the message.
+     *
+     * @param message message
+     * @return serialized message
+     * @throws LockingException if message can't be serialized
+     */
+    static @NotNull MessageBuffer serialize(final @NotNull Serializable message) {
+        final MessageBuffer buffer = new MessageBuffer();
+        try (ObjectOutputStream output = new ObjectOutputStream(buffer)) {
+            output.writeObject(message);
+        } catch (IOException ex) {
+            throw new LockingException("Unable to serialize the message", ex);
+        }
+        return buffer;
+    }
+
+    /**
+     * View the content without copying it.
+     *
+     * @return read-only buffer
+     */
+    @NotNull ByteBuffer asByteBuffer() {
+        return ByteBuffer.wrap(buf, 0, count).asReadOnlyBuffer();
+    }
+
+    /**
+     * Write the message to the stream which has already got the object stream header and nothing else, the bytes are
+     * the same as {@link ObjectOutputStream#writeObject(Object)} would write there.
+     *
+     * @param output output stream
+     * @throws IOException if any I/O error occurs
+     */
+    void writeObjectTo(final @NotNull OutputStream output) throws IOException {
+        output.write(buf, STREAM_HEADER_SIZE, count - STREAM_HEADER_SIZE);
+    }
+}
@@ -0,0 +1,31 @@
+package io.github.sanyarnd.applocker;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Converts messages of the tagged route to bytes and back.
+ *
+ * <p>Both sides of the communication must use the same codec for the tag.
+ *
+ * @param <T> message type
+ * @author Alexander Biryukov
+ * @see MessageRoute#forTag(String, MessageCodec, MessageCodec, AsyncMessageHandler)
+ */
+public interface MessageCodec<T> {
+    /**
+     * Encode message.
+     *
+     * @param message message
+     * @return encoded message
+     */
+    byte @NotNull [] encode(@NotNull T message);
+
+    /**
+     * Decode message.
+     *
+     * @param data encoded message
+     * @return message
+     */
+    @NotNull
+    T decode(byte @NotNull [] data);
+}
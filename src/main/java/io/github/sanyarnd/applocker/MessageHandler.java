@@ -1,6 +1,8 @@
 package io.github.sanyarnd.applocker;
 
 import java.io.Serializable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import org.jetbrains.annotations.NotNull;
 
 /**
@@ -10,7 +12,7 @@
  * @param <O> answer type
  */
 @FunctionalInterface
-public interface MessageHandler<I extends Serializable, O extends Serializable> {
+public interface MessageHandler<I extends Serializable, O extends Serializable> extends AsyncMessageHandler<I, O> {
     /**
      * Handle the received message and return the result.
      *
@@ -19,4 +21,15 @@
      */
     @NotNull
     O handleMessage(@NotNull I message);
+
+    /**
+     * Synchronous handlers complete immediately on the server thread.
+     *
+     * @param message input message
+     * @return already completed stage
+     */
+    @Override
+    default @NotNull CompletionStage<O> handleMessageAsync(final @NotNull I message) {
+        return CompletableFuture.completedFuture(handleMessage(message));
+    }
 }
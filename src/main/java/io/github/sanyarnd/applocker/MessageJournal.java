@@ -0,0 +1,211 @@
+package io.github.sanyarnd.applocker;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import static java.lang.String.format;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Append-only memory-mapped journal of the messages sent while there was no lock holder.
+ *
+ * <p>File layout: the header with the write position and the checkpoint (position of the first message which isn't
+ * replayed yet), then length-prefixed serialized messages. Once everything is replayed, both positions are reset, so
+ * the file is reused from the beginning. The file size is fixed by the instance which has created it.
+ *
+ * <p>Every operation holds the file lock on the header, so senders and the holder in different processes never see
+ * the journal half-updated.
+ *
+ * <p>Delivery is at-least-once: the checkpoint is moved once the message is handled, so the message is replayed again
+ * by the next holder if the current one dies in between.
+ *
+ * @author Alexander Biryukov
+ */
+final class MessageJournal {
+    private static final Logger LOG = LoggerFactory.getLogger(MessageJournal.class);
+    private static final int HEADER_SIZE = 64;
+    private static final int WRITE_POSITION = 0;
+    private static final int CHECKPOINT = 8;
+    // file locks are held by the whole JVM, so threads of the same JVM must be serialized separately
+    private static final Lock JVM_LOCK = new ReentrantLock();
+
+    private final @NotNull Path file;
+    private final @NotNull FileChannel channel;
+    private final @NotNull MappedByteBuffer mapped;
+
+    private MessageJournal(
+        final @NotNull Path journalFile,
+        final @NotNull FileChannel fileChannel,
+        final @NotNull MappedByteBuffer buffer
+    ) {
+        file = journalFile;
+        channel = fileChannel;
+        mapped = buffer;
+    }
+
+    /**
+     * Open the journal, create it if it doesn't exist.
+     *
+     * @param file     journal file
+     * @param capacity capacity in bytes for the new journal
+     * @return journal
+     * @throws IOException if any I/O error occurs
+     */
+    static @NotNull MessageJournal open(final @NotNull Path file, final int capacity) throws IOException {
+        final FileChannel channel = FileChannel.open(file, CREATE, READ, WRITE);
+        try {
+            final long size = channel.size() > HEADER_SIZE ? channel.size() : HEADER_SIZE + (long) capacity;
+            return new MessageJournal(file, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Append the message unless the lock holder has become reachable.
+     *
+     * @param message   serialized message
+     * @param reachable checked under the journal lock, the holder publishes its port under the same lock
+     * @return true if the message is appended, false if it must be sent to the holder instead
+     * @throws IOException      if any I/O error occurs
+     * @throws LockingException if the journal is full
+     */
+    boolean appendIfUnreachable(final @NotNull MessageBuffer message, final @NotNull Check reachable)
+        throws IOException {
+        final FileLock lock = lock();
+        try {
+            if (reachable.test()) {
+                return false;
+            }
+            final long position = mapped.getLong(WRITE_POSITION);
+            final long next = position + Integer.BYTES + message.size();
+            if (next > mapped.capacity() - HEADER_SIZE) {
+                throw new LockingException(format("Message journal %s is full", file));
+            }
+            final ByteBuffer target = mapped.duplicate();
+            target.position(HEADER_SIZE + (int) position);
+            target.putInt(message.size());
+            target.put(message.asByteBuffer());
+            mapped.putLong(WRITE_POSITION, next);
+            mapped.force();
+            return true;
+        } finally {
+            unlock(lock);
+        }
+    }
+
+    /**
+     * Pass the journaled messages to the handler in order, the checkpoint is moved after every handled message, so
+     * only the message in progress is replayed again if the holder dies in the middle.<br> The journal lock isn't held
+     * while the handler runs, the senders keep appending to the journal meanwhile.
+     *
+     * @param handler message handler
+     * @param onEmpty called under the journal lock once the journal is empty, no message can be appended until it
+     *                returns
+     * @throws IOException          if any I/O error occurs
+     * @throws InterruptedException if the handler is interrupted, the message in progress stays in the journal
+     * @throws LockingException     if the handler fails, the replay stops there and the message stays in the journal
+     */
+    void replay(final @NotNull Replayer handler, final @NotNull Action onEmpty)
+        throws IOException, InterruptedException {
+        byte[] message = next(onEmpty);
+        while (message != null) {
+            handler.replay(message);
+            checkpoint(message.length);
+            message = next(onEmpty);
+        }
+    }
+
+    private byte @Nullable [] next(final @NotNull Action onEmpty) throws IOException {
+        final FileLock lock = lock();
+        try {
+            final long position = mapped.getLong(CHECKPOINT);
+            if (position >= mapped.getLong(WRITE_POSITION)) {
+                mapped.putLong(WRITE_POSITION, 0);
+                mapped.putLong(CHECKPOINT, 0);
+                mapped.force();
+                onEmpty.run();
+                return null;
+            }
+            final ByteBuffer source = mapped.duplicate();
+            source.position(HEADER_SIZE + (int) position);
+            final byte[] message = new byte[source.getInt()];
+            source.get(message);
+            return message;
+        } finally {
+            unlock(lock);
+        }
+    }
+
+    private void checkpoint(final int messageSize) throws IOException {
+        final FileLock lock = lock();
+        try {
+            mapped.putLong(CHECKPOINT, mapped.getLong(CHECKPOINT) + Integer.BYTES + messageSize);
+            mapped.force();
+        } finally {
+            unlock(lock);
+        }
+    }
+
+    private @NotNull FileLock lock() throws IOException {
+        JVM_LOCK.lock();
+        try {
+            return channel.lock(0, HEADER_SIZE, false);
+        } catch (IOException | RuntimeException ex) {
+            JVM_LOCK.unlock();
+            throw ex;
+        }
+    }
+
+    private static void unlock(final @NotNull FileLock lock) throws IOException {
+        try {
+            lock.release();
+        } finally {
+            JVM_LOCK.unlock();
+        }
+    }
+
+    void close() {
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            LOG.debug("Unable to close journal {}", file, ex);
+        }
+    }
+
+    /**
+     * Check performed under the journal lock.
+     */
+    @FunctionalInterface
+    interface Check {
+        boolean test() throws IOException;
+    }
+
+    /**
+     * Action performed under the journal lock.
+     */
+    @FunctionalInterface
+    interface Action {
+        void run() throws IOException;
+    }
+
+    /**
+     * Handler of the replayed message.
+     */
+    @FunctionalInterface
+    interface Replayer {
+        void replay(byte @NotNull [] message) throws InterruptedException;
+    }
+}
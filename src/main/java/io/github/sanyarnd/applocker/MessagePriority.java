@@ -0,0 +1,20 @@
+package io.github.sanyarnd.applocker;
+
+/**
+ * Lane of the lock holder's message server the message is handled in.
+ *
+ * @author Alexander Biryukov
+ * @see AppLocker#sendMessage(java.io.Serializable, MessagePriority)
+ * @see AppLocker.Builder#setPriorityLaneThreads(int)
+ */
+public enum MessagePriority {
+    /**
+     * Messages are handled one by one in the order they are received.
+     */
+    NORMAL,
+    /**
+     * Messages bypass the backlog of the normal messages and are handled by the separate pool of threads, e.g. for
+     * the control messages like "bring to front" or "shutdown".
+     */
+    HIGH
+}
@@ -0,0 +1,178 @@
+package io.github.sanyarnd.applocker;
+
+import java.io.Serializable;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import static java.lang.String.format;
+
+/**
+ * The route of the message router: a handler for the messages of the single type (or tag).
+ *
+ * <p>Routes are registered with {@link AppLocker.Builder#route(MessageRoute)}, the lock holder picks the route by
+ * the message class (the most specific registered superclass or interface wins) or by the tag of the message sent with
+ * {@link AppLocker#sendMessage(String, Serializable, MessageCodec, MessageCodec)}.
+ *
+ * @param <I> message type
+ * @param <O> answer type
+ * @author Alexander Biryukov
+ */
+public final class MessageRoute<I extends Serializable, O extends Serializable> {
+    private final @Nullable Class<I> type;
+    private final @Nullable String tag;
+    private final @Nullable MessageCodec<I> requestCodec;
+    private final @Nullable MessageCodec<O> responseCodec;
+    private final @NotNull AsyncMessageHandler<I, O> handler;
+    private final @NotNull RouteMetrics metrics = new RouteMetrics();
+    private final @NotNull AtomicInteger running = new AtomicInteger();
+    private final @NotNull Queue<Runnable> waiting = new ConcurrentLinkedQueue<>();
+    private volatile int maxConcurrency = Integer.MAX_VALUE;
+
+    private MessageRoute(
+        final @Nullable Class<I> messageType,
+        final @Nullable String messageTag,
+        final @Nullable MessageCodec<I> inCodec,
+        final @Nullable MessageCodec<O> outCodec,
+        final @NotNull AsyncMessageHandler<I, O> messageHandler
+    ) {
+        type = messageType;
+        tag = messageTag;
+        requestCodec = inCodec;
+        responseCodec = outCodec;
+        handler = messageHandler;
+    }
+
+    /**
+     * Create the route for the messages of the given class and its subclasses.
+     *
+     * @param type    message class
+     * @param handler message handler
+     * @param <I>     message type
+     * @param <O>     answer type
+     * @return route
+     */
+    public static @NotNull <I extends Serializable, O extends Serializable> MessageRoute<I, O> forType(
+        final @NotNull Class<I> type,
+        final @NotNull AsyncMessageHandler<I, O> handler
+    ) {
+        return new MessageRoute<>(type, null, null, null, handler);
+    }
+
+    /**
+     * Create the route for the tagged messages.<br> Messages and answers are transferred in the form encoded by the
+     * codecs, senders must use the same codecs.
+     *
+     * @param tag           message tag
+     * @param requestCodec  message codec
+     * @param responseCodec answer codec
+     * @param handler       message handler
+     * @param <I>           message type
+     * @param <O>           answer type
+     * @return route
+     */
+    public static @NotNull <I extends Serializable, O extends Serializable> MessageRoute<I, O> forTag(
+        final @NotNull String tag,
+        final @NotNull MessageCodec<I> requestCodec,
+        final @NotNull MessageCodec<O> responseCodec,
+        final @NotNull AsyncMessageHandler<I, O> handler
+    ) {
+        return new MessageRoute<>(null, tag, requestCodec, responseCodec, handler);
+    }
+
+    /**
+     * Sets the maximum number of messages handled by the route at the same time.<br> Messages above the limit wait
+     * in the queue without occupying any thread.<br> Default value is unlimited.
+     *
+     * @param limit concurrency limit
+     * @return route
+     */
+    public @NotNull MessageRoute<I, O> setMaxConcurrency(final int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Concurrency limit must be positive");
+        }
+        maxConcurrency = limit;
+        return this;
+    }
+
+    /**
+     * Get route counters.
+     *
+     * @return metrics
+     */
+    public @NotNull RouteMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Nullable Class<I> getType() {
+        return type;
+    }
+
+    @Nullable String getTag() {
+        return tag;
+    }
+
+    @NotNull CompletionStage<TaggedMessage> handleTagged(final @NotNull TaggedMessage message) {
+        if (requestCodec == null || responseCodec == null) {
+            throw new IllegalStateException("Route is not a tagged route");
+        }
+        final I decoded = requestCodec.decode(message.getPayload());
+        return handle(decoded).thenApply(answer -> new TaggedMessage(message.getTag(), responseCodec.encode(answer)));
+    }
+
+    @NotNull CompletionStage<O> handle(final @NotNull I message) {
+        final CompletableFuture<O> answer = new CompletableFuture<>();
+        metrics.onQueued();
+        waiting.add(() -> invoke(message, answer));
+        drain();
+        return answer;
+    }
+
+    private void drain() {
+        while (!waiting.isEmpty()) {
+            final int current = running.get();
+            if (current >= maxConcurrency) {
+                return;
+            }
+            if (running.compareAndSet(current, current + 1)) {
+                final Runnable next = waiting.poll();
+                if (next == null) {
+                    running.decrementAndGet();
+                } else {
+                    next.run();
+                }
+            }
+        }
+    }
+
+    private void invoke(final @NotNull I message, final @NotNull CompletableFuture<O> answer) {
+        metrics.onStarted();
+        final long start = System.nanoTime();
+        CompletionStage<O> stage;
+        try {
+            stage = handler.handleMessageAsync(message);
+        } catch (RuntimeException ex) {
+            final CompletableFuture<O> failed = new CompletableFuture<>();
+            failed.completeExceptionally(ex);
+            stage = failed;
+        }
+        stage.whenComplete((result, ex) -> {
+            metrics.onFinished(start, ex != null);
+            running.decrementAndGet();
+            if (ex != null) {
+                answer.completeExceptionally(ex);
+            } else {
+                answer.complete(result);
+            }
+            drain();
+        });
+    }
+
+    @Override
+    public String toString() {
+        return format("MessageRoute{type=%s, tag=%s, maxConcurrency=%d}", type, tag, maxConcurrency);
+    }
+}
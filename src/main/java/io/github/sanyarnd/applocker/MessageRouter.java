@@ -0,0 +1,103 @@
+package io.github.sanyarnd.applocker;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import static java.lang.String.format;
+
+/**
+ * Message handler which dispatches messages to the {@link MessageRoute}s.
+ *
+ * <p>The dispatch table is built once: routes are indexed by the exact class, the route for a subclass is resolved
+ * on the first message of that class and then cached per class.
+ *
+ * @author Alexander Biryukov
+ */
+final class MessageRouter implements AsyncMessageHandler<Serializable, Serializable> {
+    private final @NotNull Map<Class<?>, MessageRoute<?, ?>> typeRoutes;
+    private final @NotNull Map<String, MessageRoute<?, ?>> tagRoutes;
+    private final @Nullable AsyncMessageHandler<Serializable, Serializable> fallback;
+    private final @NotNull ClassValue<MessageRoute<?, ?>> dispatchTable = new ClassValue<MessageRoute<?, ?>>() {
+        @Override
+        protected @Nullable MessageRoute<?, ?> computeValue(final @NotNull Class<?> type) {
+            return resolve(type);
+        }
+    };
+
+    @SuppressWarnings("unchecked")
+    MessageRouter(
+        final @NotNull Collection<MessageRoute<?, ?>> routes,
+        final @Nullable AsyncMessageHandler<?, ?> fallbackHandler
+    ) {
+        final Map<Class<?>, MessageRoute<?, ?>> types = new HashMap<>();
+        final Map<String, MessageRoute<?, ?>> tags = new HashMap<>();
+        for (MessageRoute<?, ?> route : routes) {
+            final MessageRoute<?, ?> previous = route.getType() != null
+                ? types.put(route.getType(), route)
+                : tags.put(route.getTag(), route);
+            if (previous != null) {
+                throw new IllegalArgumentException(format("Duplicate routes %s and %s", previous, route));
+            }
+        }
+        typeRoutes = Collections.unmodifiableMap(types);
+        tagRoutes = Collections.unmodifiableMap(tags);
+        fallback = (AsyncMessageHandler<Serializable, Serializable>) fallbackHandler;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public @NotNull CompletionStage<Serializable> handleMessageAsync(final @NotNull Serializable message) {
+        if (message instanceof TaggedMessage) {
+            final TaggedMessage tagged = (TaggedMessage) message;
+            final MessageRoute<?, ?> route = tagRoutes.get(tagged.getTag());
+            if (route != null) {
+                return (CompletionStage<Serializable>) (CompletionStage<?>) route.handleTagged(tagged);
+            }
+        } else {
+            final MessageRoute<Serializable, ?> route =
+                (MessageRoute<Serializable, ?>) dispatchTable.get(message.getClass());
+            if (route != null) {
+                return (CompletionStage<Serializable>) route.handle(message);
+            }
+        }
+
+        if (fallback != null) {
+            return fallback.handleMessageAsync(message);
+        }
+        final CompletableFuture<Serializable> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IllegalArgumentException(format("No route for the message %s", message)));
+        return failed;
+    }
+
+    private @Nullable MessageRoute<?, ?> resolve(final @NotNull Class<?> type) {
+        // classes first, from the most specific to the least specific one
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            final MessageRoute<?, ?> route = typeRoutes.get(c);
+            if (route != null) {
+                return route;
+            }
+        }
+        // then interfaces in breadth-first order
+        final Deque<Class<?>> interfaces = new ArrayDeque<>();
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            Collections.addAll(interfaces, c.getInterfaces());
+        }
+        while (!interfaces.isEmpty()) {
+            final Class<?> c = interfaces.poll();
+            final MessageRoute<?, ?> route = typeRoutes.get(c);
+            if (route != null) {
+                return route;
+            }
+            Collections.addAll(interfaces, c.getInterfaces());
+        }
+        return null;
+    }
+}
@@ -0,0 +1,87 @@
+package io.github.sanyarnd.applocker;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * MurmurHash3 x64 128-bit string encoder.
+ * <br>
+ * Non-cryptographic, so ids can be crafted to collide on purpose, but accidental collisions of 128-bit hashes are
+ * negligible. The output is the same as of the other MurmurHash3 implementations with seed 0, e.g. Guava.
+ *
+ * @author Alexander Biryukov
+ */
+@SuppressWarnings("checkstyle:MagicNumber") // the algorithm constants
+final class Murmur3Encoder implements LockIdEncoder {
+    static final @NotNull Murmur3Encoder INSTANCE = new Murmur3Encoder();
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+    private static final int BLOCK_SIZE = 16;
+
+    private Murmur3Encoder() {
+    }
+
+    @Override
+    public @NotNull String encode(final @NotNull String inputString) {
+        final byte[] data = inputString.getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer blocks = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        long h1 = 0;
+        long h2 = 0;
+        final int tail = data.length - data.length % BLOCK_SIZE;
+        for (int i = 0; i < tail; i += BLOCK_SIZE) {
+            h1 ^= mixK1(blocks.getLong(i));
+            h1 = Long.rotateLeft(h1, 27) + h2;
+            h1 = h1 * 5 + 0x52dce729;
+            h2 ^= mixK2(blocks.getLong(i + Long.BYTES));
+            h2 = Long.rotateLeft(h2, 31) + h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        final int remaining = data.length - tail;
+        long k1 = 0;
+        long k2 = 0;
+        for (int i = remaining - 1; i >= Long.BYTES; i--) {
+            k2 ^= (data[tail + i] & 0xffL) << (i - Long.BYTES) * Byte.SIZE;
+        }
+        for (int i = Math.min(remaining, Long.BYTES) - 1; i >= 0; i--) {
+            k1 ^= (data[tail + i] & 0xffL) << i * Byte.SIZE;
+        }
+        if (remaining > Long.BYTES) {
+            h2 ^= mixK2(k2);
+        }
+        if (remaining > 0) {
+            h1 ^= mixK1(k1);
+        }
+
+        h1 ^= data.length;
+        h2 ^= data.length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 += h2;
+        h2 += h1;
+        return Hex.encode(ByteBuffer.allocate(BLOCK_SIZE).order(ByteOrder.LITTLE_ENDIAN)
+            .putLong(h1).putLong(h2).array());
+    }
+
+    private static long mixK1(final long k1) {
+        return Long.rotateLeft(k1 * C1, 31) * C2;
+    }
+
+    private static long mixK2(final long k2) {
+        return Long.rotateLeft(k2 * C2, 33) * C1;
+    }
+
+    private static long fmix(final long k) {
+        long h = k;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
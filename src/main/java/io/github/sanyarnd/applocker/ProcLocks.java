@@ -0,0 +1,91 @@
+package io.github.sanyarnd.applocker;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import static java.lang.String.format;
+
+/**
+ * Reader of the Linux {@code /proc/locks} table, which lists the file locks held in the system without touching them.
+ *
+ * @author Alexander Biryukov
+ */
+final class ProcLocks {
+    private static final Logger LOG = LoggerFactory.getLogger(ProcLocks.class);
+    private static final Path TABLE = Paths.get("/proc/locks");
+    private static final String WAITER_MARK = "->";
+    private static final int PID_COLUMN = 4;
+    private static final int FILE_COLUMN = 5;
+    // glibc gnu_dev_major/gnu_dev_minor
+    private static final int MAJOR_SHIFT = 8;
+    private static final long MAJOR_LOW_MASK = 0xfff;
+    private static final int MAJOR_HIGH_SHIFT = 32;
+    private static final long MAJOR_HIGH_MASK = 0xfffff000L;
+    private static final long MINOR_LOW_MASK = 0xff;
+    private static final int MINOR_HIGH_SHIFT = 12;
+    private static final long MINOR_HIGH_MASK = 0xffffff00L;
+
+    private ProcLocks() {
+    }
+
+    /**
+     * Read the lock holders.
+     *
+     * @return process ids by {@link #key(Path)} of the locked files, -1 for the locks not owned by a process
+     *     (OFD locks), null if the table is not available
+     */
+    static @Nullable Map<String, Long> read() {
+        if (!Files.isReadable(TABLE)) {
+            return null;
+        }
+        final List<String> lines;
+        try {
+            lines = Files.readAllLines(TABLE);
+        } catch (IOException ex) {
+            LOG.debug("Unable to read {}", TABLE, ex);
+            return null;
+        }
+        // 1: POSIX  ADVISORY  WRITE 11363 fe:00:12042255 0 EOF
+        final Map<String, Long> holders = new HashMap<>();
+        for (String line : lines) {
+            final String[] columns = line.trim().split("\\s+");
+            // waiters are listed right after the holder
+            if (columns.length > FILE_COLUMN && !WAITER_MARK.equals(columns[1])) {
+                try {
+                    holders.put(columns[FILE_COLUMN].toLowerCase(Locale.ROOT), Long.parseLong(columns[PID_COLUMN]));
+                } catch (NumberFormatException ex) {
+                    LOG.debug("Unexpected line in {}: {}", TABLE, line);
+                }
+            }
+        }
+        return holders;
+    }
+
+    /**
+     * Get the key of the file in the table: device and inode.
+     *
+     * @param file file
+     * @return key, null if the file doesn't exist or the attributes are not supported
+     */
+    static @Nullable String key(final @NotNull Path file) {
+        try {
+            final long device = (Long) Files.getAttribute(file, "unix:dev");
+            final long inode = (Long) Files.getAttribute(file, "unix:ino");
+            final long major = device >>> MAJOR_SHIFT & MAJOR_LOW_MASK | device >>> MAJOR_HIGH_SHIFT & MAJOR_HIGH_MASK;
+            final long minor = device & MINOR_LOW_MASK | device >>> MINOR_HIGH_SHIFT & MINOR_HIGH_MASK;
+            return format("%02x:%02x:%d", major, minor, inode);
+        } catch (IOException | UnsupportedOperationException | IllegalArgumentException ex) {
+            LOG.debug("Unable to get the device and inode of {}", file, ex);
+            return null;
+        }
+    }
+}
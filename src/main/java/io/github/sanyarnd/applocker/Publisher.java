@@ -0,0 +1,193 @@
+package io.github.sanyarnd.applocker;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Broadcasts events to the subscribed connections.
+ *
+ * <p>Every subscriber has its own bounded buffer, events are written to the socket by the shared pool of threads, so
+ * a slow subscriber neither blocks the publisher nor the other subscribers.
+ *
+ * @author Alexander Biryukov
+ */
+final class Publisher {
+    static final int DEFAULT_BUFFER_SIZE = 1024;
+    private static final Logger LOG = LoggerFactory.getLogger(Publisher.class);
+
+    private final int bufferSize;
+    private final @NotNull SlowSubscriberPolicy policy;
+    private final @NotNull Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final @NotNull LongAdder droppedEvents = new LongAdder();
+    private final @NotNull ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        final Thread t = new Thread(r, "AppLocker Publisher");
+        t.setDaemon(true);
+        return t;
+    });
+
+    Publisher(final int subscriberBufferSize, final @NotNull SlowSubscriberPolicy slowSubscriberPolicy) {
+        bufferSize = subscriberBufferSize;
+        policy = slowSubscriberPolicy;
+    }
+
+    /**
+     * Register the connection as a subscriber.
+     *
+     * @param channel subscriber connection
+     * @throws IOException if any I/O error occurs
+     */
+    void subscribe(final @NotNull SocketChannel channel) throws IOException {
+        final Subscriber subscriber = new Subscriber(channel);
+        subscribers.add(subscriber);
+        // stream header is flushed after registration, so subscriber won't miss the events published right after
+        subscriber.schedule();
+        LOG.debug("New subscriber localhost:{}", channel.socket().getPort());
+    }
+
+    /**
+     * Send the event to all subscribers.
+     *
+     * @param event event
+     * @return number of subscribers the event was queued for
+     */
+    int publish(final @NotNull Serializable event) {
+        int queued = 0;
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber.offer(event)) {
+                queued++;
+            }
+        }
+        return queued;
+    }
+
+    int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    long getDroppedEvents() {
+        return droppedEvents.sum();
+    }
+
+    /**
+     * Send the redirect to all subscribers after the events which are already buffered, each subscriber is dropped
+     * once its redirect is sent.
+     *
+     * @param port port of the new lock holder
+     */
+    void redirectAll(final int port) {
+        final SubscriberRedirect redirect = new SubscriberRedirect(port);
+        for (Subscriber subscriber : subscribers) {
+            subscriber.redirect(redirect);
+        }
+    }
+
+    /**
+     * Drop all subscribers.
+     */
+    void closeAll() {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.close();
+        }
+    }
+
+    void shutdown() {
+        closeAll();
+        executor.shutdown();
+    }
+
+    private final class Subscriber {
+        private final @NotNull SocketChannel channel;
+        private final @NotNull ObjectOutputStream output;
+        private final @NotNull Queue<Serializable> buffer = new ArrayBlockingQueue<>(bufferSize);
+        private final @NotNull AtomicBoolean scheduled = new AtomicBoolean();
+
+        private Subscriber(final @NotNull SocketChannel connection) throws IOException {
+            channel = connection;
+            output = new ObjectOutputStream(new BufferedOutputStream(connection.socket().getOutputStream()));
+        }
+
+        private boolean offer(final @NotNull Serializable event) {
+            boolean queued = buffer.offer(event);
+            while (!queued) {
+                droppedEvents.increment();
+                if (policy == SlowSubscriberPolicy.DROP_NEWEST) {
+                    return false;
+                }
+                if (policy == SlowSubscriberPolicy.DISCONNECT) {
+                    LOG.warn("Subscriber localhost:{} is too slow, disconnecting", channel.socket().getPort());
+                    close();
+                    return false;
+                }
+                buffer.poll();
+                queued = buffer.offer(event);
+            }
+            schedule();
+            return true;
+        }
+
+        private void redirect(final @NotNull SubscriberRedirect redirect) {
+            // redirect must not be dropped, whatever the policy is
+            while (!buffer.offer(redirect)) {
+                buffer.poll();
+                droppedEvents.increment();
+            }
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                executor.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            boolean open = true;
+            try {
+                Serializable event = buffer.poll();
+                while (event != null && open) {
+                    output.writeObject(event);
+                    // nothing is sent after the redirect
+                    open = !(event instanceof SubscriberRedirect);
+                    // don't keep references to the sent events
+                    output.reset();
+                    event = buffer.poll();
+                }
+                output.flush();
+            } catch (IOException ex) {
+                LOG.debug("Subscriber localhost:{} is gone", channel.socket().getPort(), ex);
+                open = false;
+            } finally {
+                scheduled.set(false);
+            }
+            if (!open) {
+                close();
+            } else if (!buffer.isEmpty()) {
+                schedule();
+            }
+        }
+
+        private void close() {
+            subscribers.remove(this);
+            buffer.clear();
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                LOG.debug("Unable to close subscriber connection", ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package io.github.sanyarnd.applocker;
+
+import java.io.Serializable;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import static java.lang.String.format;
+
+/**
+ * The answer of the lock holder which doesn't handle the messages, e.g. has the stream handler only.
+ *
+ * @author Alexander Biryukov
+ */
+final class RejectedMessage implements Serializable {
+    static final RejectedMessage NO_MESSAGE_HANDLER = new RejectedMessage("message handler is not set");
+    private static final long serialVersionUID = 1L;
+
+    private final @NotNull String reason;
+
+    private RejectedMessage(final @NotNull String rejectReason) {
+        reason = rejectReason;
+    }
+
+    /**
+     * Check the answer got from the lock holder.
+     *
+     * @param answer answer
+     * @throws LockingException if the message is rejected
+     */
+    static void check(final @Nullable Object answer) {
+        if (answer instanceof RejectedMessage) {
+            throw new LockingException(format("Message is rejected by the lock holder, %s",
+                ((RejectedMessage) answer).reason));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return format("RejectedMessage{reason=%s}", reason);
+    }
+}
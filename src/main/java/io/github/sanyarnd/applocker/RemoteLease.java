@@ -0,0 +1,189 @@
+package io.github.sanyarnd.applocker;
+
+import java.net.InetSocketAddress;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import static java.lang.String.format;
+
+/**
+ * Lease taken from the {@link LockService}, it's renewed in background until released.
+ *
+ * <p>If renewal fails (the service is unreachable longer than the lease time-to-live, or the lease has expired), the
+ * lease is considered lost: other hosts may have already taken it.
+ *
+ * <p>Renewals are only scheduled by the shared thread and run on their own threads, so the leases of the stalled
+ * service don't delay the others. The renewal doesn't hold the lease monitor while waiting for the answer.
+ *
+ * @author Alexander Biryukov
+ */
+final class RemoteLease {
+    private static final Logger LOG = LoggerFactory.getLogger(RemoteLease.class);
+    private static final int RENEWALS_PER_TTL = 3;
+    private static final ScheduledExecutorService RENEWER = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread t = new Thread(r, "AppLocker LeaseScheduler");
+        t.setDaemon(true);
+        return t;
+    });
+    private static final ExecutorService RENEWALS = Executors.newCachedThreadPool(r -> {
+        final Thread t = new Thread(r, "AppLocker LeaseRenewal");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final @NotNull InetSocketAddress address;
+    private final @NotNull String name;
+    private final @NotNull String owner = UUID.randomUUID().toString();
+    private final long ttlMs;
+    private final @NotNull AtomicBoolean renewing = new AtomicBoolean();
+    private @Nullable LockServiceClient client;
+    private @Nullable ScheduledFuture<?> renewal;
+    private volatile boolean held;
+    private volatile long token;
+    // System.nanoTime() of the last granted request was sent at, the service counts TTL from a later moment
+    private volatile long grantedAt;
+
+    RemoteLease(
+        final @NotNull InetSocketAddress serviceAddress,
+        final @NotNull String leaseName,
+        final long leaseTtlMs
+    ) {
+        address = serviceAddress;
+        name = leaseName;
+        ttlMs = leaseTtlMs;
+    }
+
+    /**
+     * Take the lease and start renewing it.
+     *
+     * @return fencing token of the lease
+     * @throws LockingBusyException if the lease is owned by someone else
+     * @throws LockingException     if the service is not reachable
+     */
+    synchronized long acquire() {
+        final long sentAt = System.nanoTime();
+        final LockServiceClient.Answer answer = getClient().call(LeaseOperation.ACQUIRE, name, owner, 0, ttlMs);
+        if (answer.getStatus() != LeaseStatus.GRANTED) {
+            throw new LockingBusyException(format("Lease '%s' is owned by another host", name), null);
+        }
+        token = answer.getToken();
+        grantedAt = sentAt;
+        held = true;
+        final long period = Math.max(1, ttlMs / RENEWALS_PER_TTL);
+        renewal = RENEWER.scheduleAtFixedRate(this::scheduleRenewal, period, period, TimeUnit.MILLISECONDS);
+        LOG.debug("Lease '{}' is acquired, token {}", name, token);
+        return token;
+    }
+
+    /**
+     * Check that the lease hasn't been lost.
+     * <br>
+     * The lease is considered lost once its time-to-live has passed since the last successful renewal, even if the
+     * service hasn't answered yet.
+     *
+     * @return true if the lease is held
+     */
+    boolean isHeld() {
+        return held && System.nanoTime() - grantedAt < TimeUnit.MILLISECONDS.toNanos(ttlMs);
+    }
+
+    long getToken() {
+        return token;
+    }
+
+    /**
+     * Stop renewing and give the lease up, it will expire anyway if the service is not reachable.
+     */
+    synchronized void release() {
+        final boolean wasHeld = held;
+        held = false;
+        cancelRenewal();
+        if (!wasHeld) {
+            return;
+        }
+        try {
+            getClient().call(LeaseOperation.RELEASE, name, owner, token, ttlMs);
+        } catch (LockingException ex) {
+            LOG.debug("Unable to release lease '{}', it will expire", name, ex);
+        }
+    }
+
+    /**
+     * Release the lease and close the connection.
+     */
+    synchronized void close() {
+        release();
+        if (client != null) {
+            client.close();
+            client = null;
+        }
+    }
+
+    private void scheduleRenewal() {
+        // the renewal which hasn't got the answer yet is not doubled
+        if (renewing.compareAndSet(false, true)) {
+            RENEWALS.execute(() -> {
+                try {
+                    renew();
+                } finally {
+                    renewing.set(false);
+                }
+            });
+        }
+    }
+
+    private void renew() {
+        final long sentAt = System.nanoTime();
+        try {
+            final LockServiceClient current;
+            final long leaseToken;
+            synchronized (this) {
+                if (!held) {
+                    return;
+                }
+                current = getClient();
+                leaseToken = token;
+            }
+            final LockServiceClient.Answer answer = current.call(LeaseOperation.RENEW, name, owner, leaseToken,
+                ttlMs);
+            synchronized (this) {
+                if (!held || token != leaseToken) {
+                    // released in the meantime
+                    return;
+                }
+                if (answer.getStatus() == LeaseStatus.GRANTED) {
+                    grantedAt = sentAt;
+                } else {
+                    LOG.warn("Lease '{}' is lost", name);
+                    held = false;
+                    cancelRenewal();
+                }
+            }
+        } catch (LockingException ex) {
+            // the lease may still be alive, next renewal will tell
+            LOG.debug("Unable to renew lease '{}'", name, ex);
+        }
+    }
+
+    private void cancelRenewal() {
+        if (renewal != null) {
+            renewal.cancel(false);
+            renewal = null;
+        }
+    }
+
+    private @NotNull LockServiceClient getClient() {
+        if (client == null || client.isClosed()) {
+            client = LockServiceClient.connect(address, ttlMs);
+        }
+        return client;
+    }
+}
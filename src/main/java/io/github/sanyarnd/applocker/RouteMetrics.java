@@ -0,0 +1,90 @@
+package io.github.sanyarnd.applocker;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import static java.lang.String.format;
+
+/**
+ * Counters of the single {@link MessageRoute}.
+ *
+ * @author Alexander Biryukov
+ */
+public final class RouteMetrics {
+    private final LongAdder invocations = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder totalTimeNanos = new LongAdder();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+
+    RouteMetrics() {
+    }
+
+    /**
+     * Number of handler invocations.
+     *
+     * @return invocations count
+     */
+    public long getInvocations() {
+        return invocations.sum();
+    }
+
+    /**
+     * Number of handler invocations which have finished with an exception.
+     *
+     * @return failures count
+     */
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    /**
+     * Total time spent in the handler by all finished invocations.
+     *
+     * @return time in nanoseconds
+     */
+    public long getTotalTimeNanos() {
+        return totalTimeNanos.sum();
+    }
+
+    /**
+     * Number of messages which are being handled right now.
+     *
+     * @return in-flight messages count
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Number of messages which are waiting because of the route concurrency limit.
+     *
+     * @return queued messages count
+     */
+    public int getQueued() {
+        return queued.get();
+    }
+
+    void onQueued() {
+        queued.incrementAndGet();
+    }
+
+    void onStarted() {
+        queued.decrementAndGet();
+        inFlight.incrementAndGet();
+        invocations.increment();
+    }
+
+    void onFinished(final long startNanos, final boolean failed) {
+        inFlight.decrementAndGet();
+        totalTimeNanos.add(System.nanoTime() - startNanos);
+        if (failed) {
+            failures.increment();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return format("RouteMetrics{invocations=%d, failures=%d, inFlight=%d, queued=%d, totalTimeNanos=%d}",
+            getInvocations(), getFailures(), getInFlight(), getQueued(), getTotalTimeNanos());
+    }
+}
@@ -0,0 +1,131 @@
+package io.github.sanyarnd.applocker;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.UUID;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import static java.lang.String.format;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.DELETE_ON_CLOSE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Selects the per-user RAM-backed lock directory, so the lock cycles don't touch the disk-backed metadata.
+ * <br>
+ * The directory is {@code /dev/shm/applocker-<uid>}, it depends on the user id only, so all instances of the user
+ * get the same directory whatever their environment is. If it's not usable, there's no fallback: the instances which
+ * would fall back to the other directory wouldn't see each other's locks.
+ *
+ * @author Alexander Biryukov
+ */
+final class RuntimeDirectory {
+    private static final Logger LOG = LoggerFactory.getLogger(RuntimeDirectory.class);
+    private static final String PREFIX = "applocker-";
+    private static final Path SHARED_MEMORY = Paths.get("/dev/shm");
+    // owned by the effective user of the process
+    private static final Path SELF = Paths.get("/proc/self");
+    private static final String UID = "unix:uid";
+    private static final String OWNER_ONLY = "rwx------";
+
+    private RuntimeDirectory() {
+    }
+
+    /**
+     * Get the lock directory of the current user, selected once per process.
+     *
+     * @return lock directory
+     * @throws LockingException if there's no usable directory, the reason is logged once
+     */
+    static @NotNull Path get() {
+        if (Holder.SELECTED == null) {
+            throw new LockingException(format("%s is not usable, set the lock directory explicitly",
+                SHARED_MEMORY.resolve(PREFIX + "<uid>")));
+        }
+        return Holder.SELECTED;
+    }
+
+    /**
+     * Get the user id of the file owner.
+     *
+     * @param file file
+     * @return user id
+     * @throws IOException if any I/O error occurs
+     */
+    static int uid(final @NotNull Path file) throws IOException {
+        return (Integer) Files.getAttribute(file, UID, LinkOption.NOFOLLOW_LINKS);
+    }
+
+    /**
+     * Prepare the lock directory.
+     *
+     * @param sharedMemory shared memory mount point
+     * @param uid          user id
+     * @return lock directory, null if it's not usable
+     */
+    static @Nullable Path select(final @NotNull Path sharedMemory, final int uid) {
+        if (!Files.isDirectory(sharedMemory)) {
+            LOG.warn("{} doesn't exist, runtime directory is not available", sharedMemory);
+            return null;
+        }
+        // world-writable, anyone can create the directory in advance
+        final Path directory = sharedMemory.resolve(PREFIX + uid);
+        try {
+            create(directory);
+            if (!Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS) || uid(directory) != uid) {
+                LOG.warn("{} is not a directory owned by uid {}", directory, uid);
+                return null;
+            }
+            probe(directory);
+            return directory;
+        } catch (IOException | UnsupportedOperationException | IllegalArgumentException ex) {
+            LOG.warn("{} is not usable as the lock directory", directory, ex);
+            return null;
+        }
+    }
+
+    private static void create(final @NotNull Path directory) throws IOException {
+        try {
+            Files.createDirectory(directory,
+                PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString(OWNER_ONLY)));
+        } catch (FileAlreadyExistsException ex) {
+            // checked by the caller
+        }
+    }
+
+    private static void probe(final @NotNull Path directory) throws IOException {
+        // some file systems (e.g. FUSE) accept the open, but don't support the locks
+        final Path file = directory.resolve(".probe-" + UUID.randomUUID());
+        try (FileChannel channel = FileChannel.open(file, CREATE_NEW, READ, WRITE, DELETE_ON_CLOSE);
+             FileLock lock = channel.tryLock()) {
+            if (lock == null) {
+                throw new IOException("Probe file " + file + " is locked by someone else");
+            }
+        }
+    }
+
+    private static @Nullable Path selectForCurrentUser() {
+        final int uid;
+        try {
+            uid = uid(SELF.toRealPath());
+        } catch (IOException | UnsupportedOperationException | IllegalArgumentException ex) {
+            LOG.warn("Unable to get the user id, runtime directory is not available", ex);
+            return null;
+        }
+        return select(SHARED_MEMORY, uid);
+    }
+
+    private static final class Holder {
+        private static final @Nullable Path SELECTED = selectForCurrentUser();
+    }
+}
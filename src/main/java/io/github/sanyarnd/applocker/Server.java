@@ -1,17 +1,38 @@
 package io.github.sanyarnd.applocker;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.InputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.ObjectStreamConstants;
+import java.io.PushbackInputStream;
 import java.io.Serializable;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
@@ -26,21 +47,131 @@
  * @author Alexander Biryukov
  */
 final class Server<I extends Serializable, O extends Serializable> implements AutoCloseable {
+    static final int COMPRESSION_DISABLED = -1;
+    static final long DEFAULT_REPLAY_TIMEOUT_MS = 10_000;
+    // local clients send the handshake right after the type, a stalled one must not keep the thread forever
+    static final int HANDSHAKE_TIMEOUT_MS = 5_000;
     private static final Logger LOG = LoggerFactory.getLogger(Server.class);
-    private static final int PORT_SLEEP_TIMEOUT_MS = 10;
+    // awaitSuccessor and awaitIdle poll interval
+    private static final int POLL_INTERVAL_MS = 10;
+    // 1.2.x clients send nothing until they get the stream header
+    private static final int LEGACY_CLIENT_TIMEOUT_MS = 250;
+    private static final int NO_CONNECTION_TYPE = -1;
+    // the first byte sent by 1.2.x clients, connection type codes never match it
+    private static final int STREAM_MAGIC_START = (ObjectStreamConstants.STREAM_MAGIC >> Byte.SIZE) & 0xFF;
+    private static final String SPILL_NAME_PATTERN = ".%s.spill";
+    private static final byte[] FAILED_RESPONSE = new byte[0];
+    private static final String DESERIALIZATION_ERROR = "Error during deserialization";
+    private static final String MESSAGE_REJECTED = "Incoming message is rejected, message handler is not set";
 
-    private final @NotNull MessageHandler<I, O> messageHandler;
+    private final @Nullable AsyncMessageHandler<I, O> messageHandler;
+    private final int compressAnswersFrom;
+    private final @Nullable StreamMessageHandler streamHandler;
+    private final @Nullable Path spillDirectory;
+    private final @NotNull Publisher publisher;
     private final @NotNull ExecutorService executor;
+    private final @NotNull ExecutorService handshakeExecutor;
+    private final @NotNull ExecutorService messageExecutor;
+    private final @NotNull ExecutorService priorityExecutor;
+    private final @Nullable ExecutorService streamExecutor;
+    private final @Nullable ExecutorService sharedMemoryExecutor;
+    private final @NotNull ExecutorService framedExecutor;
+    private final @NotNull Set<SocketChannel> pendingConnections = ConcurrentHashMap.newKeySet();
+    private final @NotNull Set<SharedMemoryChannel> sharedMemoryChannels = ConcurrentHashMap.newKeySet();
+    private final @NotNull Map<String, Integer> successors = new ConcurrentHashMap<>();
+    private final @NotNull AtomicInteger inFlight = new AtomicInteger();
     private @Nullable Future<?> threadHandle;
     private @Nullable ServerLoop runnable;
 
-    Server(final @NotNull MessageHandler<I, O> handler) {
+    Server(final @NotNull AsyncMessageHandler<I, O> handler) {
+        this(handler, null, null, new Publisher(Publisher.DEFAULT_BUFFER_SIZE, SlowSubscriberPolicy.DROP_OLDEST));
+    }
+
+    Server(final @NotNull AsyncMessageHandler<I, O> handler, final @Nullable StreamMessageHandler streamHandler) {
+        this(handler, streamHandler, null,
+            new Publisher(Publisher.DEFAULT_BUFFER_SIZE, SlowSubscriberPolicy.DROP_OLDEST));
+    }
+
+    /**
+     * Create message server.
+     *
+     * @param handler              message handler
+     * @param streamMessageHandler stream handler, nullable
+     * @param lockDirectory        directory with the spill files of large messages and shared memory channels,
+     *                             nullable
+     * @param eventPublisher       publisher of the events to the subscribers
+     */
+    Server(
+        final @NotNull AsyncMessageHandler<I, O> handler,
+        final @Nullable StreamMessageHandler streamMessageHandler,
+        final @Nullable Path lockDirectory,
+        final @NotNull Publisher eventPublisher
+    ) {
+        this(handler, streamMessageHandler, lockDirectory, eventPublisher, 1, COMPRESSION_DISABLED);
+    }
+
+    /**
+     * Create message server.
+     *
+     * @param handler              message handler, nullable: the messages are rejected then
+     * @param streamMessageHandler stream handler, nullable
+     * @param lockDirectory        directory with the spill files of large messages and shared memory channels,
+     *                             nullable
+     * @param eventPublisher       publisher of the events to the subscribers
+     * @param priorityThreads      number of threads handling {@link MessagePriority#HIGH high priority} messages
+     * @param compressionThreshold size of the serialized answer, starting from which it's compressed for the clients
+     *                             which accept compression, {@link #COMPRESSION_DISABLED} to disable
+     */
+    Server(
+        final @Nullable AsyncMessageHandler<I, O> handler,
+        final @Nullable StreamMessageHandler streamMessageHandler,
+        final @Nullable Path lockDirectory,
+        final @NotNull Publisher eventPublisher,
+        final int priorityThreads,
+        final int compressionThreshold
+    ) {
+        publisher = eventPublisher;
         messageHandler = handler;
+        compressAnswersFrom = compressionThreshold;
+        streamHandler = streamMessageHandler;
+        spillDirectory = lockDirectory == null ? null : lockDirectory.toAbsolutePath().normalize();
         executor = Executors.newSingleThreadExecutor(r -> {
             final Thread t = new Thread(r, "AppLocker MessageServer");
             t.setDaemon(true);
             return t;
         });
+        // reads the connection type, so a silent client doesn't hold up accepting the others
+        handshakeExecutor = Executors.newCachedThreadPool(r -> {
+            final Thread t = new Thread(r, "AppLocker Handshake");
+            t.setDaemon(true);
+            return t;
+        });
+        // a single thread keeps the normal messages in order
+        messageExecutor = Executors.newSingleThreadExecutor(r -> {
+            final Thread t = new Thread(r, "AppLocker MessageLane");
+            t.setDaemon(true);
+            return t;
+        });
+        priorityExecutor = Executors.newFixedThreadPool(priorityThreads, r -> {
+            final Thread t = new Thread(r, "AppLocker PriorityLane");
+            t.setDaemon(true);
+            return t;
+        });
+        streamExecutor = streamMessageHandler == null ? null : Executors.newCachedThreadPool(r -> {
+            final Thread t = new Thread(r, "AppLocker StreamHandler");
+            t.setDaemon(true);
+            return t;
+        });
+        framedExecutor = Executors.newCachedThreadPool(r -> {
+            final Thread t = new Thread(r, "AppLocker Framed");
+            t.setDaemon(true);
+            return t;
+        });
+        sharedMemoryExecutor = spillDirectory == null ? null : Executors.newCachedThreadPool(r -> {
+            final Thread t = new Thread(r, "AppLocker SharedMemory");
+            t.setDaemon(true);
+            return t;
+        });
     }
 
     void start() {
@@ -49,16 +180,55 @@ void start() {
             throw new LockingException("The server is already running");
         }
 
-        runnable = new ServerLoop();
-        threadHandle = executor.submit(runnable);
+        final ServerLoop loop;
+        try {
+            // bound right away, so the port can be published without waiting for the accept loop to start
+            loop = new ServerLoop(bind());
+        } catch (IOException ex) {
+            throw new LockingException("Unable to open message server socket", ex);
+        }
+        runnable = loop;
+        threadHandle = executor.submit(loop);
 
         LOG.debug("Message server initialized");
     }
 
+    private static @NotNull ServerSocketChannel bind() throws IOException {
+        // use a socket channel, because it'll throw ClosedByInterruptException on interrupt
+        final ServerSocketChannel socket = ServerSocketChannel.open();
+        try {
+            socket.socket().setReuseAddress(true);
+            socket.bind(new InetSocketAddress(0));
+            return socket;
+        } catch (IOException ex) {
+            socket.close();
+            throw ex;
+        }
+    }
+
+    boolean isRunning() {
+        return threadHandle != null;
+    }
+
+    boolean hasMessageHandler() {
+        return messageHandler != null;
+    }
+
     @Override
     public void close() {
         stop();
+        publisher.shutdown();
         executor.shutdown();
+        handshakeExecutor.shutdown();
+        messageExecutor.shutdown();
+        priorityExecutor.shutdown();
+        if (streamExecutor != null) {
+            streamExecutor.shutdown();
+        }
+        framedExecutor.shutdown();
+        if (sharedMemoryExecutor != null) {
+            sharedMemoryExecutor.shutdown();
+        }
     }
 
     public void stop() {
@@ -67,12 +237,145 @@ public void stop() {
         if (threadHandle != null) {
             threadHandle.cancel(true);
         }
+        if (runnable != null) {
+            // the loop might not have started yet, so it can't be relied on to close the socket
+            runnable.close();
+        }
+        // shared memory clients check the flag before sending, so nothing is accepted after the stop
+        for (SharedMemoryChannel memory : sharedMemoryChannels) {
+            memory.close();
+        }
+        sharedMemoryChannels.clear();
+        // drop the connections which are still waiting for the answer, senders will get an I/O error
+        for (SocketChannel channel : pendingConnections) {
+            closeQuietly(channel);
+        }
+        pendingConnections.clear();
+        publisher.closeAll();
+        successors.clear();
 
         threadHandle = null;
         runnable = null;
         LOG.debug("Message server stopped");
     }
 
+    /**
+     * Send the event to all subscribers.
+     *
+     * @param event event
+     * @return number of subscribers the event was queued for
+     */
+    int publish(final @NotNull Serializable event) {
+        return publisher.publish(event);
+    }
+
+    /**
+     * Handle the journaled message, the answer is dropped since the sender isn't waiting for it.<br> Blocks until the
+     * message is handled or the timeout has passed, so the journal is replayed in order.
+     *
+     * @param message   serialized message
+     * @param timeoutMs timeout in milliseconds, the handler isn't interrupted afterwards
+     * @throws LockingException     if the message can't be deserialized, handled or the handler is too slow
+     * @throws InterruptedException if the thread is interrupted while waiting for the handler
+     */
+    @SuppressWarnings("unchecked")
+    void replay(final byte @NotNull [] message, final long timeoutMs) throws InterruptedException {
+        final I decoded;
+        try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(message))) {
+            decoded = (I) input.readObject();
+        } catch (IOException | ClassNotFoundException ex) {
+            throw new LockingException("Unable to deserialize journaled message", ex);
+        }
+        LOG.debug("Replaying journaled message: {}", decoded);
+        if (messageHandler == null) {
+            throw new LockingException("Unable to handle journaled message, message handler is not set");
+        }
+        try {
+            messageHandler.handleMessageAsync(decoded).toCompletableFuture()
+                .get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (RuntimeException ex) {
+            // synchronous handlers throw right away
+            throw new LockingException("Unable to handle journaled message", ex);
+        } catch (ExecutionException ex) {
+            throw new LockingException("Unable to handle journaled message", ex.getCause());
+        } catch (TimeoutException ex) {
+            throw new LockingException(format("Journaled message is not handled in %dms", timeoutMs), ex);
+        }
+    }
+
+    /**
+     * Close the server socket after the connections which are already accepted are dispatched.<br> Unlike
+     * {@link #stop()}, it doesn't interrupt reading the message, the connections that aren't accepted yet are reset
+     * before the client gets the stream header, so the client knows the message hasn't been received.
+     *
+     * @param timeoutMs timeout in milliseconds
+     */
+    void stopAccepting(final long timeoutMs) throws InterruptedException {
+        final ServerLoop loop = runnable;
+        final Future<?> handle = threadHandle;
+        if (loop == null || handle == null) {
+            return;
+        }
+        loop.accepting = false;
+        // accept() can't be woken up without interrupting, so connect to it
+        try (Socket wakeUp = new Socket(InetAddress.getLocalHost(), loop.port)) {
+            LOG.debug("Waking up message server from {}", wakeUp.getLocalPort());
+        } catch (IOException ex) {
+            LOG.debug("Unable to wake up message server", ex);
+        }
+        try {
+            handle.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException ex) {
+            LOG.debug("Message server hasn't stopped gracefully", ex);
+        }
+    }
+
+    /**
+     * Tell the subscribers to re-subscribe to the new lock holder.
+     *
+     * @param port port of the new lock holder
+     */
+    void redirectSubscribers(final int port) {
+        publisher.redirectAll(port);
+    }
+
+    /**
+     * Wait for the successor with the given name to register.
+     *
+     * @param name      successor name
+     * @param timeoutMs timeout in milliseconds
+     * @return port of the successor's message server
+     * @throws LockingException if the successor hasn't registered in time
+     */
+    int awaitSuccessor(final @NotNull String name, final long timeoutMs) throws InterruptedException {
+        final long start = System.currentTimeMillis();
+        while (System.currentTimeMillis() - timeoutMs <= start) {
+            final Integer port = successors.get(name);
+            if (port != null) {
+                return port;
+            }
+            Thread.sleep(POLL_INTERVAL_MS);
+        }
+        throw new LockingException(format("Successor '%s' hasn't registered in %dms", name, timeoutMs));
+    }
+
+    /**
+     * Wait until all the accepted messages and streams are answered.
+     *
+     * @param timeoutMs timeout in milliseconds
+     * @return true if there's nothing in flight
+     */
+    boolean awaitIdle(final long timeoutMs) throws InterruptedException {
+        final long start = System.currentTimeMillis();
+        while (inFlight.get() > 0) {
+            if (System.currentTimeMillis() - timeoutMs > start) {
+                return false;
+            }
+            Thread.sleep(POLL_INTERVAL_MS);
+        }
+        return true;
+    }
+
     /**
      * Get server's socket port.
      *
@@ -84,82 +387,556 @@ int tryGetPort() {
         if (threadHandle != null && threadHandle.isDone()) {
             throw new LockingException("Server is in exception state for some reason");
         }
-        if (runnable == null || runnable.port == -1) {
+        if (runnable == null) {
             throw new LockingException("Message server is not running");
         }
         LOG.debug("Retrieved server port number: {}", runnable.port);
         return runnable.port;
     }
 
-    /**
-     * Blocking version of {@link #tryGetPort()} ()}, ignores {@link LockingException} and tries to retrieve the
-     * port number.
-     * This method is useful for situations where you need to retrieve the port number right after the start
-     *
-     * @param timeoutMs timeout in milliseconds
-     * @return port number
-     * @throws LockingException if a message server is not running or server is in exception state
-     */
-    int getPort(final long timeoutMs) throws InterruptedException {
-        final long start = System.currentTimeMillis();
-        while (System.currentTimeMillis() - timeoutMs <= start) {
-            try {
-                return tryGetPort();
-            } catch (LockingException ignored) {
-                Thread.sleep(PORT_SLEEP_TIMEOUT_MS);
-            }
+    private static void closeQuietly(final @NotNull SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            LOG.debug("Unable to close connection", ex);
         }
-        throw new LockingException(format("Lock attempt timeout=%dms exceeded", timeoutMs));
     }
 
     final class ServerLoop implements Runnable {
-        private volatile int port = -1;
+        private final @NotNull ServerSocketChannel serverSocket;
+        private final int port;
+        private volatile boolean accepting = true;
+
+        private ServerLoop(final @NotNull ServerSocketChannel socket) {
+            serverSocket = socket;
+            port = socket.socket().getLocalPort();
+        }
 
         @Override
         public void run() {
-            LOG.debug("Opening message server port");
-            // use a socket channel, because it'll throw ClosedByInterruptException on interrupt
-            try (ServerSocketChannel socket = ServerSocketChannel.open();
-                 ServerSocket realSocket = socket.socket()) {
-                realSocket.setReuseAddress(true);
-                realSocket.bind(new InetSocketAddress(0));
-                port = realSocket.getLocalPort();
-                socket.configureBlocking(true);
-
-                LOG.info("Staring message server on localhost:{}", port);
-
-                while (!Thread.currentThread().isInterrupted()) {
+            LOG.info("Staring message server on localhost:{}", port);
+            try (ServerSocketChannel socket = serverSocket) {
+                while (accepting && !Thread.currentThread().isInterrupted()) {
                     run0(socket);
                 }
+            } catch (ClosedChannelException ex) {
+                LOG.debug("Message server socket is closed", ex);
             } catch (IOException ex) {
                 // something wrong happened with socket
-                LOG.error("Cannot initialize the socket", ex);
+                LOG.error("Message server socket has failed", ex);
                 throw new RuntimeException(ex);
             }
         }
 
+        private void close() {
+            try {
+                serverSocket.close();
+            } catch (IOException ex) {
+                LOG.debug("Unable to close message server socket", ex);
+            }
+        }
+
+        /**
+         * Read the {@link ConnectionType} code, which 1.2.x clients don't send: they wait for the stream header and
+         * then send a plain {@link ConnectionType#MESSAGE}.
+         *
+         * @param connSocket connection
+         * @return connection code, {@link #NO_CONNECTION_TYPE} if the client hasn't sent it in time
+         * @throws IOException if any I/O error occurs
+         */
+        private int readConnectionCode(final @NotNull Socket connSocket) throws IOException {
+            connSocket.setSoTimeout(LEGACY_CLIENT_TIMEOUT_MS);
+            try {
+                final int code = connSocket.getInputStream().read();
+                if (code == -1) {
+                    throw new EOFException("Connection is closed before sending its type");
+                }
+                return code;
+            } catch (SocketTimeoutException ex) {
+                LOG.debug("No connection type from localhost:{}, assuming 1.2.x client", connSocket.getPort());
+                return NO_CONNECTION_TYPE;
+            } finally {
+                connSocket.setSoTimeout(0);
+            }
+        }
+
         private void run0(final ServerSocketChannel socket) throws IOException {
-            try (SocketChannel channel = socket.accept();
-                 Socket connSocket = channel.socket();
-                 ObjectOutputStream oos = new ObjectOutputStream(connSocket.getOutputStream());
-                 ObjectInputStream ois = new ObjectInputStream(connSocket.getInputStream())) {
-                LOG.debug("New connection from localhost:{}", connSocket.getPort());
+            final SocketChannel channel = socket.accept();
+            if (!accepting) {
+                // wake-up connection from stopAccepting()
+                closeQuietly(channel);
+                return;
+            }
+            LOG.debug("New connection from localhost:{}", channel.socket().getPort());
+            // accepted connections count as in flight until dispatched, so the handover waits for them too
+            inFlight.incrementAndGet();
+            pendingConnections.add(channel);
+            handshakeExecutor.execute(() -> {
                 try {
-                    @SuppressWarnings("unchecked") final I message = (I) ois.readObject();
-                    LOG.debug("Incoming message: {}", message);
+                    dispatch(channel);
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            });
+        }
+
+        private void dispatch(final @NotNull SocketChannel channel) {
+            try {
+                final int code = readConnectionCode(channel.socket());
+                pendingConnections.remove(channel);
+                if (code == NO_CONNECTION_TYPE) {
+                    enqueue(channel, messageExecutor, false, true);
+                    return;
+                }
+                final boolean compression = (code & ConnectionType.ACCEPTS_COMPRESSION) != 0;
+                final ConnectionType type = ConnectionType.of(code & ~ConnectionType.ACCEPTS_COMPRESSION);
+                switch (type) {
+                    case STREAM:
+                        acceptStream(channel);
+                        break;
+                    case SUBSCRIBE:
+                        publisher.subscribe(channel);
+                        break;
+                    case SHARED_MEMORY:
+                        acceptSharedMemory(channel);
+                        break;
+                    case HANDOVER:
+                        acceptSuccessor(channel);
+                        break;
+                    case PING:
+                        closeQuietly(channel);
+                        break;
+                    case PRIORITY_MESSAGE:
+                        enqueue(channel, priorityExecutor, compression, false);
+                        break;
+                    case FRAMED:
+                        pendingConnections.add(channel);
+                        framedExecutor.execute(() -> serveFramed(channel));
+                        break;
+                    default:
+                        enqueue(channel, messageExecutor, compression, false);
+                        break;
+                }
+            } catch (IOException ex) {
+                // there's a failure during de-serialization or handling the message,
+                // but we don't want to terminate the server
+                LOG.error(DESERIALIZATION_ERROR, ex);
+                pendingConnections.remove(channel);
+                closeQuietly(channel);
+            }
+        }
+
+        /**
+         * Read and handle the message in the given lane, so the slow messages of one lane don't block either the
+         * other lane or accepting the connections.
+         *
+         * @param channel     connection
+         * @param lane        lane executor
+         * @param compression true if the client accepts compressed answers
+         * @param untyped     true if the client hasn't sent the connection type in time
+         */
+        private void enqueue(
+            final @NotNull SocketChannel channel,
+            final @NotNull ExecutorService lane,
+            final boolean compression,
+            final boolean untyped
+        ) {
+            if (messageHandler == null) {
+                rejectMessage(channel);
+                return;
+            }
+            // queued messages count as in flight, so the handover waits for them too
+            inFlight.incrementAndGet();
+            pendingConnections.add(channel);
+            lane.execute(() -> {
+                try {
+                    acceptMessage(channel, compression, untyped);
+                } catch (IOException | ClassNotFoundException ex) {
+                    LOG.error(DESERIALIZATION_ERROR, ex);
+                    pendingConnections.remove(channel);
+                    closeQuietly(channel);
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            });
+        }
+
+        /**
+         * Answer with {@link RejectedMessage#NO_MESSAGE_HANDLER} without reading the message.
+         *
+         * @param channel connection
+         */
+        private void rejectMessage(final @NotNull SocketChannel channel) {
+            LOG.error(MESSAGE_REJECTED);
+            final Socket connSocket = channel.socket();
+            try {
+                final ObjectOutputStream oos = new ObjectOutputStream(connSocket.getOutputStream());
+                oos.writeObject(RejectedMessage.NO_MESSAGE_HANDLER);
+                oos.flush();
+                connSocket.shutdownOutput();
+                // closing the socket with unread data would reset the connection and the answer might get lost
+                connSocket.setSoTimeout(HANDSHAKE_TIMEOUT_MS);
+                final InputStream input = connSocket.getInputStream();
+                final byte[] skipped = new byte[BufferPool.BUFFER_SIZE];
+                int read = input.read(skipped);
+                while (read != -1) {
+                    read = input.read(skipped);
+                }
+            } catch (IOException ex) {
+                LOG.debug("Unable to send rejection", ex);
+            } finally {
+                closeQuietly(channel);
+            }
+        }
+
+        private void acceptMessage(
+            final @NotNull SocketChannel channel,
+            final boolean acceptsCompression,
+            final boolean untyped
+        ) throws IOException, ClassNotFoundException {
+            final Socket connSocket = channel.socket();
+            final ObjectOutputStream oos = new ObjectOutputStream(connSocket.getOutputStream());
+            final PushbackInputStream input = new PushbackInputStream(connSocket.getInputStream());
+            final int lateCode = untyped ? readLateConnectionCode(input) : NO_CONNECTION_TYPE;
+            final boolean compression = lateCode == NO_CONNECTION_TYPE
+                ? acceptsCompression
+                : (lateCode & ConnectionType.ACCEPTS_COMPRESSION) != 0;
+            final ObjectInputStream ois = new ObjectInputStream(input);
+
+            final Object message = unwrap(ois.readObject());
+            handle(message, new Responder<O>() {
+                @Override
+                public void respond(final @Nullable O response) throws IOException {
                     try {
-                        final O response = messageHandler.handleMessage(message);
-                        LOG.debug("Calculated response: {}", response);
-                        oos.writeObject(response);
-                    } catch (RuntimeException ex) {
+                        if (compression && compressAnswersFrom != COMPRESSION_DISABLED && response != null) {
+                            // the answer is measured and sent in the same serialized form
+                            compress(MessageBuffer.serialize(response)).writeObjectTo(connSocket.getOutputStream());
+                        } else {
+                            oos.writeObject(response);
+                            oos.flush();
+                        }
+                    } finally {
+                        fail();
+                    }
+                }
+
+                @Override
+                public void fail() {
+                    pendingConnections.remove(channel);
+                    closeQuietly(channel);
+                }
+            });
+        }
+
+        /**
+         * Tell the 1.2.x client from the one whose connection type has come too late, e.g. after the GC pause: the
+         * former starts with the stream header, the latter with the type code.
+         *
+         * @param input message stream, the stream header is left in it
+         * @return connection code, {@link #NO_CONNECTION_TYPE} for the 1.2.x client
+         * @throws IOException if any I/O error occurs or the late connection isn't a message one, it can't be served
+         *                     once the stream header is written
+         */
+        private int readLateConnectionCode(final @NotNull PushbackInputStream input) throws IOException {
+            final int first = input.read();
+            if (first == -1) {
+                throw new EOFException("Connection is closed before sending the message");
+            }
+            if (first == STREAM_MAGIC_START) {
+                input.unread(first);
+                return NO_CONNECTION_TYPE;
+            }
+            final ConnectionType type = ConnectionType.of(first & ~ConnectionType.ACCEPTS_COMPRESSION);
+            if (type != ConnectionType.MESSAGE && type != ConnectionType.PRIORITY_MESSAGE) {
+                throw new IOException(format("Connection type %s has come after the legacy client timeout", type));
+            }
+            LOG.debug("Connection type {} has come after the legacy client timeout", type);
+            return first;
+        }
+
+        private @NotNull MessageBuffer compress(final @NotNull MessageBuffer answer) {
+            return answer.size() < compressAnswersFrom
+                ? answer
+                : MessageBuffer.serialize(CompressedMessage.compress(answer));
+        }
+
+        private @NotNull Object unwrap(final @NotNull Object message) throws IOException, ClassNotFoundException {
+            if (message instanceof CompressedMessage) {
+                return ((CompressedMessage) message).decompress();
+            }
+            if (!(message instanceof SpillHandle)) {
+                return message;
+            }
+            if (spillDirectory == null) {
+                throw new IOException("Spilled messages are not supported");
+            }
+            LOG.debug("Reading spilled message {}", message);
+            return ((SpillHandle) message).read(spillDirectory);
+        }
+
+        private void acceptStream(final @NotNull SocketChannel channel) {
+            if (streamHandler == null || streamExecutor == null) {
+                LOG.error("Incoming stream is rejected, stream handler is not set");
+                closeQuietly(channel);
+                return;
+            }
+            pendingConnections.add(channel);
+            inFlight.incrementAndGet();
+            streamExecutor.execute(() -> handleStream(streamHandler, channel));
+        }
+
+        private void handleStream(final @NotNull StreamMessageHandler handler, final @NotNull SocketChannel channel) {
+            LOG.debug("Incoming stream from localhost:{}", channel.socket().getPort());
+            try {
+                final Socket connSocket = channel.socket();
+                final ChunkedInputStream message = new ChunkedInputStream(connSocket.getInputStream(), null);
+                final ChunkedOutputStream answer = new ChunkedOutputStream(connSocket.getOutputStream());
+                handler.handleStream(message, answer);
+                // end mark is written only if the handler has succeeded
+                answer.close();
+                // closing the socket with unread data would reset the connection and the answer might get lost
+                message.skipRemaining();
+            } catch (IOException | RuntimeException ex) {
+                LOG.error("Error during processing stream", ex);
+            } finally {
+                inFlight.decrementAndGet();
+                pendingConnections.remove(channel);
+                closeQuietly(channel);
+            }
+        }
+
+        private void acceptSuccessor(final @NotNull SocketChannel channel) throws IOException {
+            try {
+                final Socket connSocket = channel.socket();
+                connSocket.setSoTimeout(HANDSHAKE_TIMEOUT_MS);
+                final DataInputStream input = new DataInputStream(connSocket.getInputStream());
+                final String name = input.readUTF();
+                final int successorPort = input.readInt();
+                LOG.debug("Successor '{}' is waiting on localhost:{}", name, successorPort);
+                successors.put(name, successorPort);
+                final DataOutputStream output = new DataOutputStream(connSocket.getOutputStream());
+                output.write(ConnectionType.ACKNOWLEDGED);
+                output.flush();
+            } finally {
+                closeQuietly(channel);
+            }
+        }
+
+        private void acceptSharedMemory(final @NotNull SocketChannel channel) throws IOException {
+            if (spillDirectory == null || sharedMemoryExecutor == null) {
+                LOG.error("Incoming shared memory channel is rejected, lock directory is not set");
+                closeQuietly(channel);
+                return;
+            }
+            final Socket connSocket = channel.socket();
+            connSocket.setSoTimeout(HANDSHAKE_TIMEOUT_MS);
+            final String fileName = new DataInputStream(connSocket.getInputStream()).readUTF();
+            final Path file = spillDirectory.resolve(fileName).normalize();
+            if (!spillDirectory.equals(file.getParent())) {
+                throw new IOException(format("Channel file %s is outside of the lock directory", fileName));
+            }
+            final SharedMemoryChannel memory = SharedMemoryChannel.open(file);
+            try {
+                // the client deletes the file once it's mapped on both sides
+                connSocket.getOutputStream().write(ConnectionType.ACKNOWLEDGED);
+            } catch (IOException ex) {
+                memory.close();
+                throw ex;
+            }
+            channel.configureBlocking(false);
+            pendingConnections.add(channel);
+            sharedMemoryChannels.add(memory);
+            // one polling thread per channel: the ring can't wake up a thread blocked on a selector
+            sharedMemoryExecutor.execute(() -> serveSharedMemory(channel, memory));
+        }
+
+        private void serveSharedMemory(
+            final @NotNull SocketChannel channel,
+            final @NotNull SharedMemoryChannel memory
+        ) {
+            LOG.debug("Serving shared memory channel from localhost:{}", channel.socket().getPort());
+            final ByteBuffer probe = ByteBuffer.allocate(1);
+            int attempt = 0;
+            try {
+                while (channel.isOpen() && !memory.isClosed()) {
+                    final byte[] request = memory.requests().poll();
+                    if (request != null) {
+                        attempt = 0;
+                        acceptSharedMessage(memory, request);
+                        continue;
+                    }
+                    // the socket is checked only when idle, the closed socket means the client is gone
+                    if (SharedMemoryChannel.isParking(attempt) && channel.read(probe) == -1) {
+                        break;
+                    }
+                    SharedMemoryChannel.idle(attempt);
+                    attempt = attempt == Integer.MAX_VALUE ? attempt : attempt + 1;
+                }
+            } catch (IOException ex) {
+                LOG.debug("Shared memory channel is closed", ex);
+            } finally {
+                memory.close();
+                sharedMemoryChannels.remove(memory);
+                pendingConnections.remove(channel);
+                closeQuietly(channel);
+            }
+        }
+
+        private void serveFramed(final @NotNull SocketChannel channel) {
+            LOG.debug("Serving framed connection from localhost:{}", channel.socket().getPort());
+            final FrameChannel frames = new FrameChannel(channel);
+            try {
+                while (channel.isOpen()) {
+                    if (messageHandler == null) {
+                        LOG.error(MESSAGE_REJECTED);
+                        frames.read(frame -> null);
+                        frames.write(MessageBuffer.serialize(RejectedMessage.NO_MESSAGE_HANDLER).asByteBuffer());
+                        continue;
+                    }
+                    // the client waits for the answer, so the next frame is read while the handler is busy
+                    final Object message = frames.read(frame -> unwrap(FrameChannel.deserialize(frame)));
+                    handleInLane(message, new Responder<O>() {
+                        @Override
+                        public void respond(final @Nullable O response) throws IOException {
+                            frames.write(MessageBuffer.serialize(response).asByteBuffer());
+                        }
+
+                        @Override
+                        public void fail() {
+                            try {
+                                frames.write(ByteBuffer.wrap(FAILED_RESPONSE));
+                            } catch (IOException ex) {
+                                LOG.debug("Unable to send failure answer", ex);
+                                closeQuietly(channel);
+                            }
+                        }
+                    });
+                }
+            } catch (IOException | ClassNotFoundException ex) {
+                LOG.debug("Framed connection is closed", ex);
+            } finally {
+                pendingConnections.remove(channel);
+                closeQuietly(channel);
+            }
+        }
+
+        private void acceptSharedMessage(final @NotNull SharedMemoryChannel memory, final byte @NotNull [] request) {
+            if (messageHandler == null) {
+                LOG.error(MESSAGE_REJECTED);
+                memory.responses().offer(MessageBuffer.serialize(RejectedMessage.NO_MESSAGE_HANDLER).asByteBuffer());
+                return;
+            }
+            final Object message;
+            try (ObjectInputStream ois = new ObjectInputStream(new ByteBufferInputStream(ByteBuffer.wrap(request)))) {
+                message = unwrap(ois.readObject());
+            } catch (IOException | ClassNotFoundException ex) {
+                LOG.error("Unable to read the message from the shared memory", ex);
+                memory.responses().offer(ByteBuffer.wrap(FAILED_RESPONSE));
+                return;
+            }
+            // the client waits for the answer, so there's a single response in flight and a single ring producer
+            handleInLane(message, new Responder<O>() {
+                @Override
+                public void respond(final @Nullable O response) throws IOException {
+                    MessageBuffer buffer = MessageBuffer.serialize(response);
+                    if (buffer.size() > memory.responses().maxRecordSize() && spillDirectory != null) {
+                        // the client reads and deletes the spill file
+                        final Path file = spillDirectory.resolve(format(SPILL_NAME_PATTERN, UUID.randomUUID()));
+                        buffer = MessageBuffer.serialize(SpillHandle.write(file, buffer));
+                    }
+                    if (!memory.responses().offer(buffer.asByteBuffer())) {
+                        throw new IOException("Response doesn't fit the shared memory channel");
+                    }
+                }
+
+                @Override
+                public void fail() {
+                    memory.responses().offer(ByteBuffer.wrap(FAILED_RESPONSE));
+                }
+            });
+        }
+
+        /**
+         * Handle the message in the lane of the normal messages, so they are handled one by one whatever transport
+         * they've come through. The transport thread only reads the messages and the answers are written as soon as
+         * they're ready.
+         *
+         * @param received  message
+         * @param responder transport of the answer
+         */
+        private void handleInLane(final @NotNull Object received, final @NotNull Responder<O> responder) {
+            // queued messages count as in flight, so the handover waits for them too
+            inFlight.incrementAndGet();
+            messageExecutor.execute(() -> {
+                try {
+                    handle(received, responder);
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            });
+        }
+
+        @SuppressWarnings("unchecked")
+        private void handle(final @NotNull Object received, final @NotNull Responder<O> responder) {
+            if (!(received instanceof DeadlineMessage)) {
+                dispatch((I) received, responder);
+            } else if (((DeadlineMessage) received).isExpired()) {
+                // the sender has already given up, the handler's time is better spent on the live messages
+                LOG.debug("Dropping expired message: {}", received);
+                responder.fail();
+            } else {
+                dispatch((I) ((DeadlineMessage) received).getPayload(), responder);
+            }
+        }
+
+        private void dispatch(final @NotNull I message, final @NotNull Responder<O> responder) {
+            LOG.debug("Incoming message: {}", message);
+            inFlight.incrementAndGet();
+            handleAsync(message).whenComplete((response, ex) -> {
+                try {
+                    if (ex != null) {
                         LOG.error("Error during processing message {}", message, ex);
+                        responder.fail();
+                    } else {
+                        LOG.debug("Calculated response: {}", response);
+                        responder.respond(response);
                     }
-                } catch (IOException | ClassNotFoundException ex) {
-                    // there's a failure during de-serialization or handling the message,
-                    // but we don't want to terminate the server
-                    LOG.error("Error during deserialization", ex);
+                } catch (IOException | LockingException exx) {
+                    LOG.error("Unable to send response for message {}", message, exx);
+                    responder.fail();
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            });
+        }
+
+        private @NotNull CompletionStage<O> handleAsync(final @NotNull I message) {
+            try {
+                if (messageHandler == null) {
+                    // rejected before being read
+                    throw new IllegalStateException("Message handler is not set");
+                }
+                final CompletionStage<O> stage = messageHandler.handleMessageAsync(message);
+                if (stage == null) {
+                    throw new IllegalStateException("Message handler returned null instead of CompletionStage");
                 }
+                return stage;
+            } catch (RuntimeException ex) {
+                final CompletableFuture<O> failed = new CompletableFuture<>();
+                failed.completeExceptionally(ex);
+                return failed;
             }
         }
     }
+
+    /**
+     * Sends the answer back to the client, each transport has its own.
+     *
+     * @param <O> response message type
+     */
+    private interface Responder<O> {
+        void respond(@Nullable O response) throws IOException;
+
+        void fail();
+    }
 }
@@ -3,7 +3,6 @@
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.Formatter;
 import org.jetbrains.annotations.NotNull;
 
 /**
@@ -12,23 +11,27 @@
  * @author Alexander Biryukov
  */
 final class Sha1Encoder implements LockIdEncoder {
-    @Override
-    public @NotNull String encode(final @NotNull String inputString) {
+    static final @NotNull Sha1Encoder INSTANCE = new Sha1Encoder();
+    /**
+     * Default encoder of the AppLockers: the same ids are encoded for every lock, starting from the global one.
+     */
+    static final @NotNull LockIdEncoder MEMOIZED = new MemoizingEncoder(INSTANCE, MemoizingEncoder.DEFAULT_SIZE);
+    // digest lookup is expensive, the instances are not thread-safe
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
         try {
-            final MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
-            sha1.reset();
-            sha1.update(inputString.getBytes(StandardCharsets.UTF_8));
-
-            final byte[] bytes = sha1.digest();
-            try (Formatter formatter = new Formatter()) {
-                for (byte b : bytes) {
-                    formatter.format("%02x", b);
-                }
-                return formatter.toString();
-            }
+            return MessageDigest.getInstance("SHA-1");
         } catch (NoSuchAlgorithmException ex) {
             /* not happening */
             throw new AssertionError(ex);
         }
+    });
+
+    private Sha1Encoder() {
+    }
+
+    @Override
+    public @NotNull String encode(final @NotNull String inputString) {
+        // digest() resets the instance
+        return Hex.encode(DIGEST.get().digest(inputString.getBytes(StandardCharsets.UTF_8)));
     }
 }
@@ -0,0 +1,119 @@
+package io.github.sanyarnd.applocker;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.jetbrains.annotations.NotNull;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Pair of {@link MappedRing}s in the memory-mapped file: requests from the client and responses from the server.
+ *
+ * <p>File layout: the header with the closed flag, the request ring, the response ring.
+ *
+ * @author Alexander Biryukov
+ */
+final class SharedMemoryChannel {
+    private static final int HEADER_SIZE = 64;
+    private static final int CLOSED_FLAG = 0;
+    private static final int SPIN_ATTEMPTS = 10_000;
+    private static final int YIELD_ATTEMPTS = 100;
+    private static final long PARK_STEP_NANOS = TimeUnit.MICROSECONDS.toNanos(1);
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final @NotNull MappedByteBuffer mapped;
+    private final @NotNull MappedRing requests;
+    private final @NotNull MappedRing responses;
+
+    private SharedMemoryChannel(final @NotNull MappedByteBuffer buffer) {
+        mapped = buffer;
+        final int ringSize = (buffer.capacity() - HEADER_SIZE) / 2;
+        requests = new MappedRing(slice(buffer, HEADER_SIZE, ringSize));
+        responses = new MappedRing(slice(buffer, HEADER_SIZE + ringSize, ringSize));
+    }
+
+    /**
+     * Create the new channel file.
+     *
+     * @param file     channel file, must not exist
+     * @param capacity capacity of each ring in bytes
+     * @return channel
+     * @throws IOException if any I/O error occurs
+     */
+    static @NotNull SharedMemoryChannel create(final @NotNull Path file, final int capacity) throws IOException {
+        final int ringSize = MappedRing.HEADER_SIZE + capacity;
+        try (FileChannel channel = FileChannel.open(file, CREATE_NEW, READ, WRITE)) {
+            return new SharedMemoryChannel(channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + 2L * ringSize));
+        }
+    }
+
+    /**
+     * Map the existing channel file.
+     *
+     * @param file channel file
+     * @return channel
+     * @throws IOException if any I/O error occurs
+     */
+    static @NotNull SharedMemoryChannel open(final @NotNull Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, READ, WRITE)) {
+            return new SharedMemoryChannel(channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Wait strategy for the polling side: busy spin first for the lowest latency, then yield, then park for growing
+     * periods to not burn CPU on the idle channel.
+     *
+     * @param attempt number of the unsuccessful polls in a row
+     */
+    static void idle(final int attempt) {
+        if (isParking(attempt)) {
+            final long parks = (long) attempt - SPIN_ATTEMPTS - YIELD_ATTEMPTS + 1;
+            LockSupport.parkNanos(Math.min(MAX_PARK_NANOS, parks * PARK_STEP_NANOS));
+        } else if (attempt >= SPIN_ATTEMPTS) {
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Check if the attempt of {@link #idle(int)} parks the thread, i.e. it's a good moment for slow checks.
+     *
+     * @param attempt number of the unsuccessful polls in a row
+     * @return true if the thread has parked
+     */
+    static boolean isParking(final int attempt) {
+        return attempt >= SPIN_ATTEMPTS + YIELD_ATTEMPTS;
+    }
+
+    @NotNull MappedRing requests() {
+        return requests;
+    }
+
+    @NotNull MappedRing responses() {
+        return responses;
+    }
+
+    boolean isClosed() {
+        return mapped.getInt(CLOSED_FLAG) != 0;
+    }
+
+    /**
+     * Mark the channel as closed for the other side.
+     */
+    void close() {
+        mapped.putInt(CLOSED_FLAG, 1);
+    }
+
+    private static @NotNull ByteBuffer slice(final @NotNull ByteBuffer buffer, final int offset, final int size) {
+        final ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.limit(offset + size);
+        return view.slice();
+    }
+}
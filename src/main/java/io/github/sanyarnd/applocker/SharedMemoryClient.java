@@ -0,0 +1,201 @@
+package io.github.sanyarnd.applocker;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Client which exchanges messages with {@link Server} through the {@link SharedMemoryChannel}.
+ *
+ * <p>The socket connection is kept open only to let each side notice when the other one is gone, messages themselves
+ * don't touch the socket.
+ *
+ * @author Alexander Biryukov
+ */
+final class SharedMemoryClient implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(SharedMemoryClient.class);
+
+    private final int port;
+    private final @NotNull Path directory;
+    private final @NotNull SocketChannel socket;
+    private final @NotNull SharedMemoryChannel channel;
+    private final @NotNull ByteBuffer probe = ByteBuffer.allocate(1);
+    private volatile boolean closed;
+
+    private SharedMemoryClient(
+        final int portNumber,
+        final @NotNull Path lockDirectory,
+        final @NotNull SocketChannel connection,
+        final @NotNull SharedMemoryChannel memoryChannel
+    ) {
+        port = portNumber;
+        directory = lockDirectory;
+        socket = connection;
+        channel = memoryChannel;
+    }
+
+    /**
+     * Create the channel file and hand it over to the server.<br> The file is deleted right after the server has
+     * mapped it, the memory stays shared until both sides unmap it.
+     *
+     * @param port     server port
+     * @param file     channel file in the lock directory, must not exist
+     * @param capacity ring capacity in bytes
+     * @return client
+     * @throws LockingException if there's a trouble communicating to the server
+     */
+    static @NotNull SharedMemoryClient connect(final int port, final @NotNull Path file, final int capacity) {
+        LOG.debug("Opening shared memory channel {} to localhost:{}", file, port);
+        SocketChannel socket = null;
+        try {
+            final SharedMemoryChannel channel = SharedMemoryChannel.create(file, capacity);
+            socket = SocketChannel.open(new InetSocketAddress(InetAddress.getLocalHost(), port));
+            final DataOutputStream output = new DataOutputStream(Channels.newOutputStream(socket));
+            output.write(ConnectionType.SHARED_MEMORY.getCode());
+            output.writeUTF(file.getFileName().toString());
+            output.flush();
+            // server answers once the file is mapped
+            if (Channels.newInputStream(socket).read() != ConnectionType.ACKNOWLEDGED) {
+                throw new EOFException("Shared memory channel is rejected");
+            }
+            socket.configureBlocking(false);
+            return new SharedMemoryClient(port, file.toAbsolutePath().normalize().getParent(), socket, channel);
+        } catch (IOException ex) {
+            closeQuietly(socket);
+            throw new LockingException("Unable to open shared memory channel", ex);
+        } finally {
+            SpillHandle.delete(file);
+        }
+    }
+
+    /**
+     * Get the port of the server on the other side.
+     *
+     * @return port
+     */
+    int getPort() {
+        return port;
+    }
+
+    /**
+     * Check if the message of the given size can be sent through the channel.
+     *
+     * @param size serialized message size
+     * @return true if the message fits
+     */
+    boolean fits(final int size) {
+        return size <= channel.requests().maxRecordSize();
+    }
+
+    boolean isClosed() {
+        return closed || channel.isClosed();
+    }
+
+    /**
+     * Send serialized message and wait for the answer.<br> Concurrent senders are served one by one.
+     *
+     * @param message  serialized message, must {@link #fits(int) fit} the channel
+     * @param deadline deadline in milliseconds since the epoch, {@link DeadlineMessage#NO_DEADLINE} to wait forever
+     * @param <O>      answer type
+     * @return answer
+     * @throws LockingException if there's a trouble communicating to the server
+     */
+    synchronized @NotNull <O extends Serializable> O send(final @NotNull MessageBuffer message, final long deadline) {
+        try {
+            if (isClosed()) {
+                // the message certainly hasn't been received, e.g. the lock has been handed over
+                throw new ConnectException("Shared memory channel is closed");
+            }
+            if (!channel.requests().offer(message.asByteBuffer())) {
+                throw new IllegalArgumentException("Message doesn't fit the shared memory channel");
+            }
+            return deserialize(awaitResponse(deadline));
+        } catch (ClassNotFoundException ex) {
+            LOG.debug("Cannot deserialize answer, no such class");
+            throw new LockingException("Unable to deserialize the message", ex);
+        } catch (SocketTimeoutException ex) {
+            // the late answer would be taken for the answer to the next message, so the channel is re-opened
+            close();
+            LOG.debug("Deadline exceeded");
+            throw new LockingException("Message deadline exceeded", ex);
+        } catch (IOException ex) {
+            close();
+            LOG.debug("Some I/O error");
+            throw new LockingException("I/O commutation error", ex);
+        }
+    }
+
+    private byte @NotNull [] awaitResponse(final long deadline) throws IOException {
+        int attempt = 0;
+        byte[] response = channel.responses().poll();
+        while (response == null) {
+            if (deadline != DeadlineMessage.NO_DEADLINE && DeadlineMessage.remaining(deadline) <= 0) {
+                throw new SocketTimeoutException("Message server hasn't answered in time");
+            }
+            if (SharedMemoryChannel.isParking(attempt) && (channel.isClosed() || socket.read(probe) == -1)) {
+                throw new EOFException("Message server has closed the channel");
+            }
+            SharedMemoryChannel.idle(attempt);
+            attempt = attempt == Integer.MAX_VALUE ? attempt : attempt + 1;
+            response = channel.responses().poll();
+        }
+        if (response.length == 0) {
+            // server failed to handle the message, same as the closed connection on the socket path
+            throw new EOFException("Message server hasn't answered");
+        }
+        return response;
+    }
+
+    @SuppressWarnings("unchecked")
+    private @NotNull <O extends Serializable> O deserialize(final byte @NotNull [] response)
+        throws IOException, ClassNotFoundException {
+        final Object answer;
+        try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(response))) {
+            answer = input.readObject();
+        }
+        RejectedMessage.check(answer);
+        if (!(answer instanceof SpillHandle)) {
+            return (O) answer;
+        }
+        // large answers are handed over through the spill file
+        final SpillHandle handle = (SpillHandle) answer;
+        try {
+            return (O) handle.read(directory);
+        } finally {
+            SpillHandle.delete(handle.resolve(directory));
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        channel.close();
+        closeQuietly(socket);
+    }
+
+    private static void closeQuietly(final @Nullable SocketChannel socket) {
+        if (socket == null) {
+            return;
+        }
+        try {
+            socket.close();
+        } catch (IOException ex) {
+            LOG.debug("Unable to close connection", ex);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package io.github.sanyarnd.applocker;
+
+/**
+ * What the lock holder does with a new event when the subscriber's buffer is full.
+ *
+ * @author Alexander Biryukov
+ * @see AppLocker.Builder#setSubscriberBuffer(int, SlowSubscriberPolicy)
+ */
+public enum SlowSubscriberPolicy {
+    /**
+     * Drop the oldest buffered event to make room for the new one.
+     */
+    DROP_OLDEST,
+    /**
+     * Drop the new event.
+     */
+    DROP_NEWEST,
+    /**
+     * Close the subscription.
+     */
+    DISCONNECT
+}
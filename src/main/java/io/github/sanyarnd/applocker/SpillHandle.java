@@ -0,0 +1,102 @@
+package io.github.sanyarnd.applocker;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import static java.lang.String.format;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Sent instead of the large message, the message itself is stored in the memory-mapped file in the lock directory.
+ *
+ * @author Alexander Biryukov
+ */
+final class SpillHandle implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final Logger LOG = LoggerFactory.getLogger(SpillHandle.class);
+
+    private final @NotNull String fileName;
+    private final int length;
+
+    private SpillHandle(final @NotNull String name, final int size) {
+        fileName = name;
+        length = size;
+    }
+
+    /**
+     * Store the serialized message in the new file.
+     *
+     * @param file    spill file, must not exist
+     * @param message serialized message
+     * @return handle to send
+     * @throws IOException if any I/O error occurs
+     */
+    static @NotNull SpillHandle write(final @NotNull Path file, final @NotNull MessageBuffer message)
+        throws IOException {
+        try (FileChannel channel = FileChannel.open(file, CREATE_NEW, READ, WRITE)) {
+            final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, message.size());
+            mapped.put(message.asByteBuffer());
+        }
+        return new SpillHandle(file.getFileName().toString(), message.size());
+    }
+
+    /**
+     * Delete spill file, doesn't throw.
+     *
+     * @param file spill file
+     */
+    static void delete(final @NotNull Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ex) {
+            // e.g. Windows doesn't allow deleting the file while it's mapped
+            LOG.debug("Unable to delete spill file {}, it'll be deleted on exit", file, ex);
+            file.toFile().deleteOnExit();
+        }
+    }
+
+    /**
+     * Map the spill file and de-serialize the message directly from the mapped memory.
+     *
+     * @param directory directory where spill files are allowed to be
+     * @return message
+     * @throws IOException            if any I/O error occurs
+     * @throws ClassNotFoundException if message class is not found
+     */
+    @NotNull Serializable read(final @NotNull Path directory) throws IOException, ClassNotFoundException {
+        final Path file = resolve(directory);
+        if (!directory.equals(file.getParent())) {
+            throw new IOException(format("Spill file %s is outside of the lock directory", fileName));
+        }
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            try (ObjectInputStream input = new ObjectInputStream(new ByteBufferInputStream(mapped))) {
+                return (Serializable) input.readObject();
+            }
+        }
+    }
+
+    /**
+     * Resolve the spill file against the lock directory.
+     *
+     * @param directory lock directory
+     * @return spill file
+     */
+    @NotNull Path resolve(final @NotNull Path directory) {
+        return directory.resolve(fileName).normalize();
+    }
+
+    @Override
+    public String toString() {
+        return format("SpillHandle{fileName='%s', length=%d}", fileName, length);
+    }
+}
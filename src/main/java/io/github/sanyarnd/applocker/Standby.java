@@ -0,0 +1,50 @@
+package io.github.sanyarnd.applocker;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Standby instance waiting to take over the lock.
+ *
+ * @author Alexander Biryukov
+ * @see AppLocker#standby()
+ */
+public final class Standby implements AutoCloseable {
+    private final @NotNull Thread thread;
+    private volatile boolean active = true;
+
+    Standby(final @NotNull Runnable takeOver) {
+        thread = new Thread(() -> {
+            try {
+                takeOver.run();
+            } finally {
+                active = false;
+            }
+        }, "AppLocker Standby");
+        thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Check if the standby is still waiting for the lock.<br> Standby becomes inactive once it's closed or the lock
+     * is taken over.
+     *
+     * @return true if waiting, false otherwise
+     */
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Stop waiting for the lock.<br> Does nothing if the lock is already taken over, use {@link AppLocker#unlock()}
+     * to release it.
+     */
+    @Override
+    public void close() {
+        if (active) {
+            thread.interrupt();
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package io.github.sanyarnd.applocker;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Interface for the function that runs on the server side and handles messages sent with
+ * {@link AppLocker#sendStream(InputStream)}.
+ *
+ * <p>The message and the answer are transferred in chunks of bounded size, so the memory consumption doesn't depend
+ * on the payload size. The message and the answer are transferred simultaneously, so the handler may write the answer
+ * while reading the message. The unread rest of the message is skipped once the handler returns.
+ *
+ * <p>Every stream is handled on its own thread.
+ *
+ * @author Alexander Biryukov
+ */
+@FunctionalInterface
+public interface StreamMessageHandler {
+    /**
+     * Handle the received message and write the answer.
+     *
+     * @param message input message
+     * @param answer  output for the answer
+     * @throws IOException if any I/O error occurs, the sender won't receive the complete answer
+     */
+    void handleStream(@NotNull InputStream message, @NotNull OutputStream answer) throws IOException;
+}
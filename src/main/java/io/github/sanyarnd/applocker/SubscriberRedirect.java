@@ -0,0 +1,28 @@
+package io.github.sanyarnd.applocker;
+
+import java.io.Serializable;
+import static java.lang.String.format;
+
+/**
+ * The last event of the subscription, tells the subscriber to re-subscribe to the new lock holder.
+ *
+ * @author Alexander Biryukov
+ */
+final class SubscriberRedirect implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final int port;
+
+    SubscriberRedirect(final int portNumber) {
+        port = portNumber;
+    }
+
+    int getPort() {
+        return port;
+    }
+
+    @Override
+    public String toString() {
+        return format("SubscriberRedirect{port=%d}", port);
+    }
+}
@@ -0,0 +1,23 @@
+package io.github.sanyarnd.applocker;
+
+/**
+ * Subscription to the events published by the lock holder.
+ *
+ * @author Alexander Biryukov
+ * @see AppLocker#subscribe(java.util.function.Consumer)
+ */
+public interface Subscription extends AutoCloseable {
+    /**
+     * Check if events are still being received.<br> Subscription becomes inactive once it's closed, lock holder has
+     * released the lock or dropped the subscription.
+     *
+     * @return true if active, false otherwise
+     */
+    boolean isActive();
+
+    /**
+     * Stop receiving events.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,34 @@
+package io.github.sanyarnd.applocker;
+
+import java.io.Serializable;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Message (or answer) of the tagged route, payload is encoded with the route's {@link MessageCodec}.
+ *
+ * @author Alexander Biryukov
+ */
+final class TaggedMessage implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final @NotNull String tag;
+    private final byte @NotNull [] payload;
+
+    TaggedMessage(final @NotNull String routeTag, final byte @NotNull [] data) {
+        tag = routeTag;
+        payload = data;
+    }
+
+    @NotNull String getTag() {
+        return tag;
+    }
+
+    byte @NotNull [] getPayload() {
+        return payload;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TaggedMessage{tag='%s', size=%d}", tag, payload.length);
+    }
+}
@@ -0,0 +1,30 @@
+package io.github.sanyarnd.applocker;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Selects the {@link LockBackend}.
+ * <br>
+ * JDK 22+ version of the class: the native Linux backend is used if enabled with
+ * {@code -Dio.github.sanyarnd.applocker.ofd=true} and supported by the platform.
+ *
+ * @author Alexander Biryukov
+ */
+final class LockBackends {
+    static final String OFD_PROPERTY = "io.github.sanyarnd.applocker.ofd";
+
+    private LockBackends() {
+    }
+
+    /**
+     * Get the backend for the new locks.
+     *
+     * @return backend
+     */
+    static @NotNull LockBackend select() {
+        if (Boolean.getBoolean(OFD_PROPERTY) && OfdLockBackend.isSupported()) {
+            return OfdLockBackend.INSTANCE;
+        }
+        return ChannelLockBackend.INSTANCE;
+    }
+}
@@ -0,0 +1,266 @@
+package io.github.sanyarnd.applocker;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.lang.foreign.SymbolLookup;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.VarHandle;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import static java.lang.String.format;
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+import static java.lang.foreign.ValueLayout.JAVA_SHORT;
+
+/**
+ * Linux backend based on the open file description locks, called through the Foreign Function API.
+ * <br>
+ * Unlike {@link ChannelLockBackend}, the locks belong to the file descriptor rather than to the process, so the locks
+ * taken within the same process conflict in the kernel just like the locks of the different processes: there are no
+ * JVM-level overlap checks, and every wait blocks in {@code fcntl(F_OFD_SETLKW)} without polling.
+ * <br>
+ * The native call can't be interrupted, so the blocking wait runs in the background thread; the interrupted caller
+ * leaves, the abandoned descriptor is closed once the wait ends.
+ *
+ * @author Alexander Biryukov
+ */
+final class OfdLockBackend implements LockBackend {
+    static final @NotNull OfdLockBackend INSTANCE = new OfdLockBackend();
+    private static final Logger LOG = LoggerFactory.getLogger(OfdLockBackend.class);
+
+    // asm-generic <fcntl.h> values and 64-bit off_t, only the architectures below use both: e.g. MIPS, SPARC, Alpha
+    // and PA-RISC have their own O_CREAT, 32-bit ones have the different struct flock
+    private static final List<String> ARCHITECTURES = Arrays.asList("amd64", "x86_64", "aarch64", "riscv64");
+    private static final int O_RDWR = 0x2;
+    private static final int O_CREAT = 0x40;
+    private static final int O_CLOEXEC = 0x80000;
+    private static final int FILE_MODE = 0x1a4; // 0644
+    private static final int F_OFD_SETLK = 37;
+    private static final int F_OFD_SETLKW = 38;
+    private static final short F_WRLCK = 1;
+    private static final int EACCES = 13;
+    private static final int EAGAIN = 11;
+    private static final int EINTR = 4;
+
+    // struct flock { short l_type; short l_whence; off_t l_start; off_t l_len; pid_t l_pid; }
+    private static final StructLayout FLOCK = MemoryLayout.structLayout(
+        JAVA_SHORT.withName("l_type"),
+        JAVA_SHORT.withName("l_whence"),
+        MemoryLayout.paddingLayout(4),
+        JAVA_LONG.withName("l_start"),
+        JAVA_LONG.withName("l_len"),
+        JAVA_INT.withName("l_pid"),
+        MemoryLayout.paddingLayout(4));
+    private static final StructLayout CALL_STATE = Linker.Option.captureStateLayout();
+    private static final VarHandle ERRNO = CALL_STATE.varHandle(MemoryLayout.PathElement.groupElement("errno"));
+
+    private static final @Nullable MethodHandle OPEN;
+    private static final @Nullable MethodHandle FCNTL;
+    private static final @Nullable MethodHandle CLOSE;
+    private static final ExecutorService WAITER = Executors.newCachedThreadPool(r -> {
+        final Thread t = new Thread(r, "AppLocker OfdWait");
+        t.setDaemon(true);
+        return t;
+    });
+
+    static {
+        MethodHandle open = null;
+        MethodHandle fcntl = null;
+        MethodHandle close = null;
+        if (System.getProperty("os.name", "").toLowerCase(Locale.ROOT).startsWith("linux")
+            && ARCHITECTURES.contains(System.getProperty("os.arch", ""))) {
+            try {
+                final Linker linker = Linker.nativeLinker();
+                final SymbolLookup libc = linker.defaultLookup();
+                final Linker.Option errno = Linker.Option.captureCallState("errno");
+                // int open(const char *path, int flags, ...)
+                open = linker.downcallHandle(libc.find("open").orElseThrow(),
+                    FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_INT, JAVA_INT),
+                    errno, Linker.Option.firstVariadicArg(2));
+                // int fcntl(int fd, int cmd, ...)
+                fcntl = linker.downcallHandle(libc.find("fcntl").orElseThrow(),
+                    FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_INT, ADDRESS),
+                    errno, Linker.Option.firstVariadicArg(2));
+                close = linker.downcallHandle(libc.find("close").orElseThrow(),
+                    FunctionDescriptor.of(JAVA_INT, JAVA_INT));
+            } catch (RuntimeException ex) {
+                LOG.debug("OFD locks are not available", ex);
+                open = null;
+                fcntl = null;
+                close = null;
+            }
+        }
+        OPEN = open;
+        FCNTL = fcntl;
+        CLOSE = close;
+    }
+
+    private OfdLockBackend() {
+    }
+
+    static boolean isSupported() {
+        return OPEN != null && FCNTL != null && CLOSE != null;
+    }
+
+    @Override
+    public @NotNull Handle open(final @NotNull Path file) throws IOException {
+        try (Arena arena = Arena.ofConfined()) {
+            final MemorySegment state = arena.allocate(CALL_STATE);
+            final int fd = (int) OPEN.invokeExact(state, arena.allocateFrom(file.toString()),
+                O_RDWR | O_CREAT | O_CLOEXEC, FILE_MODE);
+            if (fd < 0) {
+                throw new IOException(format("Unable to open %s, errno %d", file, errno(state)));
+            }
+            return new OfdHandle(file, fd);
+        } catch (IOException | RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    private static int errno(final @NotNull MemorySegment state) {
+        return (int) ERRNO.get(state, 0L);
+    }
+
+    /**
+     * Call {@code fcntl} with the write lock request on the whole file.
+     *
+     * @return 0 if locked, errno otherwise
+     */
+    private static int setLock(final int fd, final int command) throws IOException {
+        try (Arena arena = Arena.ofConfined()) {
+            final MemorySegment state = arena.allocate(CALL_STATE);
+            // zeroed: whence SEEK_SET, start 0, length 0 (the whole file), pid 0 (required by OFD locks)
+            final MemorySegment flock = arena.allocate(FLOCK);
+            flock.set(JAVA_SHORT, 0, F_WRLCK);
+            final int result = (int) FCNTL.invokeExact(state, fd, command, flock);
+            return result == 0 ? 0 : errno(state);
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    private static void closeDescriptor(final int fd) throws IOException {
+        try {
+            if ((int) CLOSE.invokeExact(fd) != 0) {
+                throw new IOException(format("Unable to close descriptor %d", fd));
+            }
+        } catch (IOException | RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    private static final class OfdHandle implements Handle {
+        private final @NotNull Path file;
+        private final int fd;
+        private volatile boolean locked;
+        // guarded by this: the descriptor must not be closed while the background wait uses it
+        private boolean waiting;
+        private boolean closed;
+
+        private OfdHandle(final @NotNull Path lockFile, final int descriptor) {
+            file = lockFile;
+            fd = descriptor;
+        }
+
+        @Override
+        public boolean tryLock() throws IOException {
+            final int error = setLock(fd, F_OFD_SETLK);
+            if (error == EAGAIN || error == EACCES) {
+                return false;
+            }
+            if (error != 0) {
+                throw new IOException(format("Unable to lock %s, errno %d", file, error));
+            }
+            locked = true;
+            return true;
+        }
+
+        @Override
+        public boolean lock() throws IOException, InterruptedException {
+            synchronized (this) {
+                waiting = true;
+            }
+            final CompletableFuture<Integer> wait = CompletableFuture.supplyAsync(this::awaitLock, WAITER);
+            final int error;
+            try {
+                error = wait.get();
+            } catch (ExecutionException ex) {
+                throw new IOException(format("Unable to lock %s", file), ex.getCause());
+            }
+            if (error == EINTR) {
+                return false;
+            }
+            if (error != 0) {
+                throw new IOException(format("Unable to lock %s, errno %d", file, error));
+            }
+            locked = true;
+            return true;
+        }
+
+        private int awaitLock() {
+            try {
+                return setLock(fd, F_OFD_SETLKW);
+            } catch (IOException ex) {
+                throw new LockingException(ex);
+            } finally {
+                finishWait();
+            }
+        }
+
+        private synchronized void finishWait() {
+            waiting = false;
+            if (closed) {
+                // the caller has been interrupted and has left
+                closeQuietly();
+            }
+        }
+
+        @Override
+        public boolean isValid() {
+            return locked;
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            locked = false;
+            if (!waiting) {
+                // the lock is released together with the last descriptor of the open file description
+                closeDescriptor(fd);
+            }
+        }
+
+        private void closeQuietly() {
+            try {
+                closeDescriptor(fd);
+            } catch (IOException ex) {
+                LOG.debug("Unable to close {}", file, ex);
+            }
+        }
+    }
+}
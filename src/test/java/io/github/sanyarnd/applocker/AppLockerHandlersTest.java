@@ -1,9 +1,17 @@
 package io.github.sanyarnd.applocker;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
 class AppLockerHandlersTest {
+    @AfterAll
+    static void cleanup() throws IOException {
+        AppLockerTest.deleteTokenFiles(Paths.get("").toAbsolutePath());
+    }
+
     @Test
     void busy_handler_suppress_exception() throws InterruptedException {
         final AppLocker l1 = AppLocker.create("sameId").onBusy("asd", (ans) -> {
@@ -38,6 +46,30 @@ void busy_handler_runnable_suppress_exception() throws InterruptedException {
         l2.unlock();
     }
 
+    @Test
+    void success_handler_runs_after_port_is_published() throws InterruptedException {
+        final AppLocker other = AppLocker.create("otherId").build();
+        final String[] answer = {null};
+        final AppLocker[] self = {null};
+        self[0] = AppLocker.create("sameId").onSuccess(() -> {
+            answer[0] = self[0].sendMessage("ping");
+            try {
+                // the global lock is already released
+                other.lock();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }).setMessageHandler(e -> e).build();
+
+        self[0].lock();
+        Assertions.assertEquals("ping", answer[0]);
+        Assertions.assertTrue(other.isLocked());
+
+        // cleanup
+        self[0].unlock();
+        other.unlock();
+    }
+
     @Test
     void fail_handler_suppress_exception() throws InterruptedException {
         Integer[] ret = {0};
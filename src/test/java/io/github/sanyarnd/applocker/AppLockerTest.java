@@ -1,8 +1,27 @@
 package io.github.sanyarnd.applocker;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.condition.EnabledOnOs;
@@ -13,6 +32,225 @@ private static <T extends Serializable> MessageHandler<T, T> createEchoHandler()
         return message -> message;
     }
 
+    static void deleteTokenFiles(final Path directory) throws IOException {
+        // fencing token counters outlive the locks by design
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (file.getFileName().toString().endsWith("_token.lock")) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    @AfterAll
+    static void cleanup() throws IOException {
+        deleteTokenFiles(Paths.get("").toAbsolutePath());
+    }
+
+    @Test
+    void fencing_token_grows_with_every_acquisition() throws InterruptedException {
+        final AppLocker l1 = AppLocker.create("sameId").build();
+        final AppLocker l2 = AppLocker.create("sameId").build();
+        Assertions.assertEquals(0, l1.getFencingToken());
+        Assertions.assertThrows(LockingException.class, () -> l1.fence("not locked"));
+
+        l1.lock();
+        final FencedMessage<String> stale = l1.fence("first");
+        Assertions.assertTrue(stale.getToken() > 0);
+        Assertions.assertEquals(stale.getToken(), l1.getFencingToken());
+        l1.unlock();
+        Assertions.assertEquals(0, l1.getFencingToken());
+
+        l2.lock();
+        final FencedMessage<String> current = l2.fence("second");
+        Assertions.assertTrue(current.getToken() > stale.getToken());
+        Assertions.assertTrue(stale.isStale(current.getToken()));
+        Assertions.assertFalse(current.isStale(current.getToken()));
+
+        // cleanup
+        l2.unlock();
+    }
+
+    @Test
+    void standby_takes_over_released_lock() throws Exception {
+        final AppLocker l1 = AppLocker.create("sameId").build();
+        final CountDownLatch acquired = new CountDownLatch(1);
+        final AppLocker l2 = AppLocker.create("sameId").setMessageHandler(createEchoHandler())
+            .onSuccess(acquired::countDown).build();
+        final AppLocker l3 = AppLocker.create("sameId").build();
+
+        l1.lock();
+        final Standby standby = l2.standby();
+        Thread.sleep(100);
+        Assertions.assertTrue(standby.isActive());
+        Assertions.assertFalse(l2.isLocked());
+
+        l1.unlock();
+        Assertions.assertTrue(acquired.await(1, TimeUnit.SECONDS));
+        Assertions.assertTrue(l2.isLocked());
+        Assertions.assertEquals("ping", l3.sendMessage("ping"));
+        Assertions.assertThrows(LockingBusyException.class, l1::lock);
+        while (standby.isActive()) {
+            Thread.sleep(10);
+        }
+
+        // cleanup
+        l2.unlock();
+    }
+
+    @Test
+    void handover_to_named_successor() throws Exception {
+        final AppLocker l1 = AppLocker.create("sameId").setSubscriberBuffer(16, SlowSubscriberPolicy.DROP_OLDEST)
+            .setMessageHandler((MessageHandler<String, String>) message -> "old").build();
+        final CountDownLatch acquired = new CountDownLatch(1);
+        final AppLocker l2 = AppLocker.create("sameId").setSubscriberBuffer(16, SlowSubscriberPolicy.DROP_OLDEST)
+            .setMessageHandler((MessageHandler<String, String>) message -> "new").onSuccess(acquired::countDown)
+            .build();
+        final AppLocker l3 = AppLocker.create("sameId").build();
+
+        l1.lock();
+        final List<String> events = new CopyOnWriteArrayList<>();
+        final Subscription subscription = l3.<String>subscribe(events::add);
+        l2.standby("v2");
+
+        // messages keep flowing during the handover
+        final List<String> answers = new CopyOnWriteArrayList<>();
+        final List<Throwable> errors = new CopyOnWriteArrayList<>();
+        final Thread sender = new Thread(() -> {
+            try {
+                while (acquired.getCount() > 0) {
+                    answers.add(l3.sendMessage("ping"));
+                }
+            } catch (LockingException ex) {
+                errors.add(ex);
+            }
+        });
+        sender.start();
+        Thread.sleep(50);
+        l1.handover("v2", 1000);
+
+        Assertions.assertTrue(acquired.await(1, TimeUnit.SECONDS));
+        sender.join();
+        Assertions.assertEquals(Collections.emptyList(), errors);
+        Assertions.assertTrue(l2.isLocked());
+        Assertions.assertFalse(l1.isLocked());
+        Assertions.assertTrue(answers.contains("old"));
+        Assertions.assertEquals("new", l3.sendMessage("ping"));
+
+        // subscription follows the lock
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (l2.publish("event") == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        while (events.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assertions.assertEquals("event", events.get(0));
+        Assertions.assertTrue(subscription.isActive());
+
+        // cleanup
+        subscription.close();
+        l1.unlock();
+        l2.unlock();
+    }
+
+    @Test
+    void handover_redirects_shared_memory_and_framed_senders() throws Exception {
+        final AppLocker l1 = AppLocker.create("sameId")
+            .setMessageHandler((MessageHandler<String, String>) message -> "old").build();
+        final CountDownLatch acquired = new CountDownLatch(1);
+        final AppLocker l2 = AppLocker.create("sameId")
+            .setMessageHandler((MessageHandler<String, String>) message -> "new").onSuccess(acquired::countDown)
+            .build();
+        final AppLocker sharedMemory = AppLocker.create("sameId").setSharedMemoryCapacity(4096).build();
+        final AppLocker framed = AppLocker.create("sameId").setFramedTransport(true).build();
+
+        l1.lock();
+        // channels to the old holder are opened
+        Assertions.assertEquals("old", sharedMemory.sendMessage("ping"));
+        Assertions.assertEquals("old", framed.sendMessage("ping"));
+        l2.standby("v2");
+        l1.handover("v2", 1000);
+        Assertions.assertTrue(acquired.await(1, TimeUnit.SECONDS));
+
+        Assertions.assertEquals("new", sharedMemory.sendMessage("ping"));
+        Assertions.assertEquals("new", framed.sendMessage("ping"));
+
+        // cleanup
+        sharedMemory.close();
+        framed.close();
+        l1.unlock();
+        l2.unlock();
+    }
+
+    private static String trySend(final AppLocker sender) {
+        try {
+            return sender.sendMessage("ping");
+        } catch (LockingException ex) {
+            // the winner is restarting the message server
+            return null;
+        }
+    }
+
+    @Test
+    void handover_competes_with_other_standby() throws Exception {
+        final AppLocker l1 = AppLocker.create("sameId")
+            .setMessageHandler((MessageHandler<String, String>) message -> "old").build();
+        final AppLocker l2 = AppLocker.create("sameId")
+            .setMessageHandler((MessageHandler<String, String>) message -> "successor").build();
+        final AppLocker l3 = AppLocker.create("sameId")
+            .setMessageHandler((MessageHandler<String, String>) message -> "other").build();
+        final AppLocker sender = AppLocker.create("sameId").build();
+
+        l1.lock();
+        final Standby successor = l2.standby("v2");
+        final Standby other = l3.standby();
+        l1.handover("v2", 1000);
+
+        // the OS picks the winner, but there's only one
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (!l2.isLocked() && !l3.isLocked() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assertions.assertTrue(l2.isLocked() ^ l3.isLocked());
+        final String winner = l2.isLocked() ? "successor" : "other";
+        // the port file points to the successor until the winner publishes its own port
+        String answer = trySend(sender);
+        while (!winner.equals(answer) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            answer = trySend(sender);
+        }
+        Assertions.assertEquals(winner, answer);
+        Assertions.assertTrue(l2.isLocked() ^ l3.isLocked());
+
+        // cleanup
+        successor.close();
+        other.close();
+        l1.unlock();
+        l2.unlock();
+        l3.unlock();
+    }
+
+    @Test
+    void closed_standby_does_not_take_over() throws Exception {
+        final AppLocker l1 = AppLocker.create("sameId").build();
+        final AppLocker l2 = AppLocker.create("sameId").build();
+
+        l1.lock();
+        final Standby standby = l2.standby();
+        standby.close();
+        while (standby.isActive()) {
+            Thread.sleep(10);
+        }
+        l1.unlock();
+        Thread.sleep(100);
+        Assertions.assertFalse(l2.isLocked());
+
+        // cleanup
+        l2.unlock();
+    }
+
     @Test
     void lock_twice_throws() throws InterruptedException {
         final AppLocker l1 = AppLocker.create("sameId").build();
@@ -166,6 +404,564 @@ void communication_after_reacquiring_the_lock() throws InterruptedException {
         l2.unlock();
     }
 
+    @Test
+    void communication_with_async_handler() throws InterruptedException {
+        final AppLocker l1 = AppLocker.create("sameId")
+            .setAsyncMessageHandler((AsyncMessageHandler<String, String>) message ->
+                CompletableFuture.supplyAsync(() -> message + message))
+            .build();
+        final AppLocker l2 = AppLocker.create("sameId").build();
+
+        l1.lock();
+        String answer = l2.sendMessage("async");
+        Assertions.assertEquals("asyncasync", answer);
+
+        // cleanup
+        l1.unlock();
+        l2.unlock();
+    }
+
+    @Test
+    void communication_through_routes() throws InterruptedException {
+        final MessageCodec<String> codec = new MessageCodec<String>() {
+            @Override
+            public byte[] encode(final String message) {
+                return message.getBytes(StandardCharsets.UTF_8);
+            }
+
+            @Override
+            public String decode(final byte[] data) {
+                return new String(data, StandardCharsets.UTF_8);
+            }
+        };
+        final AppLocker l1 = AppLocker.create("sameId")
+            .route(Integer.class, (MessageHandler<Integer, Integer>) message -> message + 1)
+            .route(MessageRoute.forTag("reverse", codec, codec,
+                message -> CompletableFuture.completedFuture(new StringBuilder(message).reverse().toString())))
+            .setMessageHandler((MessageHandler<String, String>) message -> "fallback")
+            .build();
+        final AppLocker l2 = AppLocker.create("sameId").build();
+
+        l1.lock();
+        Integer number = l2.sendMessage(41);
+        Assertions.assertEquals(42, number);
+        String reversed = l2.sendMessage("reverse", "abc", codec, codec);
+        Assertions.assertEquals("cba", reversed);
+        String fallback = l2.sendMessage("abc");
+        Assertions.assertEquals("fallback", fallback);
+
+        // cleanup
+        l1.unlock();
+        l2.unlock();
+    }
+
+    @Test
+    void communication_with_streams() throws Exception {
+        final AppLocker l1 = AppLocker.create("sameId")
+            .setStreamHandler((message, answer) -> {
+                int b = message.read();
+                while (b != -1) {
+                    answer.write(Character.toUpperCase(b));
+                    b = message.read();
+                }
+            })
+            .build();
+        final AppLocker l2 = AppLocker.create("sameId").build();
+
+        l1.lock();
+        try (InputStream answer = l2.sendStream(new ByteArrayInputStream("stream".getBytes(StandardCharsets.UTF_8)))) {
+            final byte[] buffer = new byte[16];
+            final int read = answer.read(buffer);
+            Assertions.assertEquals("STREAM", new String(buffer, 0, read, StandardCharsets.UTF_8));
+            Assertions.assertEquals(-1, answer.read());
+        }
+        Assertions.assertThrows(LockingException.class, () -> l2.sendMessage("no handler"));
+
+        // cleanup
+        l1.unlock();
+        l2.unlock();
+    }
+
+    @Test
+    void communication_through_spill_file() throws Exception {
+        final Path directory = Paths.get("").toAbsolutePath().resolve("spillTest");
+        final AppLocker l1 = AppLocker.create("sameId").setPath(directory)
+            .setMessageHandler((MessageHandler<byte[], Integer>) message -> message.length).build();
+        final AppLocker l2 = AppLocker.create("sameId").setPath(directory).setSpillThreshold(1024).build();
+
+        l1.lock();
+        Integer small = l2.sendMessage(new byte[10]);
+        Assertions.assertEquals(10, small);
+        Integer large = l2.sendMessage(new byte[4 * 1024 * 1024]);
+        Assertions.assertEquals(4 * 1024 * 1024, large);
+
+        // cleanup
+        l1.unlock();
+        l2.unlock();
+        deleteTokenFiles(directory);
+        try (Stream<Path> files = Files.list(directory)) {
+            Assertions.assertEquals(0, files.count());
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    void communication_through_framed_transport() throws Exception {
+        final AppLocker l1 = AppLocker.create("sameId")
+            .setMessageHandler((MessageHandler<byte[], Integer>) message -> {
+                if (message.length == 1) {
+                    throw new IllegalStateException("fail");
+                }
+                return message.length;
+            }).build();
+        final AppLocker l2 = AppLocker.create("sameId").setFramedTransport(true).build();
+
+        l1.lock();
+        for (int i = 2; i < 100; ++i) {
+            Integer small = l2.sendMessage(new byte[i]);
+            Assertions.assertEquals(i, small);
+        }
+        // doesn't fit the pooled buffer
+        Integer large = l2.sendMessage(new byte[256 * 1024]);
+        Assertions.assertEquals(256 * 1024, large);
+        // handler failure doesn't break the connection
+        Assertions.assertThrows(LockingException.class, () -> l2.sendMessage(new byte[1]));
+        Integer answer = l2.sendMessage(new byte[10]);
+        Assertions.assertEquals(10, answer);
+
+        // the connection is re-opened to the new lock holder
+        l1.unlock();
+        final AppLocker l3 = AppLocker.create("sameId")
+            .setMessageHandler((MessageHandler<byte[], Integer>) message -> -message.length).build();
+        l3.lock();
+        answer = l2.sendMessage(new byte[10]);
+        Assertions.assertEquals(-10, answer);
+
+        // cleanup
+        l3.unlock();
+        l2.close();
+    }
+
+    @Test
+    void communication_with_compression() throws InterruptedException {
+        final AppLocker l1 = AppLocker.create("sameId").setCompressionThreshold(1024)
+            .setMessageHandler((MessageHandler<String, String>) message -> message + message).build();
+        final AppLocker l2 = AppLocker.create("sameId").setCompressionThreshold(1024).build();
+        final AppLocker l3 = AppLocker.create("sameId").build();
+        final String large = String.join("", Collections.nCopies(1000, "project state "));
+
+        l1.lock();
+        Assertions.assertEquals("smallsmall", l2.sendMessage("small"));
+        Assertions.assertEquals(large + large, l2.sendMessage(large));
+        // answers are not compressed for the senders which don't accept compression
+        Assertions.assertEquals(large + large, l3.sendMessage(large));
+
+        // cleanup
+        l1.unlock();
+        l2.unlock();
+        l3.unlock();
+    }
+
+    @Test
+    void every_transport_handles_normal_messages_in_one_lane() throws Exception {
+        final Path directory = Paths.get("").toAbsolutePath().resolve("laneTest");
+        final AppLocker l1 = AppLocker.create("sameId").setPath(directory)
+            .setMessageHandler((MessageHandler<String, String>) message -> Thread.currentThread().getName()).build();
+        final AppLocker socket = AppLocker.create("sameId").setPath(directory).build();
+        final AppLocker framed = AppLocker.create("sameId").setPath(directory).setFramedTransport(true).build();
+        final AppLocker sharedMemory = AppLocker.create("sameId").setPath(directory)
+            .setSharedMemoryCapacity(4096).build();
+
+        l1.lock();
+        final String lane = socket.sendMessage("socket");
+        Assertions.assertEquals("AppLocker MessageLane", lane);
+        Assertions.assertEquals(lane, framed.sendMessage("framed"));
+        Assertions.assertEquals(lane, sharedMemory.sendMessage("shared memory"));
+
+        // cleanup
+        framed.close();
+        sharedMemory.close();
+        l1.unlock();
+        deleteTokenFiles(directory);
+        Files.delete(directory);
+    }
+
+    @Test
+    void every_transport_rejects_messages_without_message_handler() throws Exception {
+        final Path directory = Paths.get("").toAbsolutePath().resolve("rejectTest");
+        final AppLocker l1 = AppLocker.create("sameId").setPath(directory)
+            .setStreamHandler((message, answer) -> answer.write(1)).build();
+        final AppLocker socket = AppLocker.create("sameId").setPath(directory).build();
+        final AppLocker framed = AppLocker.create("sameId").setPath(directory).setFramedTransport(true).build();
+        final AppLocker sharedMemory = AppLocker.create("sameId").setPath(directory)
+            .setSharedMemoryCapacity(4096).build();
+
+        l1.lock();
+        for (AppLocker sender : Arrays.asList(socket, framed, sharedMemory)) {
+            final LockingException ex = Assertions.assertThrows(LockingException.class,
+                () -> sender.sendMessage("test"));
+            Assertions.assertTrue(ex.getMessage().contains("message handler is not set"), ex.getMessage());
+        }
+        Assertions.assertThrows(LockingException.class, () -> socket.sendMessage("test", MessagePriority.HIGH));
+        // the persistent connections are still usable
+        Assertions.assertThrows(LockingException.class, () -> framed.sendMessage("test"));
+        Assertions.assertThrows(LockingException.class, () -> sharedMemory.sendMessage("test"));
+
+        // cleanup
+        framed.close();
+        sharedMemory.close();
+        l1.unlock();
+        deleteTokenFiles(directory);
+        Files.delete(directory);
+    }
+
+    @Test
+    void communication_through_shared_memory() throws Exception {
+        final Path directory = Paths.get("").toAbsolutePath().resolve("sharedMemoryTest");
+        final AppLocker l1 = AppLocker.create("sameId").setPath(directory)
+            .setMessageHandler((MessageHandler<byte[], Integer>) message -> message.length).build();
+        final AppLocker l2 = AppLocker.create("sameId").setPath(directory).setSharedMemoryCapacity(4096).build();
+
+        l1.lock();
+        for (int i = 0; i < 100; ++i) {
+            Integer small = l2.sendMessage(new byte[i]);
+            Assertions.assertEquals(i, small);
+        }
+        // doesn't fit the channel, goes through the socket
+        Integer large = l2.sendMessage(new byte[64 * 1024]);
+        Assertions.assertEquals(64 * 1024, large);
+
+        // the channel is re-opened to the new lock holder
+        l1.unlock();
+        final AppLocker l3 = AppLocker.create("sameId").setPath(directory)
+            .setMessageHandler((MessageHandler<byte[], Integer>) message -> -message.length).build();
+        l3.lock();
+        Integer answer = l2.sendMessage(new byte[10]);
+        Assertions.assertEquals(-10, answer);
+
+        // cleanup
+        l2.close();
+        l3.unlock();
+        deleteTokenFiles(directory);
+        try (Stream<Path> files = Files.list(directory)) {
+            Assertions.assertEquals(0, files.count());
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    void expired_messages_are_not_handled() throws Exception {
+        final List<String> handled = new CopyOnWriteArrayList<>();
+        final CountDownLatch started = new CountDownLatch(1);
+        final AppLocker l1 = AppLocker.create("sameId")
+            .setMessageHandler((MessageHandler<String, String>) message -> {
+                handled.add(message);
+                started.countDown();
+                if ("slow".equals(message)) {
+                    try {
+                        Thread.sleep(300);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return message;
+            }).build();
+        final AppLocker l2 = AppLocker.create("sameId").build();
+
+        l1.lock();
+        final CompletableFuture<String> slow = CompletableFuture.supplyAsync(() -> l2.sendMessage("slow", 5000));
+        Assertions.assertTrue(started.await(1, TimeUnit.SECONDS));
+        // message server is busy with the slow message
+        final LockingException ex = Assertions.assertThrows(LockingException.class,
+            () -> l2.sendMessage("expired", 50));
+        Assertions.assertEquals("Message deadline exceeded", ex.getMessage());
+        Assertions.assertEquals("slow", slow.get(1, TimeUnit.SECONDS));
+        Assertions.assertEquals("live", l2.sendMessage("live", 1000));
+        Assertions.assertEquals(Arrays.asList("slow", "live"), handled);
+
+        // cleanup
+        l1.unlock();
+        l2.unlock();
+    }
+
+    @Test
+    void high_priority_messages_bypass_normal_backlog() throws Exception {
+        final CountDownLatch bulkStarted = new CountDownLatch(1);
+        final CountDownLatch urgentHandled = new CountDownLatch(1);
+        final AppLocker l1 = AppLocker.create("sameId")
+            .setMessageHandler((MessageHandler<String, Boolean>) message -> {
+                if ("urgent".equals(message)) {
+                    urgentHandled.countDown();
+                    return true;
+                }
+                bulkStarted.countDown();
+                try {
+                    return urgentHandled.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }).build();
+        final AppLocker l2 = AppLocker.create("sameId").build();
+
+        l1.lock();
+        final CompletableFuture<Boolean> bulk = CompletableFuture.supplyAsync(() -> l2.sendMessage("bulk"));
+        final CompletableFuture<Boolean> queued = CompletableFuture.supplyAsync(() -> l2.sendMessage("queued"));
+        Assertions.assertTrue(bulkStarted.await(1, TimeUnit.SECONDS));
+        Assertions.assertEquals(true, l2.sendMessage("urgent", MessagePriority.HIGH));
+        Assertions.assertTrue(bulk.get(1, TimeUnit.SECONDS));
+        Assertions.assertTrue(queued.get(1, TimeUnit.SECONDS));
+
+        // cleanup
+        l1.unlock();
+        l2.unlock();
+    }
+
+    @Test
+    void circuit_breaker_fails_fast_on_wedged_holder() throws Exception {
+        final CountDownLatch wedged = new CountDownLatch(1);
+        final AppLocker l1 = AppLocker.create("sameId")
+            .setMessageHandler((MessageHandler<String, String>) message -> {
+                try {
+                    wedged.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                return message;
+            }).build();
+        // the call timeout leaves room for the slow build machine, the probe must not expire on its way
+        final AppLocker l2 = AppLocker.create("sameId").setCircuitBreaker(2, 300, 500).build();
+
+        l1.lock();
+        Assertions.assertThrows(LockingException.class, () -> l2.sendMessage("first"));
+        Assertions.assertEquals(CircuitState.CLOSED, l2.getCircuitState());
+        Assertions.assertThrows(LockingException.class, () -> l2.sendMessage("second"));
+        Assertions.assertEquals(CircuitState.OPEN, l2.getCircuitState());
+        final long start = System.currentTimeMillis();
+        Assertions.assertThrows(LockingException.class, () -> l2.sendMessage("third"));
+        Assertions.assertTrue(System.currentTimeMillis() - start < 50);
+
+        // holder recovers, the probe closes the circuit
+        wedged.countDown();
+        Thread.sleep(500);
+        Assertions.assertEquals(CircuitState.HALF_OPEN, l2.getCircuitState());
+        Assertions.assertEquals("probe", l2.sendMessage("probe"));
+        Assertions.assertEquals(CircuitState.CLOSED, l2.getCircuitState());
+
+        // cleanup
+        l1.unlock();
+        l2.unlock();
+    }
+
+    @Test
+    void circuit_breaker_is_not_shared_by_builder() throws Exception {
+        final CountDownLatch wedged = new CountDownLatch(1);
+        final AppLocker l1 = AppLocker.create("sameId")
+            .setMessageHandler((MessageHandler<String, String>) message -> {
+                try {
+                    wedged.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                return message;
+            }).build();
+        final AppLocker.Builder builder = AppLocker.create("sameId").setCircuitBreaker(1, 50, 10_000);
+        final AppLocker l2 = builder.build();
+        final AppLocker l3 = builder.build();
+
+        l1.lock();
+        Assertions.assertThrows(LockingException.class, () -> l2.sendMessage("first"));
+        Assertions.assertEquals(CircuitState.OPEN, l2.getCircuitState());
+        Assertions.assertEquals(CircuitState.CLOSED, l3.getCircuitState());
+
+        // cleanup
+        wedged.countDown();
+        l1.unlock();
+    }
+
+    @Test
+    void journaled_messages_are_replayed_by_next_holder() throws Exception {
+        final Path directory = Paths.get("").toAbsolutePath().resolve("journalTest");
+        final List<String> handled = new CopyOnWriteArrayList<>();
+        final AppLocker l1 = AppLocker.create("sameId").setPath(directory).setJournalCapacity(256)
+            .setMessageHandler((MessageHandler<String, String>) message -> {
+                handled.add(message);
+                return message;
+            }).build();
+        final AppLocker l2 = AppLocker.create("sameId").setPath(directory).setJournalCapacity(256).build();
+
+        Assertions.assertThrows(LockingException.class, () -> l2.sendMessage("no holder"));
+        Assertions.assertFalse(l2.<String, String>sendOrJournal("first").isPresent());
+        Assertions.assertFalse(l2.<String, String>sendOrJournal("second").isPresent());
+        Assertions.assertThrows(LockingException.class, () -> l2.sendOrJournal(new byte[256]));
+
+        // journaled messages are handled before the port is published
+        l1.lock();
+        Assertions.assertEquals(Arrays.asList("first", "second"), handled);
+        Assertions.assertEquals(Optional.of("third"), l2.sendOrJournal("third"));
+        Assertions.assertEquals(Arrays.asList("first", "second", "third"), handled);
+
+        // nothing is replayed twice
+        l1.unlock();
+        l1.lock();
+        Assertions.assertEquals(3, handled.size());
+
+        // cleanup
+        l1.close();
+        l2.close();
+        deleteTokenFiles(directory);
+        try (Stream<Path> files = Files.list(directory)) {
+            // journal outlives the locks by design
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Assertions.assertTrue(file.getFileName().toString().endsWith(".journal"));
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    void journaled_message_stays_in_journal_until_handled() throws Exception {
+        final Path directory = Paths.get("").toAbsolutePath().resolve("journalFailTest");
+        final List<String> handled = new CopyOnWriteArrayList<>();
+        final Set<String> attempted = ConcurrentHashMap.newKeySet();
+        final AppLocker l1 = AppLocker.create("sameId").setPath(directory).setJournalCapacity(256)
+            .setJournalReplayTimeout(100)
+            .setAsyncMessageHandler((AsyncMessageHandler<String, String>) message -> {
+                final boolean first = attempted.add(message);
+                if (first && "fail".equals(message)) {
+                    throw new IllegalStateException("First attempt fails");
+                }
+                if (first && "slow".equals(message)) {
+                    // never completes
+                    return new CompletableFuture<>();
+                }
+                handled.add(message);
+                return CompletableFuture.completedFuture(message);
+            }).build();
+        final AppLocker l2 = AppLocker.create("sameId").setPath(directory).setJournalCapacity(256).build();
+
+        Assertions.assertFalse(l2.<String, String>sendOrJournal("fail").isPresent());
+        Assertions.assertFalse(l2.<String, String>sendOrJournal("slow").isPresent());
+        Assertions.assertFalse(l2.<String, String>sendOrJournal("ok").isPresent());
+
+        // the failed message and the ones after it aren't dropped
+        Assertions.assertThrows(LockingException.class, l1::lock);
+        Assertions.assertFalse(l1.isLocked());
+        Assertions.assertTrue(handled.isEmpty());
+        Assertions.assertThrows(LockingException.class, l1::lock);
+        Assertions.assertEquals(Collections.singletonList("fail"), handled);
+        l1.lock();
+        Assertions.assertEquals(Arrays.asList("fail", "slow", "ok"), handled);
+
+        // cleanup
+        l1.close();
+        l2.close();
+        deleteTokenFiles(directory);
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    void lock_service_is_shared_between_hosts() throws Exception {
+        // different directories stand for the different hosts
+        final Path hostA = Paths.get("").toAbsolutePath().resolve("serviceTestA");
+        final Path hostB = Paths.get("").toAbsolutePath().resolve("serviceTestB");
+        try (LockService service = LockService.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+            final AppLocker l1 = AppLocker.create("sameId").setPath(hostA)
+                .setLockService(service.getAddress(), 300).build();
+            final AppLocker l2 = AppLocker.create("sameId").setPath(hostB)
+                .setLockService(service.getAddress(), 300).build();
+
+            l1.lock();
+            Assertions.assertThrows(LockingBusyException.class, l2::lock);
+            Assertions.assertFalse(l2.isLocked());
+            // the lease is renewed in background
+            Thread.sleep(1000);
+            Assertions.assertTrue(l1.isLocked());
+            Assertions.assertThrows(LockingBusyException.class, l2::lock);
+
+            final long token = l1.getFencingToken();
+            l1.unlock();
+            l2.lock();
+            Assertions.assertTrue(l2.isLocked());
+            Assertions.assertTrue(l2.getFencingToken() > token);
+
+            // cleanup
+            l1.close();
+            l2.close();
+        }
+        Files.delete(hostA);
+        Files.delete(hostB);
+    }
+
+    @Test
+    void lock_all_rolls_back_when_one_is_busy() throws Exception {
+        final List<String> acquired = new CopyOnWriteArrayList<>();
+        final List<AppLocker> lockers = Arrays.asList(
+            AppLocker.create("idC").onSuccess(() -> acquired.add("idC")).build(),
+            AppLocker.create("idA").onSuccess(() -> acquired.add("idA")).build(),
+            AppLocker.create("idB").onSuccess(() -> acquired.add("idB")).build());
+        final AppLocker other = AppLocker.create("idB").build();
+
+        other.lock();
+        final LockingBusyException ex = Assertions.assertThrows(LockingBusyException.class,
+            () -> AppLocker.lockAll(lockers));
+        Assertions.assertEquals("idB", ex.getLockId());
+        for (AppLocker locker : lockers) {
+            Assertions.assertFalse(locker.isLocked());
+        }
+        Assertions.assertTrue(acquired.isEmpty());
+
+        other.unlock();
+        AppLocker.lockAll(lockers);
+        for (AppLocker locker : lockers) {
+            Assertions.assertTrue(locker.isLocked());
+        }
+        Assertions.assertEquals(3, acquired.size());
+        Assertions.assertThrows(LockingBusyException.class, other::lock);
+        Assertions.assertThrows(IllegalArgumentException.class,
+            () -> AppLocker.lockAll(Arrays.asList(other, lockers.get(2))));
+
+        // cleanup
+        for (AppLocker locker : lockers) {
+            locker.unlock();
+        }
+    }
+
+    @Test
+    void subscription_to_lock_holder_events() throws InterruptedException {
+        final AppLocker l1 = AppLocker.create("sameId").setSubscriberBuffer(16, SlowSubscriberPolicy.DROP_OLDEST)
+            .build();
+        final AppLocker l2 = AppLocker.create("sameId").build();
+
+        Assertions.assertThrows(LockingException.class, () -> l1.publish("not locked"));
+        l1.lock();
+
+        final List<String> events = new CopyOnWriteArrayList<>();
+        final Subscription subscription = l2.<String>subscribe(events::add);
+        l1.publish("event");
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (events.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assertions.assertEquals(Collections.singletonList("event"), events);
+
+        // subscription ends along with the lock
+        l1.unlock();
+        while (subscription.isActive() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assertions.assertFalse(subscription.isActive());
+
+        // cleanup
+        l2.unlock();
+    }
+
     @Test
     void custom_name_provider() throws InterruptedException {
         LockIdEncoder doubleName = string -> string + string;
@@ -0,0 +1,48 @@
+package io.github.sanyarnd.applocker;
+
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class CircuitBreakerTest {
+    @Test
+    void opens_after_failures_in_a_row() {
+        final CircuitBreaker breaker = new CircuitBreaker(2, 100, 1000, () -> 0);
+
+        breaker.acquire();
+        breaker.complete(false);
+        breaker.acquire();
+        breaker.complete(true);
+        // success resets the counter
+        breaker.acquire();
+        breaker.complete(false);
+        Assertions.assertEquals(CircuitState.CLOSED, breaker.getState());
+
+        breaker.acquire();
+        breaker.complete(false);
+        Assertions.assertEquals(CircuitState.OPEN, breaker.getState());
+        Assertions.assertThrows(LockingException.class, breaker::acquire);
+    }
+
+    @Test
+    void single_probe_after_open_period() {
+        final AtomicLong clock = new AtomicLong();
+        final CircuitBreaker breaker = new CircuitBreaker(1, 100, 1000, clock::get);
+        breaker.acquire();
+        breaker.complete(false);
+
+        clock.set(1000);
+        Assertions.assertEquals(CircuitState.HALF_OPEN, breaker.getState());
+        breaker.acquire();
+        // the other calls fail until the probe is answered
+        Assertions.assertThrows(LockingException.class, breaker::acquire);
+        breaker.complete(false);
+        Assertions.assertEquals(CircuitState.OPEN, breaker.getState());
+
+        clock.set(2000);
+        breaker.acquire();
+        breaker.complete(true);
+        Assertions.assertEquals(CircuitState.CLOSED, breaker.getState());
+        Assertions.assertDoesNotThrow(breaker::acquire);
+    }
+}
@@ -0,0 +1,93 @@
+package io.github.sanyarnd.applocker;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class CoalescingMessageHandlerTest {
+    @Test
+    void concurrent_identical_messages_invoke_handler_once() {
+        final AtomicInteger calls = new AtomicInteger();
+        final CompletableFuture<String> answer = new CompletableFuture<>();
+        final CoalescingMessageHandler<String, String> handler = new CoalescingMessageHandler<>(message -> {
+            calls.incrementAndGet();
+            return answer;
+        }, message -> true, 0, 0);
+
+        final CompletionStage<String> first = handler.handleMessageAsync("status");
+        final CompletionStage<String> second = handler.handleMessageAsync("status");
+        answer.complete("ok");
+
+        Assertions.assertEquals(1, calls.get());
+        Assertions.assertEquals("ok", first.toCompletableFuture().join());
+        Assertions.assertEquals("ok", second.toCompletableFuture().join());
+
+        // nothing is cached, so the next message invokes the handler again
+        handler.handleMessageAsync("status");
+        Assertions.assertEquals(2, calls.get());
+    }
+
+    @Test
+    void cached_answer_is_reused() {
+        final AtomicInteger calls = new AtomicInteger();
+        final CoalescingMessageHandler<String, Integer> handler =
+            new CoalescingMessageHandler<>((MessageHandler<String, Integer>) message -> calls.incrementAndGet(),
+                message -> true, 10, 60_000);
+
+        Assertions.assertEquals(1, handler.handleMessageAsync("a").toCompletableFuture().join());
+        Assertions.assertEquals(1, handler.handleMessageAsync("a").toCompletableFuture().join());
+        Assertions.assertEquals(2, handler.handleMessageAsync("b").toCompletableFuture().join());
+
+        handler.invalidateAll();
+        Assertions.assertEquals(3, handler.handleMessageAsync("a").toCompletableFuture().join());
+    }
+
+    @Test
+    void cache_is_bounded_and_expires() throws InterruptedException {
+        final AtomicInteger calls = new AtomicInteger();
+        final CoalescingMessageHandler<String, Integer> bounded =
+            new CoalescingMessageHandler<>((MessageHandler<String, Integer>) message -> calls.incrementAndGet(),
+                message -> true, 1, 60_000);
+        bounded.handleMessageAsync("a");
+        bounded.handleMessageAsync("b");
+        bounded.handleMessageAsync("a");
+        Assertions.assertEquals(3, calls.get());
+
+        final CoalescingMessageHandler<String, Integer> expiring =
+            new CoalescingMessageHandler<>((MessageHandler<String, Integer>) message -> calls.incrementAndGet(),
+                message -> true, 10, 1);
+        expiring.handleMessageAsync("a");
+        Thread.sleep(10);
+        expiring.handleMessageAsync("a");
+        Assertions.assertEquals(5, calls.get());
+    }
+
+    @Test
+    void non_idempotent_messages_are_not_coalesced() {
+        final AtomicInteger calls = new AtomicInteger();
+        final CoalescingMessageHandler<String, Integer> handler =
+            new CoalescingMessageHandler<>((MessageHandler<String, Integer>) message -> calls.incrementAndGet(),
+                "status"::equals, 10, 60_000);
+
+        handler.handleMessageAsync("open");
+        handler.handleMessageAsync("open");
+        handler.handleMessageAsync("status");
+        handler.handleMessageAsync("status");
+        Assertions.assertEquals(3, calls.get());
+    }
+
+    @Test
+    void failed_answer_is_not_cached() {
+        final AtomicInteger calls = new AtomicInteger();
+        final CoalescingMessageHandler<String, String> handler = new CoalescingMessageHandler<>(message -> {
+            calls.incrementAndGet();
+            throw new IllegalStateException();
+        }, message -> true, 10, 60_000);
+
+        Assertions.assertTrue(handler.handleMessageAsync("a").toCompletableFuture().isCompletedExceptionally());
+        Assertions.assertTrue(handler.handleMessageAsync("a").toCompletableFuture().isCompletedExceptionally());
+        Assertions.assertEquals(2, calls.get());
+    }
+}
@@ -0,0 +1,144 @@
+package io.github.sanyarnd.applocker;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Forks {@link StressWorker} processes contending for the same lock and checks the merged reports.
+ * <br>
+ * Excluded from the regular build, run with {@code mvn test -Pstress}, the load is tuned with
+ * {@code -Dapplocker.stress.workers=N}, {@code -Dapplocker.stress.durationMs=T} and
+ * {@code -Dapplocker.stress.maxHoldMs=H}.
+ */
+@Tag("stress")
+class ContentionStressTest {
+    private static final Logger LOG = LoggerFactory.getLogger(ContentionStressTest.class);
+    private static final int WORKERS = Integer.getInteger("applocker.stress.workers", 4);
+    private static final long DURATION_MS = Long.getLong("applocker.stress.durationMs", 10_000);
+    // long enough for the messages to reach the holder
+    private static final long MAX_HOLD_MS = Long.getLong("applocker.stress.maxHoldMs", 200);
+    private static final long STARTUP_GRACE_MS = 30_000;
+
+    private static String percentiles(final List<Long> nanos) {
+        if (nanos.isEmpty()) {
+            return "n/a";
+        }
+        final long[] sorted = nanos.stream().mapToLong(Long::longValue).sorted().toArray();
+        return String.format("p50=%dus p99=%dus p999=%dus max=%dus",
+            percentile(sorted, 0.5), percentile(sorted, 0.99), percentile(sorted, 0.999),
+            TimeUnit.NANOSECONDS.toMicros(sorted[sorted.length - 1]));
+    }
+
+    private static long percentile(final long[] sorted, final double rank) {
+        final int index = (int) Math.ceil(rank * sorted.length) - 1;
+        return TimeUnit.NANOSECONDS.toMicros(sorted[Math.max(index, 0)]);
+    }
+
+    @Test
+    void holders_never_overlap_and_messages_are_not_lost() throws Exception {
+        final Path directory = Files.createTempDirectory("stress");
+        final String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+
+        final List<Process> processes = new ArrayList<>();
+        final List<Path> reports = new ArrayList<>();
+        for (int i = 0; i < WORKERS; i++) {
+            final Path report = directory.resolve("worker-" + i + ".txt");
+            reports.add(report);
+            processes.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                StressWorker.class.getName(), directory.toString(), Long.toString(DURATION_MS),
+                Long.toString(MAX_HOLD_MS), report.toString(), Integer.toString(i))
+                .redirectErrorStream(true)
+                .redirectOutput(directory.resolve("worker-" + i + ".log").toFile())
+                .start());
+        }
+        for (Process process : processes) {
+            Assertions.assertTrue(process.waitFor(DURATION_MS + STARTUP_GRACE_MS, TimeUnit.MILLISECONDS),
+                "Worker is stuck");
+            Assertions.assertEquals(0, process.exitValue(), "Worker has crashed, see the logs in " + directory);
+        }
+
+        final List<Long> lockLatencies = new ArrayList<>();
+        final List<Long> messageLatencies = new ArrayList<>();
+        final List<long[]> holds = new ArrayList<>();
+        final Set<String> acknowledged = new HashSet<>();
+        final Map<String, Integer> received = new HashMap<>();
+        final List<String> violations = new ArrayList<>();
+        int busy = 0;
+        int failed = 0;
+        for (Path report : reports) {
+            for (String line : Files.readAllLines(report)) {
+                final String[] columns = line.split(" ");
+                switch (columns[0]) {
+                    case "L":
+                        lockLatencies.add(Long.parseLong(columns[1]));
+                        break;
+                    case "H":
+                        holds.add(new long[] {Long.parseLong(columns[1]), Long.parseLong(columns[2])});
+                        break;
+                    case "B":
+                        busy++;
+                        break;
+                    case "M":
+                        messageLatencies.add(Long.parseLong(columns[1]));
+                        break;
+                    case "A":
+                        acknowledged.add(columns[1]);
+                        break;
+                    case "X":
+                        violations.add("Wrong answer: " + line);
+                        break;
+                    case "F":
+                        failed++;
+                        break;
+                    case "R":
+                        received.merge(columns[1], 1, Integer::sum);
+                        break;
+                    default:
+                        violations.add("Unknown record: " + line);
+                }
+            }
+        }
+
+        holds.sort((a, b) -> Long.compare(a[0], b[0]));
+        for (int i = 1; i < holds.size(); i++) {
+            if (holds.get(i)[0] < holds.get(i - 1)[1]) {
+                violations.add("Two holders at once: " + Arrays.toString(holds.get(i - 1))
+                    + " and " + Arrays.toString(holds.get(i)));
+            }
+        }
+        for (String message : acknowledged) {
+            if (!received.containsKey(message)) {
+                violations.add("Acknowledged message is lost: " + message);
+            }
+        }
+        received.forEach((message, count) -> {
+            if (count > 1) {
+                violations.add("Message is handled " + count + " times: " + message);
+            }
+        });
+
+        final double seconds = DURATION_MS / 1000.0;
+        LOG.info("{} workers, {} ms, holding up to {} ms", WORKERS, DURATION_MS, MAX_HOLD_MS);
+        LOG.info("lock: {} attempts/s, {} acquisitions/s, {} busy, {}", Math.round(lockLatencies.size() / seconds),
+            Math.round(holds.size() / seconds), busy, percentiles(lockLatencies));
+        LOG.info("message: {} round trips/s, {} failed, {}", Math.round(messageLatencies.size() / seconds), failed,
+            percentiles(messageLatencies));
+
+        Assertions.assertFalse(holds.isEmpty(), "Lock has never been acquired");
+        Assertions.assertTrue(violations.isEmpty(), String.join("\n", violations));
+    }
+}
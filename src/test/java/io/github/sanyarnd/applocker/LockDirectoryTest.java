@@ -0,0 +1,78 @@
+package io.github.sanyarnd.applocker;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class LockDirectoryTest {
+    private static void await(final BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assertions.assertTrue(condition.getAsBoolean());
+    }
+
+    @Test
+    void held_locks_are_listed_without_touching_them() throws Exception {
+        final Path directory = Paths.get("").toAbsolutePath().resolve("introspectionTest");
+        final AppLocker l1 = AppLocker.create("first").setPath(directory)
+            .setMessageHandler((MessageHandler<String, String>) message -> message).build();
+        final AppLocker l2 = AppLocker.create("second").setPath(directory).build();
+        // left by the crashed holder
+        Files.createDirectories(directory);
+        final Path stale = directory.resolve(
+            String.format(AppLocker.LOCK_NAME_PATTERN, LockIdEncoder.sha1().encode("stale")));
+        Files.createFile(stale);
+
+        try (LockDirectory locks = LockDirectory.watch(directory)) {
+            Assertions.assertEquals(1, locks.getLocks().size());
+            l1.lock();
+            l2.lock();
+            await(() -> locks.getLocks().size() == 3 && locks.getLock("first").get().getPort().isPresent());
+
+            final LockInfo first = locks.getLock("first").get();
+            Assertions.assertTrue(first.isHeld());
+            Assertions.assertNotNull(first.getPortPublished());
+            final String pid = ManagementFactory.getRuntimeMXBean().getName().split("@")[0];
+            first.getOwnerPid().ifPresent(owner -> Assertions.assertEquals(Long.parseLong(pid), owner));
+            final LockInfo second = locks.getLock("second").get();
+            Assertions.assertTrue(second.isHeld());
+            Assertions.assertFalse(second.getPort().isPresent());
+            if (Files.isReadable(Paths.get("/proc/locks"))) {
+                Assertions.assertFalse(locks.getLock("stale").get().isHeld());
+            }
+            // introspection doesn't disturb the holders
+            Assertions.assertTrue(l1.isLocked());
+            Assertions.assertTrue(l2.isLocked());
+
+            l1.unlock();
+            await(() -> !locks.getLock("first").isPresent());
+            final List<LockInfo> left = locks.getLocks();
+            Assertions.assertEquals(2, left.size());
+            Assertions.assertEquals(Optional.empty(), locks.getLock("unknown"));
+        } finally {
+            // cleanup
+            l1.close();
+            l2.close();
+            Files.delete(stale);
+            AppLockerTest.deleteTokenFiles(directory);
+            deleteDirectory(directory);
+        }
+    }
+
+    private static void deleteDirectory(final Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            Assertions.assertEquals(0, files.count());
+        }
+        Files.delete(directory);
+    }
+}
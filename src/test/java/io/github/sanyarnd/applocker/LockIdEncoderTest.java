@@ -0,0 +1,47 @@
+package io.github.sanyarnd.applocker;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class LockIdEncoderTest {
+    @Test
+    void sha1_names_are_unchanged() {
+        final LockIdEncoder encoder = LockIdEncoder.sha1();
+        Assertions.assertEquals("da39a3ee5e6b4b0d3255bfef95601890afd80709", encoder.encode(""));
+        Assertions.assertEquals("348e90ba44ca6fd5d268ec586a9e3602566af951", encoder.encode("Unique global lock"));
+        Assertions.assertEquals("40cc0e5c4c3399bb48e1458be703031a440a5249", encoder.encode("блок-42"));
+    }
+
+    @Test
+    void murmur3_matches_reference_implementation() {
+        // reference values are computed with Guava
+        final LockIdEncoder encoder = LockIdEncoder.murmur3();
+        Assertions.assertEquals("00000000000000000000000000000000", encoder.encode(""));
+        Assertions.assertEquals("029bbd41b3a7d8cb191dae486a901e5b", encoder.encode("hello"));
+        Assertions.assertEquals("a7d14acf946de04bda08a7635c5bc387", encoder.encode("0123456789abcdef"));
+        Assertions.assertEquals("df1f4f31370ade690f0b6b1770aad550", encoder.encode("Unique global lock"));
+        Assertions.assertEquals("7df2ef2ad88e97025c93df448eb722ed", encoder.encode("блок-42"));
+    }
+
+    @Test
+    void memoizing_encoder_forgets_least_recently_used() {
+        final AtomicInteger calls = new AtomicInteger();
+        final LockIdEncoder encoder = LockIdEncoder.memoizing(id -> {
+            calls.incrementAndGet();
+            return id + id;
+        }, 2);
+
+        Assertions.assertEquals("aa", encoder.encode("a"));
+        Assertions.assertEquals("bb", encoder.encode("b"));
+        Assertions.assertEquals("aa", encoder.encode("a"));
+        Assertions.assertEquals(2, calls.get());
+
+        // "b" is the least recently used
+        encoder.encode("c");
+        encoder.encode("a");
+        Assertions.assertEquals(3, calls.get());
+        encoder.encode("b");
+        Assertions.assertEquals(4, calls.get());
+    }
+}
@@ -0,0 +1,72 @@
+package io.github.sanyarnd.applocker;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class LockServiceTest {
+    private static LockService startService() {
+        return LockService.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+
+    @Test
+    void pipelined_requests_are_answered_in_order() {
+        try (LockService service = startService();
+             LockServiceClient client = LockServiceClient.connect(service.getAddress(), 1000)) {
+            final List<CompletableFuture<LockServiceClient.Answer>> answers = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                answers.add(client.request(LeaseOperation.ACQUIRE, "lease" + i % 2, "owner" + i % 4, 0, 10_000));
+            }
+
+            // owner0 and owner1 take the leases, owner2 and owner3 are busy
+            for (int i = 0; i < answers.size(); i++) {
+                final LockServiceClient.Answer answer = answers.get(i).join();
+                Assertions.assertEquals(i % 4 < 2 ? LeaseStatus.GRANTED : LeaseStatus.BUSY, answer.getStatus());
+            }
+        }
+    }
+
+    @Test
+    void lease_expires_unless_renewed() throws InterruptedException {
+        try (LockService service = startService();
+             LockServiceClient client = LockServiceClient.connect(service.getAddress(), 1000)) {
+            final long token = client.call(LeaseOperation.ACQUIRE, "lease", "owner1", 0, 200).getToken();
+            Assertions.assertEquals(LeaseStatus.BUSY,
+                client.call(LeaseOperation.ACQUIRE, "lease", "owner2", 0, 200).getStatus());
+
+            Thread.sleep(150);
+            Assertions.assertEquals(LeaseStatus.GRANTED,
+                client.call(LeaseOperation.RENEW, "lease", "owner1", token, 200).getStatus());
+            Thread.sleep(150);
+            Assertions.assertEquals(LeaseStatus.BUSY,
+                client.call(LeaseOperation.ACQUIRE, "lease", "owner2", 0, 200).getStatus());
+
+            Thread.sleep(250);
+            final LockServiceClient.Answer taken = client.call(LeaseOperation.ACQUIRE, "lease", "owner2", 0, 200);
+            Assertions.assertEquals(LeaseStatus.GRANTED, taken.getStatus());
+            Assertions.assertTrue(taken.getToken() > token);
+            Assertions.assertEquals(LeaseStatus.LOST,
+                client.call(LeaseOperation.RENEW, "lease", "owner1", token, 200).getStatus());
+            Assertions.assertEquals(LeaseStatus.LOST,
+                client.call(LeaseOperation.RELEASE, "lease", "owner1", token, 200).getStatus());
+        }
+    }
+
+    @Test
+    void silent_service_fails_the_call_in_time() throws Exception {
+        // accepts the connection, but never answers
+        try (ServerSocket silent = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+             LockServiceClient client = LockServiceClient.connect(
+                 new InetSocketAddress(InetAddress.getLoopbackAddress(), silent.getLocalPort()), 1000)) {
+            final long start = System.currentTimeMillis();
+            Assertions.assertThrows(LockingException.class,
+                () -> client.call(LeaseOperation.ACQUIRE, "lease", "owner1", 0, 100));
+            Assertions.assertTrue(System.currentTimeMillis() - start < 1000);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package io.github.sanyarnd.applocker;
 
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.concurrent.ExecutionException;
@@ -44,6 +45,37 @@ void lock_looplock_doesnt_throw() throws InterruptedException, ExecutionExceptio
         executor.shutdown();
     }
 
+    @Test
+    void waiter_detects_file_deleted_after_release() throws Exception {
+        // the other tests might still hold their locks from the background threads
+        final Path file = Paths.get("").toAbsolutePath().resolve("deletedFile");
+
+        final Lock holder = new Lock(file);
+        holder.tryLock();
+        final Lock waiter = new Lock(file);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<?> future = executor.submit(() -> {
+            waiter.awaitLock();
+            return null;
+        });
+        while (waiter.getState() != LockState.ACQUIRING && !future.isDone()) {
+            Thread.sleep(1);
+        }
+        // the waiter wakes up between the release and the deletion
+        holder.release();
+        future.get();
+        Files.delete(file);
+        final Lock third = new Lock(file);
+        third.tryLock();
+
+        Assertions.assertTrue(waiter.isLocked());
+        Assertions.assertFalse(waiter.isOnCurrentFile());
+
+        waiter.release();
+        third.close();
+        executor.shutdown();
+    }
+
     @Test
     void lock_throws_if_timeout_exceeded() {
         final Path file = Paths.get("").toAbsolutePath().resolve("testFile");
@@ -57,4 +89,36 @@ void lock_throws_if_timeout_exceeded() {
         lock.close();
         lock2.close();
     }
+
+    @Test
+    void state_is_visible_during_acquisition() throws Exception {
+        final Path file = Paths.get("").toAbsolutePath().resolve("testFile");
+
+        Lock lock = new Lock(file);
+        lock.tryLock();
+        Lock lock2 = new Lock(file);
+        Assertions.assertEquals(LockState.UNLOCKED, lock2.getState());
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<?> future = executor.submit(() -> {
+            lock2.lock(5000);
+            return null;
+        });
+        while (lock2.getState() != LockState.ACQUIRING) {
+            Thread.sleep(1);
+        }
+        // status queries don't wait for the acquisition
+        Assertions.assertFalse(lock2.isLocked());
+        Assertions.assertThrows(LockingBusyException.class, lock2::tryLock);
+
+        lock.close();
+        future.get();
+        Assertions.assertEquals(LockState.LOCKED, lock2.getState());
+        Assertions.assertTrue(lock2.isLocked());
+
+        lock2.close();
+        Assertions.assertEquals(LockState.UNLOCKED, lock2.getState());
+        Assertions.assertFalse(lock2.isLocked());
+        executor.shutdown();
+    }
 }
@@ -0,0 +1,40 @@
+package io.github.sanyarnd.applocker;
+
+import java.nio.ByteBuffer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class MappedRingTest {
+    @Test
+    void records_wrap_around_the_end() {
+        final MappedRing ring = new MappedRing(ByteBuffer.allocateDirect(MappedRing.HEADER_SIZE + 64));
+        Assertions.assertNull(ring.poll());
+
+        for (int i = 0; i < 100; ++i) {
+            final byte[] record = new byte[1 + i % 40];
+            record[0] = (byte) i;
+            record[record.length - 1] = (byte) -i;
+            Assertions.assertTrue(ring.offer(ByteBuffer.wrap(record)));
+
+            final byte[] received = ring.poll();
+            Assertions.assertNotNull(received);
+            Assertions.assertArrayEquals(record, received);
+        }
+        Assertions.assertNull(ring.poll());
+    }
+
+    @Test
+    void full_ring_rejects_records() {
+        final MappedRing ring = new MappedRing(ByteBuffer.allocateDirect(MappedRing.HEADER_SIZE + 64));
+        Assertions.assertFalse(ring.offer(ByteBuffer.allocate(ring.maxRecordSize() + 1)));
+
+        Assertions.assertTrue(ring.offer(ByteBuffer.allocate(28)));
+        Assertions.assertTrue(ring.offer(ByteBuffer.allocate(28)));
+        Assertions.assertFalse(ring.offer(ByteBuffer.allocate(1)));
+
+        Assertions.assertEquals(28, ring.poll().length);
+        Assertions.assertTrue(ring.offer(ByteBuffer.allocate(0)));
+        Assertions.assertEquals(28, ring.poll().length);
+        Assertions.assertEquals(0, ring.poll().length);
+    }
+}
@@ -0,0 +1,122 @@
+package io.github.sanyarnd.applocker;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class MessageRouterTest {
+    private static final MessageCodec<String> UTF8 = new MessageCodec<String>() {
+        @Override
+        public byte[] encode(final String message) {
+            return message.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String decode(final byte[] data) {
+            return new String(data, StandardCharsets.UTF_8);
+        }
+    };
+
+    private static Serializable route(final MessageRouter router, final Serializable message) {
+        return router.handleMessageAsync(message).toCompletableFuture().join();
+    }
+
+    @Test
+    void messages_are_dispatched_by_type() {
+        final MessageRouter router = new MessageRouter(Arrays.asList(
+            MessageRoute.forType(String.class, (MessageHandler<String, String>) message -> "string"),
+            MessageRoute.forType(Integer.class, (MessageHandler<Integer, String>) message -> "integer")
+        ), null);
+
+        Assertions.assertEquals("string", route(router, "a"));
+        Assertions.assertEquals("integer", route(router, 1));
+    }
+
+    @Test
+    void most_specific_route_wins() {
+        final MessageRouter router = new MessageRouter(Arrays.asList(
+            MessageRoute.forType(Number.class, (MessageHandler<Number, String>) message -> "number"),
+            MessageRoute.forType(Long.class, (MessageHandler<Long, String>) message -> "long"),
+            MessageRoute.forType(Command.class, (MessageHandler<Command, String>) message -> "command")
+        ), null);
+
+        Assertions.assertEquals("long", route(router, 1L));
+        Assertions.assertEquals("number", route(router, 1));
+        Assertions.assertEquals("command", route(router, new Focus()));
+    }
+
+    @Test
+    void unmatched_message_goes_to_fallback() {
+        final List<MessageRoute<?, ?>> routes = Collections.singletonList(
+            MessageRoute.forType(String.class, (MessageHandler<String, String>) message -> "string"));
+
+        final MessageRouter withFallback =
+            new MessageRouter(routes, (MessageHandler<Serializable, String>) message -> "fallback");
+        Assertions.assertEquals("fallback", route(withFallback, 1));
+
+        final MessageRouter withoutFallback = new MessageRouter(routes, null);
+        Assertions.assertTrue(withoutFallback.handleMessageAsync(1).toCompletableFuture().isCompletedExceptionally());
+    }
+
+    @Test
+    void duplicate_routes_throw() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new MessageRouter(Arrays.asList(
+            MessageRoute.forType(String.class, (MessageHandler<String, String>) message -> "1"),
+            MessageRoute.forType(String.class, (MessageHandler<String, String>) message -> "2")
+        ), null));
+    }
+
+    @Test
+    void tagged_messages_use_route_codecs() {
+        final MessageRouter router = new MessageRouter(Collections.singletonList(
+            MessageRoute.forTag("upper", UTF8, UTF8,
+                message -> CompletableFuture.completedFuture(message.toUpperCase()))
+        ), null);
+
+        final TaggedMessage answer = (TaggedMessage) route(router, new TaggedMessage("upper", UTF8.encode("abc")));
+        Assertions.assertEquals("ABC", UTF8.decode(answer.getPayload()));
+    }
+
+    @Test
+    void concurrency_limit_queues_messages() {
+        final List<CompletableFuture<String>> started = new ArrayList<>();
+        final MessageRoute<String, String> route = MessageRoute.forType(String.class, message -> {
+            final CompletableFuture<String> answer = new CompletableFuture<>();
+            started.add(answer);
+            return answer;
+        }).setMaxConcurrency(1);
+        final MessageRouter router = new MessageRouter(Collections.singletonList(route), null);
+
+        final CompletionStage<Serializable> first = router.handleMessageAsync("1");
+        final CompletionStage<Serializable> second = router.handleMessageAsync("2");
+        Assertions.assertEquals(1, started.size());
+        Assertions.assertEquals(1, route.getMetrics().getInFlight());
+        Assertions.assertEquals(1, route.getMetrics().getQueued());
+
+        started.get(0).complete("a");
+        Assertions.assertEquals("a", first.toCompletableFuture().join());
+        Assertions.assertEquals(2, started.size());
+
+        started.get(1).completeExceptionally(new IllegalStateException());
+        Assertions.assertTrue(second.toCompletableFuture().isCompletedExceptionally());
+
+        Assertions.assertEquals(2, route.getMetrics().getInvocations());
+        Assertions.assertEquals(1, route.getMetrics().getFailures());
+        Assertions.assertEquals(0, route.getMetrics().getInFlight());
+        Assertions.assertEquals(0, route.getMetrics().getQueued());
+    }
+
+    private interface Command extends Serializable {
+    }
+
+    private static final class Focus implements Command {
+        private static final long serialVersionUID = 1L;
+    }
+}
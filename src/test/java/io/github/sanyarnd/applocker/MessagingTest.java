@@ -1,7 +1,28 @@
 package io.github.sanyarnd.applocker;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
@@ -16,7 +37,7 @@ void send_and_receive_string() throws InterruptedException {
         Server<String, String> server = new Server<>(echoHandler);
         server.start();
 
-        int port = server.getPort(1000);
+        int port = server.tryGetPort();
 
         Client<String, String> client = new Client<>(port);
 
@@ -25,13 +46,112 @@ void send_and_receive_string() throws InterruptedException {
         Assertions.assertEquals(message, answer);
     }
 
+    @Test
+    void legacy_client_is_answered() throws Exception {
+        Server<String, String> server = new Server<>(createEchoHandler());
+        server.start();
+
+        // 1.2.x client: no connection type, waits for the stream header first
+        try (Socket socket = new Socket(InetAddress.getLocalHost(), server.tryGetPort());
+             ObjectInputStream input = new ObjectInputStream(socket.getInputStream());
+             ObjectOutputStream output = new ObjectOutputStream(socket.getOutputStream())) {
+            output.writeObject("legacy");
+            output.flush();
+            Assertions.assertEquals("legacy", input.readObject());
+        }
+        server.stop();
+    }
+
+    @Test
+    void late_connection_type_is_not_taken_for_legacy_client() throws Exception {
+        Server<String, String> server = new Server<>(createEchoHandler());
+        server.start();
+
+        try (Socket socket = new Socket(InetAddress.getLocalHost(), server.tryGetPort())) {
+            // e.g. GC pause between connecting and sending the type
+            Thread.sleep(500);
+            socket.getOutputStream().write(ConnectionType.MESSAGE.getCode());
+            final ObjectInputStream input = new ObjectInputStream(socket.getInputStream());
+            final ObjectOutputStream output = new ObjectOutputStream(socket.getOutputStream());
+            output.writeObject("late");
+            output.flush();
+            Assertions.assertEquals("late", input.readObject());
+        }
+        server.stop();
+    }
+
+    @Test
+    void silent_connections_do_not_hold_up_accepting() throws Exception {
+        Server<String, String> server = new Server<>(createEchoHandler());
+        server.start();
+
+        final List<Socket> silent = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            silent.add(new Socket(InetAddress.getLocalHost(), server.tryGetPort()));
+        }
+        final long start = System.currentTimeMillis();
+        // normal lane might be busy with the silent connections taken for 1.2.x clients
+        Assertions.assertEquals("test", new Client<String, String>(server.tryGetPort(), DeadlineMessage.NO_DEADLINE,
+            MessagePriority.HIGH, false).send("test"));
+        // 20 connections, 250 ms each if they were waited for one by one
+        Assertions.assertTrue(System.currentTimeMillis() - start < 2000);
+        for (Socket socket : silent) {
+            socket.close();
+        }
+        server.stop();
+    }
+
+    @Test
+    void stalled_handshake_is_closed() throws Exception {
+        final Path directory = Files.createTempDirectory("handshake");
+        // shared memory channels are accepted only with the lock directory
+        final Server<String, String> server = new Server<>(createEchoHandler(), null, directory,
+            new Publisher(Publisher.DEFAULT_BUFFER_SIZE, SlowSubscriberPolicy.DROP_OLDEST));
+        server.start();
+
+        try (Socket handover = new Socket(InetAddress.getLocalHost(), server.tryGetPort());
+             Socket sharedMemory = new Socket(InetAddress.getLocalHost(), server.tryGetPort())) {
+            handover.getOutputStream().write(ConnectionType.HANDOVER.getCode());
+            sharedMemory.getOutputStream().write(ConnectionType.SHARED_MEMORY.getCode());
+            // the server is still serving the others meanwhile
+            Assertions.assertEquals("test", new Client<String, String>(server.tryGetPort()).send("test"));
+            for (Socket socket : Arrays.asList(handover, sharedMemory)) {
+                socket.setSoTimeout(Server.HANDSHAKE_TIMEOUT_MS * 2);
+                Assertions.assertEquals(-1, socket.getInputStream().read());
+            }
+        } finally {
+            server.close();
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    void invalid_frame_length_closes_connection() throws Exception {
+        Server<String, String> server = new Server<>(createEchoHandler());
+        server.start();
+
+        for (int length : new int[] {-1, FrameChannel.MAX_FRAME_SIZE + 1}) {
+            try (Socket socket = new Socket(InetAddress.getLocalHost(), server.tryGetPort())) {
+                socket.setSoTimeout(5000);
+                final DataOutputStream output = new DataOutputStream(socket.getOutputStream());
+                output.write(ConnectionType.FRAMED.getCode());
+                output.writeInt(length);
+                output.flush();
+                Assertions.assertEquals(-1, socket.getInputStream().read());
+            }
+        }
+        // the server is still alive
+        Assertions.assertEquals("test", new Client<String, String>(server.tryGetPort()).send("test"));
+        server.stop();
+    }
+
     @Test
     void send_and_receive_array_list() throws InterruptedException {
         MessageHandler<ArrayList<Integer>, ArrayList<Integer>> echoHandler = createEchoHandler();
         Server<ArrayList<Integer>, ArrayList<Integer>> server = new Server<>(echoHandler);
         server.start();
 
-        int port = server.getPort(1000);
+        int port = server.tryGetPort();
 
         Client<ArrayList<Integer>, ArrayList<Integer>> client = new Client<>(port);
 
@@ -47,7 +167,7 @@ void send_and_receive_multiple_clients() throws InterruptedException {
         Server<String, String> server = new Server<>(echoHandler);
         server.start();
 
-        int port = server.getPort(1000);
+        int port = server.tryGetPort();
 
         Client<String, String> client = new Client<>(port);
         Client<String, String> client2 = new Client<>(port);
@@ -87,9 +207,9 @@ void port_throws_if_server_exception() throws InterruptedException {
         });
 
         server.start();
-        final Client<String, String> client = new Client<>(server.getPort(1000));
+        final Client<String, String> client = new Client<>(server.tryGetPort());
         Assertions.assertThrows(LockingException.class, () -> client.send("test"));
-        Assertions.assertThrows(LockingException.class, () -> server.getPort(1000));
+        Assertions.assertThrows(LockingException.class, server::tryGetPort);
         Assertions.assertThrows(LockingException.class, () -> client.send("test"));
     }
 
@@ -100,7 +220,7 @@ void invalid_message_handler_doesnt_break_server() throws InterruptedException {
         });
 
         server.start();
-        int port = server.getPort(1000);
+        int port = server.tryGetPort();
         final Client<String, String> client = new Client<>(port);
         Assertions.assertThrows(LockingException.class, () -> client.send("test"));
 
@@ -114,7 +234,7 @@ void client_throws_1_if_types_do_not_match() throws InterruptedException {
         Server<String, String> server = new Server<>(echoHandler);
         server.start();
 
-        int port = server.getPort(1000);
+        int port = server.tryGetPort();
 
         final Client<Integer, String> client = new Client<>(port);
 
@@ -135,7 +255,7 @@ void client_throws_2_if_types_do_not_match() throws InterruptedException {
         Server<String, String> server = new Server<>(handler);
         server.start();
 
-        int port = server.getPort(1000);
+        int port = server.tryGetPort();
 
         final Client<Integer, String> client = new Client<>(port);
 
@@ -151,17 +271,298 @@ void multiple_start_stop() throws InterruptedException {
         Server<String, String> server = new Server<>(echoHandler);
 
         server.start();
-        int port = server.getPort(1000);
+        int port = server.tryGetPort();
         Assertions.assertTrue(port != -1);
 
         server.stop();
         Assertions.assertThrows(LockingException.class, () -> server.tryGetPort());
 
         server.start();
-        port = server.getPort(1000);
+        port = server.tryGetPort();
         Assertions.assertTrue(port != -1);
 
         server.stop();
         Assertions.assertThrows(LockingException.class, () -> server.tryGetPort());
     }
+
+    @Test
+    void async_handler_answers_after_completion() throws InterruptedException {
+        final ExecutorService worker = Executors.newSingleThreadExecutor();
+        final AsyncMessageHandler<String, String> handler =
+            message -> CompletableFuture.supplyAsync(() -> message + "!", worker);
+        final Server<String, String> server = new Server<>(handler);
+        server.start();
+
+        final Client<String, String> client = new Client<>(server.tryGetPort());
+        Assertions.assertEquals("test!", client.send("test"));
+
+        server.close();
+        worker.shutdown();
+    }
+
+    @Test
+    void async_handler_doesnt_block_server_thread() throws Exception {
+        // nothing is completed until every request reached the handler
+        final int requests = 32;
+        final List<CompletableFuture<String>> pending = new CopyOnWriteArrayList<>();
+        final AsyncMessageHandler<String, String> handler = message -> {
+            final CompletableFuture<String> answer = new CompletableFuture<>();
+            pending.add(answer);
+            return answer.thenApply(ignored -> message);
+        };
+        final Server<String, String> server = new Server<>(handler);
+        server.start();
+        final int port = server.tryGetPort();
+
+        final ExecutorService senders = Executors.newFixedThreadPool(requests);
+        final List<Future<String>> answers = new ArrayList<>();
+        for (int i = 0; i < requests; ++i) {
+            final String message = String.valueOf(i);
+            answers.add(senders.submit(() -> new Client<String, String>(port).send(message)));
+        }
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (pending.size() < requests && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assertions.assertEquals(requests, pending.size());
+
+        pending.forEach(answer -> answer.complete(""));
+        for (int i = 0; i < requests; ++i) {
+            Assertions.assertEquals(String.valueOf(i), answers.get(i).get(5, TimeUnit.SECONDS));
+        }
+
+        server.close();
+        senders.shutdown();
+    }
+
+    @Test
+    void failed_async_handler_doesnt_break_server() throws InterruptedException {
+        final AsyncMessageHandler<String, String> handler = message -> {
+            final CompletableFuture<String> answer = new CompletableFuture<>();
+            answer.completeExceptionally(new IllegalArgumentException());
+            return answer;
+        };
+        final Server<String, String> server = new Server<>(handler);
+        server.start();
+        final int port = server.tryGetPort();
+
+        Assertions.assertThrows(LockingException.class, () -> new Client<String, String>(port).send("test"));
+        Assertions.assertThrows(LockingException.class, () -> new Client<String, String>(port).send("test"));
+
+        server.close();
+    }
+
+    private static final class GeneratedStream extends InputStream {
+        private final long size;
+        private long position;
+
+        private GeneratedStream(final long length) {
+            size = length;
+        }
+
+        @Override
+        public int read() {
+            return position < size ? (int) (position++ % 251) : -1;
+        }
+    }
+
+    private static long checksum(final InputStream stream) throws IOException {
+        long sum = 0;
+        final byte[] buffer = new byte[1000];
+        int read = stream.read(buffer);
+        while (read != -1) {
+            for (int i = 0; i < read; ++i) {
+                sum = sum * 31 + (buffer[i] & 0xFF);
+            }
+            read = stream.read(buffer);
+        }
+        return sum;
+    }
+
+    @Test
+    void stream_echo_large_payload() throws Exception {
+        final StreamMessageHandler echo = (message, answer) -> {
+            final byte[] buffer = new byte[777];
+            int read = message.read(buffer);
+            while (read != -1) {
+                answer.write(buffer, 0, read);
+                read = message.read(buffer);
+            }
+        };
+        final Server<String, String> server = new Server<>(createEchoHandler(), echo);
+        server.start();
+        final Client<String, String> client = new Client<>(server.tryGetPort());
+
+        final long size = 32L * 1024 * 1024 + 13;
+        try (InputStream answer = client.sendStream(new GeneratedStream(size))) {
+            Assertions.assertEquals(checksum(new GeneratedStream(size)), checksum(answer));
+        }
+        // regular messages still work
+        Assertions.assertEquals("test", client.send("test"));
+
+        server.close();
+    }
+
+    @Test
+    void stream_answer_before_reading_whole_message() throws Exception {
+        final StreamMessageHandler handler = (message, answer) -> answer.write(message.read());
+        final Server<String, String> server = new Server<>(createEchoHandler(), handler);
+        server.start();
+        final Client<String, String> client = new Client<>(server.tryGetPort());
+
+        try (InputStream answer = client.sendStream(new GeneratedStream(16L * 1024 * 1024))) {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            int b = answer.read();
+            while (b != -1) {
+                bytes.write(b);
+                b = answer.read();
+            }
+            Assertions.assertArrayEquals(new byte[] {0}, bytes.toByteArray());
+        }
+
+        server.close();
+    }
+
+    @Test
+    void failed_stream_handler_is_reported_to_sender() throws Exception {
+        final StreamMessageHandler handler = (message, answer) -> {
+            answer.write(1);
+            answer.flush();
+            throw new IOException("failure");
+        };
+        final Server<String, String> server = new Server<>(createEchoHandler(), handler);
+        server.start();
+        final Client<String, String> client = new Client<>(server.tryGetPort());
+
+        try (InputStream answer = client.sendStream(new ByteArrayInputStream(new byte[] {1, 2, 3}))) {
+            Assertions.assertThrows(IOException.class, () -> checksum(answer));
+        }
+
+        server.close();
+    }
+
+    @Test
+    void stream_is_rejected_without_stream_handler() throws InterruptedException {
+        final Server<String, String> server = new Server<>(createEchoHandler());
+        server.start();
+        final Client<String, String> client = new Client<>(server.tryGetPort());
+
+        Assertions.assertThrows(IOException.class, () -> {
+            try (InputStream answer = client.sendStream(new ByteArrayInputStream(new byte[] {1}))) {
+                checksum(answer);
+            }
+        });
+
+        server.close();
+    }
+
+    @Test
+    void subscribers_receive_published_events() throws Exception {
+        final Server<String, String> server = new Server<>(createEchoHandler());
+        server.start();
+        final int port = server.tryGetPort();
+
+        final List<String> first = new CopyOnWriteArrayList<>();
+        final List<String> second = new CopyOnWriteArrayList<>();
+        final Subscription s1 = new Client<String, String>(port).subscribe(first::add);
+        final Subscription s2 = new Client<String, String>(port).subscribe(second::add);
+
+        Assertions.assertEquals(2, server.publish("a"));
+        Assertions.assertEquals(2, server.publish("b"));
+        final long deadline = System.currentTimeMillis() + 5000;
+        while ((first.size() < 2 || second.size() < 2) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assertions.assertEquals(Arrays.asList("a", "b"), first);
+        Assertions.assertEquals(Arrays.asList("a", "b"), second);
+
+        s1.close();
+        Assertions.assertFalse(s1.isActive());
+        server.stop();
+        while (s2.isActive() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assertions.assertFalse(s2.isActive());
+        server.close();
+    }
+
+    @Test
+    void slow_subscriber_events_are_dropped() throws Exception {
+        final Publisher publisher = new Publisher(4, SlowSubscriberPolicy.DROP_NEWEST);
+        final Server<String, String> server = new Server<>(createEchoHandler(), null, null, publisher);
+        server.start();
+
+        final CountDownLatch release = new CountDownLatch(1);
+        final Subscription subscription = new Client<String, byte[]>(server.tryGetPort()).subscribe(event -> {
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        // large events fill socket buffers, after that the subscriber buffer overflows
+        for (int i = 0; i < 512; ++i) {
+            server.publish(new byte[64 * 1024]);
+        }
+        Assertions.assertTrue(publisher.getDroppedEvents() > 0);
+        Assertions.assertEquals(1, publisher.getSubscriberCount());
+
+        release.countDown();
+        subscription.close();
+        server.close();
+    }
+
+    @Test
+    void shared_memory_exchange() throws Exception {
+        final Path directory = Files.createTempDirectory("sharedMemory");
+        final MessageHandler<Integer, byte[]> handler = size -> new byte[size];
+        final Server<Integer, byte[]> server = new Server<>(handler, null, directory,
+            new Publisher(Publisher.DEFAULT_BUFFER_SIZE, SlowSubscriberPolicy.DROP_OLDEST));
+        server.start();
+
+        try (SharedMemoryClient client = SharedMemoryClient.connect(server.tryGetPort(),
+            directory.resolve("channel.shm"), 4096)) {
+            // channel file is removed right after the handshake
+            Assertions.assertFalse(Files.exists(directory.resolve("channel.shm")));
+            for (int i = 0; i < 1000; ++i) {
+                final byte[] answer = client.send(MessageBuffer.serialize(i), DeadlineMessage.NO_DEADLINE);
+                Assertions.assertEquals(i, answer.length);
+            }
+            // answer doesn't fit the ring and comes through the spill file
+            final byte[] large = client.send(MessageBuffer.serialize(1024 * 1024), DeadlineMessage.NO_DEADLINE);
+            Assertions.assertEquals(1024 * 1024, large.length);
+
+            server.stop();
+            Assertions.assertThrows(LockingException.class,
+                () -> client.send(MessageBuffer.serialize(1), DeadlineMessage.NO_DEADLINE));
+            Assertions.assertTrue(client.isClosed());
+        } finally {
+            server.close();
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            Assertions.assertEquals(0, files.count());
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    void shared_memory_handler_failure() throws Exception {
+        final Path directory = Files.createTempDirectory("sharedMemory");
+        final MessageHandler<String, String> handler = message -> {
+            throw new IllegalStateException(message);
+        };
+        final Server<String, String> server = new Server<>(handler, null, directory,
+            new Publisher(Publisher.DEFAULT_BUFFER_SIZE, SlowSubscriberPolicy.DROP_OLDEST));
+        server.start();
+
+        try (SharedMemoryClient client = SharedMemoryClient.connect(server.tryGetPort(),
+            directory.resolve("channel.shm"), 4096)) {
+            Assertions.assertThrows(LockingException.class,
+                () -> client.send(MessageBuffer.serialize("fail"), DeadlineMessage.NO_DEADLINE));
+        } finally {
+            server.close();
+        }
+        Files.delete(directory);
+    }
 }
@@ -0,0 +1,35 @@
+package io.github.sanyarnd.applocker;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+/**
+ * Run by the {@code java22} profile against the packaged multi-release jar, so the JDK 22 classes are loaded.
+ */
+@EnabledOnOs(OS.LINUX)
+class OfdLockBackendIT {
+    @Test
+    void ofd_backend_locks_within_the_same_process() throws Exception {
+        Assumptions.assumeTrue(Arrays.asList("amd64", "x86_64", "aarch64", "riscv64")
+            .contains(System.getProperty("os.arch")));
+        Assertions.assertEquals("OfdLockBackend", LockBackends.select().getClass().getSimpleName());
+
+        final Path file = Paths.get("").toAbsolutePath().resolve("ofdFile");
+        final Lock holder = new Lock(file);
+        holder.tryLock();
+        // the kernel sees two open file descriptions, even though the process is the same
+        final Lock other = new Lock(file);
+        Assertions.assertThrows(LockingBusyException.class, other::tryLock);
+
+        holder.close();
+        try (Lock lock = new Lock(file)) {
+            lock.tryLock();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package io.github.sanyarnd.applocker;
+
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.io.TempDir;
+
+@EnabledOnOs({OS.LINUX, OS.MAC})
+class RuntimeDirectoryTest {
+    @Test
+    void shared_memory_gets_per_user_directory(@TempDir final Path shm) throws Exception {
+        final int uid = RuntimeDirectory.uid(shm);
+        final Path selected = RuntimeDirectory.select(shm, uid);
+
+        Assertions.assertEquals(shm.resolve("applocker-" + uid), selected);
+        Assertions.assertTrue(Files.isDirectory(selected));
+        // probe file is removed
+        Assertions.assertEquals(0, selected.toFile().list().length);
+        // the same directory is selected again
+        Assertions.assertEquals(selected, RuntimeDirectory.select(shm, uid));
+    }
+
+    @Test
+    void directory_owned_by_someone_else_is_not_used(@TempDir final Path shm) throws Exception {
+        final int uid = RuntimeDirectory.uid(shm);
+        // planted by another user
+        Files.createSymbolicLink(shm.resolve("applocker-" + uid), shm);
+
+        Assertions.assertNull(RuntimeDirectory.select(shm, uid));
+        Assertions.assertTrue(Files.isSymbolicLink(shm.resolve("applocker-" + uid)));
+        Assertions.assertFalse(Files.isDirectory(shm.resolve("applocker-" + uid), LinkOption.NOFOLLOW_LINKS));
+    }
+
+    @Test
+    void missing_shared_memory_is_not_replaced(@TempDir final Path tmp) throws Exception {
+        Assertions.assertNull(RuntimeDirectory.select(tmp.resolve("missing"), RuntimeDirectory.uid(tmp)));
+    }
+
+    @Test
+    @EnabledOnOs(OS.LINUX)
+    void runtime_path_locks() throws Exception {
+        final AppLocker l1 = AppLocker.create("runtimePath").setRuntimePath().build();
+        final AppLocker l2 = AppLocker.create("runtimePath").setRuntimePath().build();
+
+        l1.lock();
+        Assertions.assertThrows(LockingBusyException.class, l2::lock);
+        l1.unlock();
+    }
+}
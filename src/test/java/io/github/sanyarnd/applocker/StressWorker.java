@@ -0,0 +1,110 @@
+package io.github.sanyarnd.applocker;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Worker process of {@link ContentionStressTest}.
+ * <br>
+ * Hammers the shared lock for the given time: holds it for a moment when acquired, sends a message to the holder
+ * when busy. Every event is written to the report file, {@link System#nanoTime()} is shared by the processes of the
+ * same host, so the hold intervals of the different workers can be compared.
+ * <pre>
+ * L nanos           lock attempt latency
+ * H acquired released hold interval
+ * B                 busy lock attempt
+ * M nanos           message round trip latency
+ * A id              acknowledged message
+ * X id answer       wrong answer
+ * F                 failed message
+ * R id              received message
+ * </pre>
+ */
+final class StressWorker {
+    static final String LOCK_ID = "stress";
+    private static final long MESSAGE_TIMEOUT_MS = 1000;
+
+    private StressWorker() {
+    }
+
+    /**
+     * Run the worker.
+     *
+     * @param args lock directory, duration in milliseconds, maximum hold time in milliseconds, report file, worker id
+     * @throws Exception if the worker has crashed
+     */
+    public static void main(final String[] args) throws Exception {
+        final Path directory = Paths.get(args[0]);
+        final long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Long.parseLong(args[1]));
+        final long maxHoldNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(args[2]));
+        final Path report = Paths.get(args[3]);
+        final String workerId = args[4];
+        // debug logging would dominate the measurements
+        ((Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+
+        final Queue<String> received = new ConcurrentLinkedQueue<>();
+        final AppLocker locker = AppLocker.create(LOCK_ID).setPath(directory)
+            .setMessageHandler((MessageHandler<String, String>) message -> {
+                received.add(message);
+                return message;
+            })
+            .build();
+
+        long seq = 0;
+        try (BufferedWriter out = Files.newBufferedWriter(report)) {
+            while (System.nanoTime() < end) {
+                final long start = System.nanoTime();
+                try {
+                    locker.lock();
+                    final long acquired = System.nanoTime();
+                    LockSupport.parkNanos(ThreadLocalRandom.current().nextLong(maxHoldNanos));
+                    final long released = System.nanoTime();
+                    // taken before unlock, so the intervals of the correct holders never overlap
+                    locker.unlock();
+                    write(out, "L " + (acquired - start));
+                    write(out, "H " + acquired + " " + released);
+                } catch (LockingBusyException ex) {
+                    write(out, "L " + (System.nanoTime() - start));
+                    write(out, "B");
+                    send(locker, out, workerId + ":" + seq++);
+                }
+            }
+            for (String message : received) {
+                write(out, "R " + message);
+            }
+        } finally {
+            locker.unlock();
+        }
+    }
+
+    private static void send(final AppLocker locker, final BufferedWriter out, final String message)
+        throws IOException {
+        final long start = System.nanoTime();
+        final String answer;
+        try {
+            answer = locker.sendMessage(message, MESSAGE_TIMEOUT_MS);
+        } catch (LockingException ex) {
+            // the holder has gone in the meantime
+            write(out, "F");
+            return;
+        }
+        write(out, "M " + (System.nanoTime() - start));
+        write(out, message.equals(answer) ? "A " + message : "X " + message + " " + answer);
+    }
+
+    private static void write(final BufferedWriter out, final String line) throws IOException {
+        out.write(line);
+        out.newLine();
+    }
+}